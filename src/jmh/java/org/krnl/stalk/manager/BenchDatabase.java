@@ -0,0 +1,81 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.EnumSet;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 基准测试用的临时数据库：与插件启动时相同的建表和写入路径 (环形缓冲区 + 写入线程 + 分区)，
+ * 配置取 config.yml 的默认值，文件放在系统临时目录
+ */
+final class BenchDatabase {
+
+    private static final Logger LOGGER = Logger.getLogger("Stalk-Bench");
+
+    final File file;
+    final String url;
+    final EventRingBuffer buffer;
+    final BatchWriter writer;
+
+    private BenchDatabase(File file) throws SQLException {
+        this.file = file;
+        this.url = "jdbc:sqlite:" + file.getAbsolutePath();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            stmt.execute("PRAGMA synchronous=NORMAL;");
+            Schema.init(connection);
+        }
+        // 生成数据时宁可等待也不丢事件
+        this.buffer = new EventRingBuffer(65536, EventRingBuffer.OverflowPolicy.BLOCK, 60_000, LOGGER);
+        this.writer = new BatchWriter(LOGGER, buffer,
+                new BlockHistoryCache(16, 32L * 1024 * 1024),
+                new TrajectoryBuffer(true, 300_000, 512),
+                new EventCoalescer(EnumSet.of(LogAction.INV_CLICK, LogAction.INTERACT, LogAction.ATTACK), 3000, 60_000),
+                new Metrics(), 500, 1000);
+        writer.start(url, new Backlog(LOGGER, buffer, null, 0));
+    }
+
+    /**
+     * 在临时目录新建一个空数据库并启动写入线程
+     */
+    static BenchDatabase create(String prefix) throws IOException, SQLException {
+        File file = Files.createTempFile(prefix, ".db").toFile();
+        return new BenchDatabase(file);
+    }
+
+    /**
+     * 写入 rows 条合成事件，时间戳均匀分布在 [from, to)，返回时已全部提交
+     */
+    void fill(EventGenerator generator, long rows, long from, long to) {
+        LogEvent event = new LogEvent();
+        long target = writer.getTotalWritten() + rows;
+        double step = (double) (to - from) / rows;
+        for (long i = 0; i < rows; i++) {
+            generator.next(event, from + (long) (i * step));
+            buffer.publish(event);
+        }
+        awaitWritten(target);
+    }
+
+    void awaitWritten(long target) {
+        while (writer.getTotalWritten() < target) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * 写出剩余事件和未结束的轨迹，然后删除数据库文件 (包括 WAL)
+     */
+    void close(boolean delete) {
+        writer.shutdown(Long.MAX_VALUE);
+        if (!delete) return;
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryType;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 基准测试用的合成事件：固定种子，动作比例大致按线上服务器的分布 (移动、交互、物品栏点击最多)，
+ * 每个玩家在自己的出生点附近随机游走，所以方块和区域查询能命中真实的热点
+ */
+final class EventGenerator {
+
+    // 每千条事件中各动作的数量
+    private static final LogAction[] ACTIONS = LogAction.values();
+    private static final int[] WEIGHTS = new int[ACTIONS.length];
+
+    static {
+        weight(LogAction.CHUNK_MOVE, 180);
+        weight(LogAction.INTERACT, 160);
+        weight(LogAction.INV_CLICK, 150);
+        weight(LogAction.BLOCK_BREAK, 120);
+        weight(LogAction.BLOCK_PLACE, 110);
+        weight(LogAction.ATTACK, 70);
+        weight(LogAction.PICKUP_ITEM, 50);
+        weight(LogAction.DROP_ITEM, 30);
+        weight(LogAction.CHAT, 30);
+        weight(LogAction.COMMAND, 20);
+        weight(LogAction.CONTAINER_OPEN, 15);
+        weight(LogAction.CONTAINER_CLOSE, 15);
+        weight(LogAction.CONTAINER_TRANSACTION, 15);
+        weight(LogAction.KILL_ENTITY, 15);
+        weight(LogAction.SESSION, 5);
+        weight(LogAction.DEATH, 3);
+        weight(LogAction.DEATH_PLAYER, 2);
+    }
+
+    private static final String[] WORLDS = {"world", "world", "world", "world_nether", "world_the_end"};
+    private static final Material[] BLOCKS = {Material.STONE, Material.DIRT, Material.GRASS_BLOCK, Material.OAK_LOG, Material.TNT};
+    private static final Material[] ITEMS = {Material.AIR, Material.DIAMOND_SWORD, Material.DIAMOND, Material.OAK_LOG, Material.STONE};
+    private static final String[] CHAT = {"hello", "anyone selling diamonds?", "brb", "gg", "where is spawn"};
+    private static final String[] COMMANDS = {"/home", "/spawn", "/tpa Steve", "/msg Alex hi", "/warp shop"};
+
+    private final Random random;
+    private final String[] names;
+    private final UUID[] uuids;
+    private final String[] worlds;
+    private final int[] px;
+    private final int[] py;
+    private final int[] pz;
+
+    EventGenerator(long seed, int players) {
+        this.random = new Random(seed);
+        this.names = new String[players];
+        this.uuids = new UUID[players];
+        this.worlds = new String[players];
+        this.px = new int[players];
+        this.py = new int[players];
+        this.pz = new int[players];
+        for (int i = 0; i < players; i++) {
+            names[i] = "Player" + i;
+            uuids[i] = new UUID(seed, i);
+            worlds[i] = WORLDS[random.nextInt(WORLDS.length)];
+            px[i] = random.nextInt(20_000) - 10_000;
+            py[i] = 64;
+            pz[i] = random.nextInt(20_000) - 10_000;
+        }
+    }
+
+    private static void weight(LogAction action, int perMille) {
+        WEIGHTS[action.ordinal()] = perMille;
+    }
+
+    int players() {
+        return uuids.length;
+    }
+
+    UUID uuid(int player) {
+        return uuids[player];
+    }
+
+    String world(int player) {
+        return worlds[player];
+    }
+
+    int x(int player) {
+        return px[player];
+    }
+
+    int y(int player) {
+        return py[player];
+    }
+
+    int z(int player) {
+        return pz[player];
+    }
+
+    /**
+     * 生成下一条事件，写入 target (与监听器一样只采集结构化字段)；返回事件所属的玩家序号
+     */
+    int next(LogEvent target, long timestamp) {
+        int p = random.nextInt(uuids.length);
+        LogAction action = pick();
+        target.reset(timestamp, names[p], uuids[p], action);
+
+        // 大多数动作在原地附近，移动时走出当前区块
+        if (action == LogAction.CHUNK_MOVE) {
+            px[p] += random.nextInt(33) - 16;
+            pz[p] += random.nextInt(33) - 16;
+        }
+        target.world = worlds[p];
+        target.x = px[p] + random.nextInt(9) - 4;
+        target.y = py[p] + random.nextInt(5) - 2;
+        target.z = pz[p] + random.nextInt(9) - 4;
+
+        switch (action) {
+            case CHUNK_MOVE -> target.targetPos((target.x >> 4) + 1, 0, target.z >> 4);
+            case CHAT -> target.text(CHAT[random.nextInt(CHAT.length)]);
+            case COMMAND -> target.text(COMMANDS[random.nextInt(COMMANDS.length)]);
+            case SESSION -> target.text("/127.0.0." + random.nextInt(255));
+            case BLOCK_BREAK -> held(target.material(block()), item(), 1);
+            case BLOCK_PLACE -> target.material(block());
+            case INTERACT -> held(target.kind(random.nextBoolean() ? Action.RIGHT_CLICK_BLOCK : Action.LEFT_CLICK_BLOCK)
+                    .material(random.nextInt(4) == 0 ? Material.CHEST : block()), item(), 1);
+            case DROP_ITEM, PICKUP_ITEM -> held(target, Material.DIRT, 1 + random.nextInt(64));
+            case ATTACK -> {
+                if (random.nextInt(5) == 0) {
+                    int victim = random.nextInt(uuids.length);
+                    target.target(uuids[victim], names[victim]);
+                } else {
+                    target.target(new UUID(random.nextLong(), random.nextLong()), null).kind(random.nextBoolean() ? EntityType.ZOMBIE : EntityType.COW);
+                }
+                held(target.damage(random.nextDouble() * 10), item(), 1);
+            }
+            case DEATH -> target.details("Died");
+            case DEATH_PLAYER -> target.text(names[p] + " was slain by Zombie").target(null, "Zombie");
+            case KILL_ENTITY -> target.text("ZOMBIE").target(new UUID(random.nextLong(), random.nextLong()), null);
+            case CONTAINER_OPEN -> target.kind(InventoryType.CHEST).text("Chest").targetPos(target.x, target.y, target.z);
+            case CONTAINER_CLOSE -> {
+                // 多数关闭不改动内容，其余改动一到三格
+                int[] changes = new int[random.nextInt(2) == 0 ? 0 : 3 * (1 + random.nextInt(3))];
+                for (int i = 0; i < changes.length; i += 3) {
+                    changes[i] = random.nextInt(27);
+                    changes[i + 1] = random.nextInt(2) == 0 ? 0 : DetailRenderer.pack(item(), 1 + random.nextInt(64));
+                    changes[i + 2] = random.nextInt(2) == 0 ? 0 : DetailRenderer.pack(item(), 1 + random.nextInt(64));
+                }
+                target.kind(InventoryType.CHEST).targetPos(target.x, target.y, target.z).contents(changes);
+            }
+            case INV_CLICK, CONTAINER_TRANSACTION -> {
+                held(target, Material.STONE, 1 + random.nextInt(64));
+                target.text("Click/Take")
+                        .kind(action == LogAction.INV_CLICK ? InventoryType.PLAYER : InventoryType.CHEST)
+                        .subKind(random.nextBoolean() ? InventoryAction.PICKUP_ALL : InventoryAction.PLACE_ALL)
+                        .slot(random.nextInt(36));
+                if (action == LogAction.CONTAINER_TRANSACTION) target.targetPos(target.x, target.y, target.z);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 监听器从 ItemStack 取材质和数量；这里直接填字段，不需要运行中的服务器来创建 ItemStack
+     */
+    private static void held(LogEvent target, Material type, int amount) {
+        target.item = type;
+        target.amount = amount;
+    }
+
+    private LogAction pick() {
+        int roll = random.nextInt(1000);
+        for (int i = 0; i < ACTIONS.length; i++) {
+            roll -= WEIGHTS[i];
+            if (roll < 0) return ACTIONS[i];
+        }
+        return LogAction.CHUNK_MOVE;
+    }
+
+    private Material block() {
+        return BLOCKS[random.nextInt(BLOCKS.length)];
+    }
+
+    private Material item() {
+        return ITEMS[random.nextInt(ITEMS.length)];
+    }
+}
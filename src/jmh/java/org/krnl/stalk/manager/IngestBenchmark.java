@@ -0,0 +1,95 @@
+package org.krnl.stalk.manager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 持续写入吞吐：每次调用发布一批合成事件，等写入线程全部提交后返回，结果单位是事件/秒。
+ * backend 参数对比 SQLite 分区表、段日志和共享数据库三种存储，共享数据库用进程内的 H2 代替
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class IngestBenchmark {
+
+    // 写入线程攒满 500 条 (writer.batch-size) 才提交，取整数倍，免得最后一批要等 flush-interval
+    private static final int BATCH = 10_000;
+
+    @Param({"sqlite", "segment-log", "jdbc"})
+    public String backend;
+
+    private BenchDatabase database;
+    private EventRingBuffer buffer;
+    private StorageBackend storage;
+    private File segmentDir;
+    private EventGenerator generator;
+    private LogEvent event;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if ("segment-log".equals(backend)) {
+            // 与插件默认配置相同：64 MB 一段，每小时换段
+            Logger logger = Logger.getLogger("Stalk-Bench");
+            segmentDir = Files.createTempDirectory("stalk-ingest-segments").toFile();
+            buffer = new EventRingBuffer(65536, EventRingBuffer.OverflowPolicy.BLOCK, 60_000, logger);
+            storage = new SegmentLogBackend(logger, segmentDir, buffer, new BlockHistoryCache(16, 32L * 1024 * 1024),
+                    new Metrics(), new ReadPool(null, new Metrics(), 1, 30), 64, 60, 500, 1000);
+            storage.open(new PlayerDirectory(), new Backlog(logger, buffer, null, 0));
+        } else if ("jdbc".equals(backend)) {
+            // 与插件默认配置相同：2 个写入连接，500 条一批
+            Logger logger = Logger.getLogger("Stalk-Bench");
+            buffer = new EventRingBuffer(65536, EventRingBuffer.OverflowPolicy.BLOCK, 60_000, logger);
+            storage = new JdbcBackend(logger, "jdbc:h2:mem:stalk-ingest;DB_CLOSE_DELAY=-1", new Properties(), "bench",
+                    buffer, new BlockHistoryCache(16, 32L * 1024 * 1024), new Metrics(),
+                    new ReadPool(null, new Metrics(), 1, 30), 2, 500, 1000);
+            storage.open(new PlayerDirectory(), new Backlog(logger, buffer, null, 0));
+        } else {
+            database = BenchDatabase.create("stalk-ingest");
+            buffer = database.buffer;
+        }
+        generator = new EventGenerator(42, 200);
+        event = new LogEvent();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (storage != null) {
+            storage.shutdown(Long.MAX_VALUE);
+        }
+        if (segmentDir != null) {
+            for (File file : segmentDir.listFiles()) {
+                file.delete();
+            }
+            segmentDir.delete();
+        }
+        if (database != null) {
+            database.close(true);
+        }
+    }
+
+    private long written() {
+        return storage != null ? storage.getTotalWritten() : database.writer.getTotalWritten();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert() {
+        long target = written() + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            generator.next(event, System.currentTimeMillis());
+            buffer.publish(event);
+        }
+        while (written() < target) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+}
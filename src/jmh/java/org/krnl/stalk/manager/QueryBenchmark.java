@@ -0,0 +1,122 @@
+package org.krnl.stalk.manager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 玩家、方块、区域查询和全文搜索的延迟分布 (SampleTime 模式直接给出 p50/p99)。
+ * 数据库按行数生成一次，时间跨度 30 天；5000 万行需要几分钟，
+ * 加 -Dstalk.bench.keep=true 时保留文件，路径会打印出来
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final long SPAN_MILLIS = 30 * Partitions.DAY_MILLIS;
+
+    @Param({"1000000", "10000000", "50000000"})
+    public long rows;
+
+    private EventGenerator generator;
+    private Connection connection;
+    private ReadPool.QueryContext ctx;
+    private final Random random = new Random(7);
+    private BenchDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        generator = new EventGenerator(42, 500);
+        database = BenchDatabase.create("stalk-query-" + rows + "-");
+        long now = System.currentTimeMillis();
+        database.fill(generator, rows, now - SPAN_MILLIS, now);
+        database.writer.shutdown(Long.MAX_VALUE);
+        System.out.println("Benchmark database: " + database.file.getAbsolutePath());
+
+        // 与 ReadPool 相同的只读连接设置
+        Properties props = new Properties();
+        props.setProperty("open_mode", "1");
+        connection = DriverManager.getConnection(database.url, props);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA query_only=1;");
+        }
+        connection.setAutoCommit(false);
+        ctx = new ReadPool.QueryContext(null);
+        ctx.attach(connection);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+        database.close(!Boolean.getBoolean("stalk.bench.keep"));
+    }
+
+    private List<LogRow> read(LogQuery query) throws SQLException {
+        try {
+            return LogReader.read(ctx, LogManager.plan(query));
+        } finally {
+            connection.rollback();
+        }
+    }
+
+    @Benchmark
+    public List<LogRow> player() throws SQLException {
+        int p = random.nextInt(generator.players());
+        return read(new LogQuery().players(Set.of(generator.uuid(p))).limit(20));
+    }
+
+    @Benchmark
+    public List<LogRow> playerActionWindow() throws SQLException {
+        int p = random.nextInt(generator.players());
+        long until = System.currentTimeMillis() - random.nextInt(25) * Partitions.DAY_MILLIS;
+        return read(new LogQuery().players(Set.of(generator.uuid(p))).actions(Set.of("BLOCK_BREAK"))
+                .between(until - 3_600_000L * 6, until).limit(20));
+    }
+
+    @Benchmark
+    public List<LogRow> block() throws SQLException {
+        // 玩家的最终位置附近，最近的事件都在这里
+        int p = random.nextInt(generator.players());
+        return read(new LogQuery().block(generator.world(p), generator.x(p) + random.nextInt(9) - 4,
+                generator.y(p) + random.nextInt(5) - 2, generator.z(p) + random.nextInt(9) - 4).limit(10));
+    }
+
+    @Benchmark
+    public List<LogRow> area() throws SQLException {
+        int p = random.nextInt(generator.players());
+        return read(new LogQuery().area(generator.world(p), generator.x(p), generator.z(p), 20).limit(50));
+    }
+
+    @Benchmark
+    public List<LogRow> grep() throws SQLException {
+        return search(new LogQuery().text("diamonds").limit(20));
+    }
+
+    @Benchmark
+    public List<LogRow> grepPlayer() throws SQLException {
+        int p = random.nextInt(generator.players());
+        long until = System.currentTimeMillis() - random.nextInt(25) * Partitions.DAY_MILLIS;
+        return search(new LogQuery().text("/msg").players(Set.of(generator.uuid(p)))
+                .between(until - 5 * Partitions.DAY_MILLIS, until).limit(20));
+    }
+
+    private List<LogRow> search(LogQuery query) throws SQLException {
+        try {
+            return LogReader.search(ctx, query);
+        } finally {
+            connection.rollback();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.krnl.stalk.manager;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 主线程上每次记录事件的开销：采集字段、写入玩家最近历史、发布到环形缓冲区 (与 LogManager.submit 相同)。
+ * 另一个线程持续取走事件，模拟写入线程。collectAndRender 额外在本线程渲染 details，
+ * 即旧版监听器在主线程上拼接字符串的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SubmitBenchmark {
+
+    private static final int TEMPLATES = 4096;
+
+    private final LogEvent[] templates = new LogEvent[TEMPLATES];
+    private final Map<UUID, PlayerHistory> recentHistory = new ConcurrentHashMap<>();
+    private final LogEvent scratch = new LogEvent();
+    private EventRingBuffer buffer;
+    private Thread consumer;
+    private volatile boolean running;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EventGenerator generator = new EventGenerator(42, 200);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < TEMPLATES; i++) {
+            templates[i] = new LogEvent();
+            generator.next(templates[i], now);
+        }
+        for (int i = 0; i < generator.players(); i++) {
+            recentHistory.put(generator.uuid(i), new PlayerHistory(200));
+        }
+        buffer = new EventRingBuffer(65536, EventRingBuffer.OverflowPolicy.PRIORITY, 50, Logger.getLogger("Stalk-Bench"));
+
+        running = true;
+        consumer = new Thread(() -> {
+            LogEvent target = new LogEvent();
+            while (running) {
+                if (buffer.poll(target)) target.clear();
+                else Thread.onSpinWait();
+            }
+        }, "Stalk-Bench-Consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        consumer.join();
+    }
+
+    /**
+     * 监听器采集到的字段复制进线程私有的事件对象，再提交
+     */
+    private LogEvent collect() {
+        LogEvent template = templates[next++ & (TEMPLATES - 1)];
+        scratch.copyFrom(template);
+        scratch.timestamp = System.currentTimeMillis();
+        return scratch;
+    }
+
+    private void submit(LogEvent event) {
+        PlayerHistory history = recentHistory.get(event.playerUuid);
+        if (history != null) history.add(event);
+        buffer.publish(event);
+    }
+
+    @Benchmark
+    public void log() {
+        submit(collect());
+    }
+
+    @Benchmark
+    public void collectAndRender(Blackhole blackhole) {
+        LogEvent event = collect();
+        blackhole.consume(DetailRenderer.render(event));
+        submit(event);
+    }
+}
@@ -6,6 +6,7 @@ import org.krnl.stalk.command.StalkCommand;
 import org.krnl.stalk.listener.ActivityListener;
 import org.krnl.stalk.listener.EntityListener;
 import org.krnl.stalk.listener.InventoryListener;
+import org.krnl.stalk.listener.ListenerRegistry;
 import org.krnl.stalk.listener.MovementListener;
 import org.krnl.stalk.listener.SocialListener;
 import org.krnl.stalk.manager.LogManager;
@@ -13,6 +14,7 @@ import org.krnl.stalk.manager.LogManager;
 public class Stalk extends JavaPlugin {
 
     private LogManager logManager;
+    private ListenerRegistry listeners;
 
     @Override
     public void onEnable() {
@@ -24,11 +26,14 @@ public class Stalk extends JavaPlugin {
 
         this.logManager = new LogManager(this);
 
-        getServer().getPluginManager().registerEvents(new MovementListener(this), this);
-        getServer().getPluginManager().registerEvents(new SocialListener(this), this);
-        getServer().getPluginManager().registerEvents(new ActivityListener(this), this);
-        getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
-        getServer().getPluginManager().registerEvents(new EntityListener(this), this);
+        // 按方法注册，禁用的动作不注册对应的监听方法
+        this.listeners = new ListenerRegistry(this,
+                new MovementListener(this),
+                new SocialListener(this),
+                new ActivityListener(this),
+                new InventoryListener(this),
+                new EntityListener(this));
+        listeners.apply(logManager::isEnabled);
 
         PluginCommand command = getCommand("stalk");
         if (command != null) {
@@ -40,6 +45,16 @@ public class Stalk extends JavaPlugin {
         getLogger().info("Stalk 插件已启动");
     }
 
+    /**
+     * 重新读取配置中的记录开关和过滤规则，并按新的开关注册或注销监听方法；返回注销状态的方法数。
+     * 存储、队列和写入线程的设置仍需重启
+     */
+    public int reload() {
+        reloadConfig();
+        logManager.loadSettings();
+        return listeners.apply(logManager::isEnabled);
+    }
+
     @Override
     public void onDisable() {
         if (logManager != null) {
@@ -13,7 +13,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.krnl.stalk.Stalk;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class StalkCommand implements CommandExecutor, TabCompleter {
@@ -27,6 +34,10 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
             "PICKUP_ITEM", "INV_CLICK"
     );
 
+    private static final int MAX_AREA_RADIUS = 256;
+    private static final int MAX_LIMIT = 500;
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)([smhdw])");
+
     public StalkCommand(Stalk plugin) {
         this.plugin = plugin;
     }
@@ -40,8 +51,39 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
 
         if (args.length == 0) {
             sender.sendMessage(Component.text("Usage:", NamedTextColor.RED));
-            sender.sendMessage(Component.text("/stalk search <player> [limit] [--na actions] [--npu]", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk search <player> [limit] [--action actions] [--na actions] [--since time] [--until time] [--npu] [--page next]", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk grep <text> [--player name] [--since time] [--until time] [--limit n] [--npu]", NamedTextColor.RED));
             sender.sendMessage(Component.text("/stalk block (Looks at target block)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk area <radius> [time] [limit] (e.g. /stalk area 10 6h)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk rollback <player> <time> [--dry-run] (e.g. /stalk rollback Steve 2h)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk restore [--dry-run] (Undo your last rollback)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk cancel (Abort your running query)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk stats (Queue, writer and query metrics)", NamedTextColor.RED));
+            sender.sendMessage(Component.text("/stalk reload (Reload logging switches and filters)", NamedTextColor.RED));
+            return true;
+        }
+
+        // 运行指标
+        if (args[0].equalsIgnoreCase("stats")) {
+            plugin.getLogManager().sendStats(sender);
+            return true;
+        }
+
+        // 重新加载记录开关和过滤规则
+        if (args[0].equalsIgnoreCase("reload")) {
+            int inactive = plugin.reload();
+            sender.sendMessage(Component.text("Reloaded logging switches and filters (" + inactive +
+                    " event handlers inactive). Storage, queue and writer settings need a restart.", NamedTextColor.GREEN));
+            return true;
+        }
+
+        // 中断正在执行的查询
+        if (args[0].equalsIgnoreCase("cancel")) {
+            if (plugin.getLogManager().cancelQuery(sender)) {
+                sender.sendMessage(Component.text("Query cancelled.", NamedTextColor.YELLOW));
+            } else {
+                sender.sendMessage(Component.text("No running query.", NamedTextColor.RED));
+            }
             return true;
         }
 
@@ -60,7 +102,46 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
-        // 2. 玩家日志查询
+        // 2. 周围区域查询
+        if (args[0].equalsIgnoreCase("area")) {
+            if (!(sender instanceof Player player)) {
+                sender.sendMessage(Component.text("Player only command.", NamedTextColor.RED));
+                return true;
+            }
+            int radius;
+            try {
+                radius = args.length >= 2 ? Integer.parseInt(args[1]) : -1;
+            } catch (NumberFormatException e) {
+                radius = -1;
+            }
+            if (radius < 0) {
+                sender.sendMessage(Component.text("Usage: /stalk area <radius> [time] [limit]", NamedTextColor.RED));
+                return true;
+            }
+            if (radius > MAX_AREA_RADIUS) radius = MAX_AREA_RADIUS;
+
+            long since = Long.MIN_VALUE;
+            int limit = 20;
+            for (int i = 2; i < args.length; i++) {
+                long duration = parseDuration(args[i]);
+                if (duration > 0) {
+                    since = System.currentTimeMillis() - duration;
+                } else {
+                    try {
+                        limit = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage(Component.text("Invalid time: " + args[i] + " (e.g. 30m, 6h, 1d12h)", NamedTextColor.RED));
+                        return true;
+                    }
+                }
+            }
+
+            limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+            plugin.getLogManager().searchArea(player, player.getLocation(), radius, since, limit);
+            return true;
+        }
+
+        // 3. 玩家日志查询
         if (args[0].equalsIgnoreCase("search")) {
             if (args.length < 2) {
                 sender.sendMessage(Component.text("Usage: /stalk search <player> ...", NamedTextColor.RED));
@@ -69,8 +150,12 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
 
             String targetName = args[1];
             int limit = 20;
+            Set<String> actions = new HashSet<>();
             Set<String> ignoredActions = new HashSet<>();
+            long since = Long.MIN_VALUE;
+            long until = Long.MAX_VALUE;
             boolean hideUuid = false;
+            boolean nextPage = false;
 
             for (int i = 2; i < args.length; i++) {
                 String arg = args[i];
@@ -80,8 +165,30 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
                         Collections.addAll(ignoredActions, types);
                         i++;
                     }
+                } else if (arg.equalsIgnoreCase("--action")) {
+                    if (i + 1 < args.length) {
+                        String[] types = args[i + 1].toUpperCase().split(",");
+                        Collections.addAll(actions, types);
+                        i++;
+                    }
+                } else if (arg.equalsIgnoreCase("--since") || arg.equalsIgnoreCase("--until")) {
+                    if (i + 1 < args.length) {
+                        long time = parseTime(args[i + 1]);
+                        if (time == -1) {
+                            sender.sendMessage(Component.text("Invalid time: " + args[i + 1] + " (e.g. 6h, 2024-05-01, 2024-05-01T02:00, 02:00)", NamedTextColor.RED));
+                            return true;
+                        }
+                        if (arg.equalsIgnoreCase("--since")) since = time;
+                        else until = time;
+                        i++;
+                    }
                 } else if (arg.equalsIgnoreCase("--npu") || arg.equalsIgnoreCase("--no-player-uuid")) {
                     hideUuid = true;
+                } else if (arg.equalsIgnoreCase("--page")) {
+                    if (i + 1 < args.length && args[i + 1].equalsIgnoreCase("next")) {
+                        nextPage = true;
+                        i++;
+                    }
                 } else {
                     try {
                         limit = Integer.parseInt(arg);
@@ -89,14 +196,137 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
                 }
             }
 
-            if (limit > 500) limit = 500;
-            plugin.getLogManager().searchLogs(sender, targetName, limit, ignoredActions, hideUuid);
+            limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+            if (since >= until) {
+                sender.sendMessage(Component.text("--since must be earlier than --until.", NamedTextColor.RED));
+                return true;
+            }
+            plugin.getLogManager().searchLogs(sender, targetName, limit, actions, ignoredActions, since, until, hideUuid, nextPage);
+            return true;
+        }
+
+        // 4. 按日志回滚与撤销
+        if (args[0].equalsIgnoreCase("rollback") || args[0].equalsIgnoreCase("restore")) {
+            if (!sender.hasPermission("stalk.rollback")) {
+                sender.sendMessage(Component.text("No permission.", NamedTextColor.RED));
+                return true;
+            }
+            boolean dryRun = Arrays.stream(args).anyMatch(arg -> arg.equalsIgnoreCase("--dry-run") || arg.equalsIgnoreCase("--preview"));
+            if (args[0].equalsIgnoreCase("restore")) {
+                plugin.getLogManager().restore(sender, dryRun);
+                return true;
+            }
+            if (args.length >= 2 && args[1].equalsIgnoreCase("cancel")) {
+                if (!plugin.getLogManager().cancelRollback(sender)) {
+                    sender.sendMessage(Component.text("No running rollback.", NamedTextColor.RED));
+                }
+                return true;
+            }
+            if (args.length < 3) {
+                sender.sendMessage(Component.text("Usage: /stalk rollback <player> <time> [--dry-run]", NamedTextColor.RED));
+                return true;
+            }
+            long since = parseTime(args[2]);
+            if (since == -1) {
+                sender.sendMessage(Component.text("Invalid time: " + args[2] + " (e.g. 30m, 6h, 2024-05-01T02:00)", NamedTextColor.RED));
+                return true;
+            }
+            plugin.getLogManager().rollback(sender, args[1], since, dryRun);
+            return true;
+        }
+
+        // 5. 聊天、命令全文搜索
+        if (args[0].equalsIgnoreCase("grep")) {
+            StringBuilder text = new StringBuilder();
+            String playerName = null;
+            int limit = 20;
+            long since = Long.MIN_VALUE;
+            long until = Long.MAX_VALUE;
+            boolean hideUuid = false;
+
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equalsIgnoreCase("--player")) {
+                    if (i + 1 < args.length) playerName = args[++i];
+                } else if (arg.equalsIgnoreCase("--since") || arg.equalsIgnoreCase("--until")) {
+                    if (i + 1 < args.length) {
+                        long time = parseTime(args[i + 1]);
+                        if (time == -1) {
+                            sender.sendMessage(Component.text("Invalid time: " + args[i + 1] + " (e.g. 6h, 2024-05-01, 2024-05-01T02:00, 02:00)", NamedTextColor.RED));
+                            return true;
+                        }
+                        if (arg.equalsIgnoreCase("--since")) since = time;
+                        else until = time;
+                        i++;
+                    }
+                } else if (arg.equalsIgnoreCase("--limit")) {
+                    if (i + 1 < args.length) {
+                        try {
+                            limit = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException ignored) { }
+                    }
+                } else if (arg.equalsIgnoreCase("--npu") || arg.equalsIgnoreCase("--no-player-uuid")) {
+                    hideUuid = true;
+                } else {
+                    if (!text.isEmpty()) text.append(' ');
+                    text.append(arg);
+                }
+            }
+
+            if (text.isEmpty()) {
+                sender.sendMessage(Component.text("Usage: /stalk grep <text> ...", NamedTextColor.RED));
+                return true;
+            }
+            limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+            if (since >= until) {
+                sender.sendMessage(Component.text("--since must be earlier than --until.", NamedTextColor.RED));
+                return true;
+            }
+            plugin.getLogManager().grep(sender, text.toString(), playerName, limit, since, until, hideUuid);
             return true;
         }
 
         return true;
     }
 
+    /**
+     * 解析 30m、6h、1d12h 这样的时长，返回毫秒，格式不对时返回 -1
+     */
+    static long parseDuration(String text) {
+        Matcher matcher = DURATION_PART.matcher(text.toLowerCase());
+        long total = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            long value = Long.parseLong(matcher.group(1));
+            total += switch (matcher.group(2)) {
+                case "s" -> value * 1000L;
+                case "m" -> value * 60_000L;
+                case "h" -> value * 3_600_000L;
+                case "d" -> value * 86_400_000L;
+                default -> value * 604_800_000L;
+            };
+            end = matcher.end();
+        }
+        return end > 0 && end == text.length() ? total : -1;
+    }
+
+    /**
+     * 解析查询时间：时长表示多久以前 (6h)，也可以是服务器时区的日期 (2024-05-01)、日期时间 (2024-05-01T02:00)
+     * 或今天的某个时刻 (02:00)。无效时返回 -1
+     */
+    static long parseTime(String text) {
+        long duration = parseDuration(text);
+        if (duration >= 0) return System.currentTimeMillis() - duration;
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (text.contains("T")) return LocalDateTime.parse(text).atZone(zone).toInstant().toEpochMilli();
+            if (text.contains(":")) return LocalTime.parse(text).atDate(LocalDate.now(zone)).atZone(zone).toInstant().toEpochMilli();
+            return LocalDate.parse(text).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
         if (!sender.hasPermission("stalk.admin")) return List.of();
@@ -105,14 +335,57 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
         if (args.length == 1) {
             if ("search".startsWith(args[0].toLowerCase())) completions.add("search");
             if ("block".startsWith(args[0].toLowerCase())) completions.add("block");
+            if ("area".startsWith(args[0].toLowerCase())) completions.add("area");
+            if ("grep".startsWith(args[0].toLowerCase())) completions.add("grep");
+            if (sender.hasPermission("stalk.rollback")) {
+                if ("rollback".startsWith(args[0].toLowerCase())) completions.add("rollback");
+                if ("restore".startsWith(args[0].toLowerCase())) completions.add("restore");
+            }
+            if ("cancel".startsWith(args[0].toLowerCase())) completions.add("cancel");
+            if ("stats".startsWith(args[0].toLowerCase())) completions.add("stats");
+            if ("reload".startsWith(args[0].toLowerCase())) completions.add("reload");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("area")) {
+            for (String radius : List.of("5", "10", "20", "50")) {
+                if (radius.startsWith(args[1])) completions.add(radius);
+            }
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("area")) {
+            for (String time : List.of("30m", "1h", "6h", "1d", "7d")) {
+                if (time.startsWith(args[2].toLowerCase())) completions.add(time);
+            }
         } else if (args.length == 2 && args[0].equalsIgnoreCase("search")) {
-            return Bukkit.getOnlinePlayers().stream().map(Player::getName)
-                    .filter(name -> name.toLowerCase().startsWith(args[1].toLowerCase())).collect(Collectors.toList());
+            Set<String> names = Bukkit.getOnlinePlayers().stream().map(Player::getName)
+                    .filter(name -> name.toLowerCase().startsWith(args[1].toLowerCase())).collect(Collectors.toCollection(LinkedHashSet::new));
+            // 在线玩家优先，其次是数据库中见过的离线玩家
+            names.addAll(plugin.getLogManager().getPlayerDirectory().complete(args[1], 20));
+            return new ArrayList<>(names);
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("rollback")) {
+            if ("cancel".startsWith(args[1].toLowerCase())) completions.add("cancel");
+            completions.addAll(plugin.getLogManager().getPlayerDirectory().complete(args[1], 20));
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("rollback")) {
+            for (String time : List.of("30m", "1h", "6h", "1d")) {
+                if (time.startsWith(args[2].toLowerCase())) completions.add(time);
+            }
+        } else if ((args.length == 4 && args[0].equalsIgnoreCase("rollback")) || (args.length == 2 && args[0].equalsIgnoreCase("restore"))) {
+            if ("--dry-run".startsWith(args[args.length - 1].toLowerCase())) completions.add("--dry-run");
+        } else if (args.length > 2 && args[0].equalsIgnoreCase("grep")) {
+            String current = args[args.length - 1];
+            String previous = args[args.length - 2];
+            if (previous.equalsIgnoreCase("--player")) {
+                return plugin.getLogManager().getPlayerDirectory().complete(current, 20);
+            } else if (previous.equalsIgnoreCase("--since") || previous.equalsIgnoreCase("--until")) {
+                for (String time : List.of("30m", "1h", "6h", "1d", "7d", LocalDate.now().toString())) {
+                    if (time.startsWith(current.toLowerCase())) completions.add(time);
+                }
+            } else if (current.startsWith("-")) {
+                for (String flag : List.of("--player", "--since", "--until", "--limit", "--npu")) {
+                    if (flag.startsWith(current.toLowerCase())) completions.add(flag);
+                }
+            }
         } else if (args.length > 2 && args[0].equalsIgnoreCase("search")) {
             String current = args[args.length - 1];
             String previous = args[args.length - 2];
 
-            if (previous.equalsIgnoreCase("--na") || previous.equalsIgnoreCase("--no-action")) {
+            if (previous.equalsIgnoreCase("--na") || previous.equalsIgnoreCase("--no-action") || previous.equalsIgnoreCase("--action")) {
                 String prefix = "";
                 String lastPart = current.toUpperCase();
                 if (current.contains(",")) {
@@ -123,9 +396,19 @@ public class StalkCommand implements CommandExecutor, TabCompleter {
                 for (String type : ACTION_TYPES) {
                     if (type.startsWith(lastPart)) completions.add(prefix + type);
                 }
+            } else if (previous.equalsIgnoreCase("--since") || previous.equalsIgnoreCase("--until")) {
+                for (String time : List.of("30m", "1h", "6h", "1d", "7d", LocalDate.now().toString())) {
+                    if (time.startsWith(current.toLowerCase())) completions.add(time);
+                }
+            } else if (previous.equalsIgnoreCase("--page")) {
+                if ("next".startsWith(current.toLowerCase())) completions.add("next");
             } else {
+                for (String flag : List.of("--action", "--since", "--until")) {
+                    if (flag.startsWith(current.toLowerCase())) completions.add(flag);
+                }
                 if ("--na".startsWith(current.toLowerCase())) completions.add("--na");
                 if ("--npu".startsWith(current.toLowerCase())) completions.add("--npu");
+                if ("--page".startsWith(current.toLowerCase())) completions.add("--page");
                 if (current.isEmpty() || current.matches("\\d+")) {
                     completions.add("20");
                     completions.add("50");
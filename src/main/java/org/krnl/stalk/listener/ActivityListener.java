@@ -1,7 +1,5 @@
 package org.krnl.stalk.listener;
 
-import org.bukkit.Material;
-import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -12,8 +10,9 @@ import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
-import org.bukkit.inventory.ItemStack;
 import org.krnl.stalk.Stalk;
+import org.krnl.stalk.manager.LogAction;
+import org.krnl.stalk.manager.LogEvent;
 
 public class ActivityListener implements Listener {
 
@@ -24,72 +23,62 @@ public class ActivityListener implements Listener {
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.BLOCK_BREAK)
     public void onBreak(BlockBreakEvent event) {
-        Block b = event.getBlock();
-        String itemStr = formatItem(event.getPlayer().getInventory().getItemInMainHand());
-        plugin.getLogManager().log(
-                event.getPlayer().getName(),
-                event.getPlayer().getUniqueId().toString(),
-                "BLOCK_BREAK",
-                b.getType().name() + " | Tool: " + itemStr,
-                b.getLocation()
-        );
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.BLOCK_BREAK, event.getBlock());
+        if (log == null) return;
+        log.material(event.getBlock().getType())
+                .item(event.getPlayer().getInventory().getItemInMainHand());
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.BLOCK_PLACE)
     public void onPlace(BlockPlaceEvent event) {
-        Block b = event.getBlockPlaced();
-        plugin.getLogManager().log(
-                event.getPlayer().getName(),
-                event.getPlayer().getUniqueId().toString(),
-                "BLOCK_PLACE",
-                b.getType().name(),
-                b.getLocation()
-        );
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.BLOCK_PLACE, event.getBlockPlaced());
+        if (log == null) return;
+        log.material(event.getBlockPlaced().getType());
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.INTERACT)
     public void onInteract(PlayerInteractEvent event) {
         if (event.getClickedBlock() == null) return;
         if (event.getAction().name().contains("AIR")) return;
 
-        String action = event.getAction().name();
-        String target = event.getClickedBlock().getType().name();
-        String handItem = formatItem(event.getItem());
-
-        plugin.getLogManager().log(
-                event.getPlayer().getName(),
-                event.getPlayer().getUniqueId().toString(),
-                "INTERACT",
-                String.format("%s on %s | Hand: %s", action, target, handItem),
-                event.getClickedBlock().getLocation()
-        );
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.INTERACT, event.getClickedBlock());
+        if (log == null) return;
+        log.kind(event.getAction())
+                .material(event.getClickedBlock().getType())
+                .item(event.getItem());
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.DROP_ITEM)
     public void onDrop(PlayerDropItemEvent event) {
-        plugin.getLogManager().log(event.getPlayer(), "DROP_ITEM",
-                formatItem(event.getItemDrop().getItemStack()) + " (Toss)");
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.DROP_ITEM);
+        if (log == null) return;
+        log.item(event.getItemDrop().getItemStack());
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.ATTACK)
     public void onCombat(EntityDamageByEntityEvent event) {
         if (event.getDamager() instanceof Player player) {
+            LogEvent log = plugin.getLogManager().event(player, LogAction.ATTACK);
+            if (log == null) return;
             Entity victim = event.getEntity();
-            String victimInfo;
             if (victim instanceof Player victimPlayer) {
-                victimInfo = String.format("Player: %s (UUID: %s)", victimPlayer.getName(), victimPlayer.getUniqueId());
+                log.target(victimPlayer.getUniqueId(), victimPlayer.getName());
             } else {
-                victimInfo = String.format("Entity: %s (UUID: %s)", victim.getType().name(), victim.getUniqueId());
+                log.target(victim.getUniqueId(), null).kind(victim.getType());
             }
-            String weapon = formatItem(player.getInventory().getItemInMainHand());
-            plugin.getLogManager().log(player, "ATTACK",
-                    String.format("Target: [%s] | Dmg: %.2f | Weapon: %s", victimInfo, event.getFinalDamage(), weapon));
+            log.damage(event.getFinalDamage())
+                    .item(player.getInventory().getItemInMainHand());
+            plugin.getLogManager().submit(log);
         }
     }
-
-    private String formatItem(ItemStack item) {
-        if (item == null || item.getType() == Material.AIR) return "EMPTY_HAND";
-        return item.getType().name() + " x" + item.getAmount();
-    }
 }
@@ -9,6 +9,8 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.krnl.stalk.Stalk;
+import org.krnl.stalk.manager.LogAction;
+import org.krnl.stalk.manager.LogEvent;
 
 public class EntityListener implements Listener {
 
@@ -20,8 +22,12 @@ public class EntityListener implements Listener {
 
     // 玩家死亡
     @EventHandler(priority = EventPriority.MONITOR)
+    @Logs(LogAction.DEATH_PLAYER)
     public void onPlayerDeath(PlayerDeathEvent event) {
         Player player = event.getEntity();
+        LogEvent log = plugin.getLogManager().event(player, LogAction.DEATH_PLAYER);
+        if (log == null) return;
+
         String msg = PlainTextComponentSerializer.plainText().serialize(event.deathMessage());
 
         String killerName = "Environment";
@@ -29,11 +35,12 @@ public class EntityListener implements Listener {
             killerName = player.getKiller().getName();
         }
 
-        plugin.getLogManager().log(player, "DEATH_PLAYER",
-                "Message: " + msg + " | Killer: " + killerName + " | Loc: " + formatLoc(player));
+        log.text(msg).target(null, killerName);
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.KILL_ENTITY)
     public void onEntityDeath(EntityDeathEvent event) {
         LivingEntity entity = event.getEntity();
 
@@ -41,17 +48,16 @@ public class EntityListener implements Listener {
 
         if (entity.getKiller() != null) {
             Player killer = entity.getKiller();
+            LogEvent log = plugin.getLogManager().event(killer, LogAction.KILL_ENTITY);
+            if (log == null) return;
+
             String entityName = entity.getName();
             if (entity.getCustomName() != null) {
                 entityName = PlainTextComponentSerializer.plainText().serialize(entity.customName()) + " (" + entity.getType().name() + ")";
             }
 
-            plugin.getLogManager().log(killer, "KILL_ENTITY",
-                    "Killed: " + entityName + " | UUID: " + entity.getUniqueId());
+            log.text(entityName).target(entity.getUniqueId(), null);
+            plugin.getLogManager().submit(log);
         }
     }
-
-    private String formatLoc(Player p) {
-        return p.getLocation().getBlockX() + "," + p.getLocation().getBlockY() + "," + p.getLocation().getBlockZ();
-    }
 }
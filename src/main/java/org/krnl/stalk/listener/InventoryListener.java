@@ -12,55 +12,89 @@ import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.krnl.stalk.Stalk;
+import org.krnl.stalk.manager.DetailRenderer;
+import org.krnl.stalk.manager.LogAction;
+import org.krnl.stalk.manager.LogEvent;
 
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
 public class InventoryListener implements Listener {
 
+    private static final int[] NO_CHANGES = new int[0];
+
     private final Stalk plugin;
+    // 打开容器时的内容快照，关闭时只记录与它不同的格子 (只在主线程访问)
+    private final Map<UUID, Snapshot> snapshots = new HashMap<>();
+
+    private record Snapshot(Inventory inventory, int[] contents) {
+    }
 
     public InventoryListener(Stalk plugin) {
         this.plugin = plugin;
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs({LogAction.CONTAINER_OPEN, LogAction.CONTAINER_CLOSE})
     public void onOpen(InventoryOpenEvent event) {
         if (event.getPlayer() instanceof Player player) {
             Inventory top = event.getInventory();
-            if (isValidContainer(top)) {
-                String locStr = getContainerLoc(top);
-                plugin.getLogManager().log(player, "CONTAINER_OPEN",
-                        "Type: " + top.getType().name() + " | Title: " + event.getView().getTitle() + " | " + locStr);
+            if (!isValidContainer(top)) return;
+            // 关闭时的差异依赖这份快照，与 CONTAINER_OPEN 是否记录、是否被过滤无关
+            if (plugin.getLogManager().isEnabled(LogAction.CONTAINER_CLOSE)) {
+                snapshots.put(player.getUniqueId(), new Snapshot(top, getInventoryContents(top)));
             }
+            LogEvent log = plugin.getLogManager().event(player, LogAction.CONTAINER_OPEN);
+            if (log == null) return;
+            log.kind(top.getType())
+                    .text(event.getView().getTitle())
+                    .targetPos(getContainerLoc(top));
+            plugin.getLogManager().submit(log);
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.CONTAINER_CLOSE)
     public void onClose(InventoryCloseEvent event) {
         if (event.getPlayer() instanceof Player player) {
             Inventory top = event.getInventory();
+            Snapshot snapshot = snapshots.remove(player.getUniqueId());
             if (isValidContainer(top)) {
-                String locStr = getContainerLoc(top);
-                String contents = getInventoryContents(top);
-                plugin.getLogManager().log(player, "CONTAINER_CLOSE",
-                        "Type: " + top.getType().name() + " | " + locStr + " | Contents: " + contents);
+                LogEvent log = plugin.getLogManager().event(player, LogAction.CONTAINER_CLOSE);
+                if (log == null) return;
+                int[] before = snapshot != null && snapshot.inventory() == top ? snapshot.contents() : null;
+                log.kind(top.getType())
+                        .targetPos(getContainerLoc(top))
+                        .contents(diff(before, getInventoryContents(top)));
+                plugin.getLogManager().submit(log);
             }
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        snapshots.remove(event.getPlayer().getUniqueId());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.PICKUP_ITEM)
     public void onPickup(EntityPickupItemEvent event) {
         if (event.getEntity() instanceof Player player) {
-            plugin.getLogManager().log(player, "PICKUP_ITEM",
-                    formatItem(event.getItem().getItemStack()) + " (From Ground)");
+            LogEvent log = plugin.getLogManager().event(player, LogAction.PICKUP_ITEM);
+            if (log == null) return;
+            log.item(event.getItem().getItemStack());
+            plugin.getLogManager().submit(log);
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs({LogAction.INV_CLICK, LogAction.CONTAINER_TRANSACTION})
     public void onClick(InventoryClickEvent event) {
         if (!(event.getWhoClicked() instanceof Player player)) return;
         Inventory clickedInv = event.getClickedInventory();
@@ -72,48 +106,65 @@ public class InventoryListener implements Listener {
                 (cursorItem != null && cursorItem.getType() != Material.AIR);
         if (!hasItem) return;
 
-        String action = event.getAction().name();
-        String invType = clickedInv.getType().name();
-        String itemInfo;
-        if (event.isShiftClick()) itemInfo = "Shift-Move: " + formatItem(currentItem);
-        else if (cursorItem != null && cursorItem.getType() != Material.AIR) itemInfo = "Place/Swap: " + formatItem(cursorItem);
-        else itemInfo = "Click/Take: " + formatItem(currentItem);
-
-        String context = "INV_CLICK";
-        String locStr = "";
-        if (clickedInv.getType() != InventoryType.PLAYER) {
-            context = "CONTAINER_TRANSACTION";
-            locStr = " | " + getContainerLoc(clickedInv);
-        }
+        boolean container = clickedInv.getType() != InventoryType.PLAYER;
+        LogEvent log = plugin.getLogManager().event(player, container ? LogAction.CONTAINER_TRANSACTION : LogAction.INV_CLICK);
+        if (log == null) return;
+
+        if (event.isShiftClick()) log.text("Shift-Move").item(currentItem);
+        else if (cursorItem != null && cursorItem.getType() != Material.AIR) log.text("Place/Swap").item(cursorItem);
+        else log.text("Click/Take").item(currentItem);
 
-        plugin.getLogManager().log(player, context,
-                String.format("[%s] Action: %s | %s | Slot: %d%s", invType, action, itemInfo, event.getSlot(), locStr));
+        log.kind(clickedInv.getType())
+                .subKind(event.getAction())
+                .slot(event.getSlot());
+        if (container) log.targetPos(getContainerLoc(clickedInv));
+        plugin.getLogManager().submit(log);
     }
 
     private boolean isValidContainer(Inventory inv) {
         return inv.getType() != InventoryType.CRAFTING && inv.getType() != InventoryType.PLAYER;
     }
 
-    private String getContainerLoc(Inventory inv) {
+    private Location getContainerLoc(Inventory inv) {
         Location loc = inv.getLocation();
         if (loc == null && inv.getHolder() instanceof BlockState bs) loc = bs.getLocation();
         else if (loc == null && inv.getHolder() instanceof org.bukkit.entity.Entity entity) loc = entity.getLocation();
+        return loc;
+    }
 
-        if (loc != null) {
-            return String.format("Block: [w:%s x:%d y:%d z:%d]",
-                    loc.getWorld().getName(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    /**
+     * 逐格比较，返回 (格子, 打开时, 关闭时) 三元组；没有快照时每个非空格都记为打开时未知
+     */
+    private int[] diff(int[] before, int[] after) {
+        if (before != null && before.length != after.length) before = null;
+        if (before != null && Arrays.equals(before, after)) return NO_CHANGES;
+        int count = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (changed(before, after, i)) count++;
         }
-        return "Block: [Unknown]";
+        if (count == 0) return NO_CHANGES;
+        int[] changes = new int[count * 3];
+        int n = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (!changed(before, after, i)) continue;
+            changes[n++] = i;
+            changes[n++] = before != null ? before[i] : -1;
+            changes[n++] = after[i];
+        }
+        return changes;
     }
 
-    private String formatItem(ItemStack item) {
-        if (item == null || item.getType() == Material.AIR) return "AIR";
-        return item.getType().name() + (item.getAmount() > 1 ? " x" + item.getAmount() : "");
+    private boolean changed(int[] before, int[] after, int slot) {
+        return before == null ? after[slot] != 0 : before[slot] != after[slot];
     }
 
-    private String getInventoryContents(Inventory inv) {
-        return "[" + Arrays.stream(inv.getContents())
-                .map(this::formatItem)
-                .collect(Collectors.joining(", ")) + "]";
+    private int[] getInventoryContents(Inventory inv) {
+        ItemStack[] items = inv.getContents();
+        int[] packed = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            ItemStack item = items[i];
+            if (item != null) packed[i] = DetailRenderer.pack(item.getType(), item.getAmount());
+        }
+        return packed;
     }
 }
@@ -0,0 +1,71 @@
+package org.krnl.stalk.listener;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.krnl.stalk.manager.LogAction;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 按方法注册监听器：每个 @EventHandler 方法单独放进对应事件的 HandlerList，
+ * 它记录的动作 (见 Logs) 全部禁用时从 HandlerList 中移除。PlayerMoveEvent 这类高频事件在
+ * 动作关闭后不会再调用到插件，重新加载配置后按新的开关增减，不需要重启
+ */
+public final class ListenerRegistry {
+
+    private record Handler(Set<LogAction> actions, HandlerList handlers, RegisteredListener listener) {
+    }
+
+    private final List<Handler> handlers = new ArrayList<>();
+    private final Set<Handler> registered = new HashSet<>();
+
+    public ListenerRegistry(Plugin plugin, Listener... listeners) {
+        for (Listener listener : listeners) {
+            for (Method method : listener.getClass().getMethods()) {
+                EventHandler annotation = method.getAnnotation(EventHandler.class);
+                if (annotation == null || method.getParameterCount() != 1) continue;
+                Class<? extends Event> type = method.getParameterTypes()[0].asSubclass(Event.class);
+                Logs logs = method.getAnnotation(Logs.class);
+                Set<LogAction> actions = EnumSet.noneOf(LogAction.class);
+                if (logs != null) actions.addAll(Arrays.asList(logs.value()));
+                handlers.add(new Handler(actions, handlerList(type), new RegisteredListener(listener,
+                        EventExecutor.create(method, type), annotation.priority(), plugin, annotation.ignoreCancelled())));
+            }
+        }
+    }
+
+    /**
+     * 与 Bukkit 相同，事件类自己或父类上的静态 getHandlerList
+     */
+    private static HandlerList handlerList(Class<? extends Event> type) {
+        try {
+            return (HandlerList) type.getMethod("getHandlerList").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("No handler list for " + type.getName(), e);
+        }
+    }
+
+    /**
+     * 注册至少记录一个启用动作的方法，注销动作全部禁用的方法 (主线程)；返回注销状态的方法数
+     */
+    public int apply(Predicate<LogAction> enabled) {
+        int inactive = 0;
+        for (Handler handler : handlers) {
+            boolean wanted = handler.actions().isEmpty() || handler.actions().stream().anyMatch(enabled);
+            if (wanted && registered.add(handler)) {
+                handler.handlers().register(handler.listener());
+            } else if (!wanted && registered.remove(handler)) {
+                handler.handlers().unregister(handler.listener());
+            }
+            if (!wanted) inactive++;
+        }
+        return inactive;
+    }
+}
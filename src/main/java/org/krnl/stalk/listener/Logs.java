@@ -0,0 +1,18 @@
+package org.krnl.stalk.listener;
+
+import org.krnl.stalk.manager.LogAction;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 监听器方法记录的动作。这些动作全部被禁用时 ListenerRegistry 注销这个方法，事件不再分发过来；
+ * 没有这个注解的方法 (维护玩家状态等) 始终注册
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Logs {
+    LogAction[] value();
+}
@@ -5,6 +5,8 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.krnl.stalk.Stalk;
+import org.krnl.stalk.manager.LogAction;
+import org.krnl.stalk.manager.LogEvent;
 
 public class MovementListener implements Listener {
 
@@ -15,6 +17,7 @@ public class MovementListener implements Listener {
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    @Logs(LogAction.CHUNK_MOVE)
     public void onMove(PlayerMoveEvent event) {
         int fromChunkX = event.getFrom().getBlockX() >> 4;
         int fromChunkZ = event.getFrom().getBlockZ() >> 4;
@@ -22,11 +25,10 @@ public class MovementListener implements Listener {
         int toChunkZ = event.getTo().getBlockZ() >> 4;
 
         if (fromChunkX != toChunkX || fromChunkZ != toChunkZ) {
-            plugin.getLogManager().log(
-                    event.getPlayer(),
-                    "CHUNK_MOVE",
-                    String.format("From [%d,%d] To [%d,%d]", fromChunkX, fromChunkZ, toChunkX, toChunkZ)
-            );
+            LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.CHUNK_MOVE);
+            if (log == null) return;
+            log.targetPos(toChunkX, 0, toChunkZ);
+            plugin.getLogManager().submit(log);
         }
     }
 }
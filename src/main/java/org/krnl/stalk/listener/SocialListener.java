@@ -9,6 +9,8 @@ import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.krnl.stalk.Stalk;
+import org.krnl.stalk.manager.LogAction;
+import org.krnl.stalk.manager.LogEvent;
 
 public class SocialListener implements Listener {
 
@@ -19,24 +21,43 @@ public class SocialListener implements Listener {
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
+    @Logs(LogAction.CHAT)
     public void onChat(AsyncChatEvent event) {
-        String message = PlainTextComponentSerializer.plainText().serialize(event.message());
-        plugin.getLogManager().log(event.getPlayer(), "CHAT", message);
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.CHAT);
+        if (log == null) return;
+        log.text(PlainTextComponentSerializer.plainText().serialize(event.message()));
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
+    @Logs(LogAction.COMMAND)
     public void onCommand(PlayerCommandPreprocessEvent event) {
-        plugin.getLogManager().log(event.getPlayer(), "COMMAND", event.getMessage());
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.COMMAND);
+        if (log == null) return;
+        log.text(event.getMessage());
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
-        plugin.getLogManager().log(event.getPlayer(), "SESSION", "Joined the server IP: " +
-                (event.getPlayer().getAddress() != null ? event.getPlayer().getAddress().toString() : "Unknown"));
+        plugin.getLogManager().trackPlayer(event.getPlayer());
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.SESSION);
+        if (log == null) return;
+        log.text(event.getPlayer().getAddress() != null ? event.getPlayer().getAddress().toString() : "Unknown");
+        plugin.getLogManager().submit(log);
     }
 
     @EventHandler
+    @Logs(LogAction.SESSION)
     public void onQuit(PlayerQuitEvent event) {
-        plugin.getLogManager().log(event.getPlayer(), "SESSION", "Left the server");
+        LogEvent log = plugin.getLogManager().event(event.getPlayer(), LogAction.SESSION);
+        if (log == null) return;
+        log.details("Left the server");
+        plugin.getLogManager().submit(log);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuitRelease(PlayerQuitEvent event) {
+        plugin.getLogManager().releasePlayer(event.getPlayer());
     }
 }
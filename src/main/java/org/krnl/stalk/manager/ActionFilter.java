@@ -0,0 +1,130 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * 一个动作的过滤规则 (config.yml 的 filters)，加载时编译好，监听器开始采集事件之前判断：
+ * 世界按名字查集合，材质按 ordinal 查表；权限组在玩家加入和重新加载时判断一次，结果缓存为按动作的位掩码
+ */
+final class ActionFilter {
+
+    private static final Material[] MATERIALS = Material.values();
+
+    // 为 null 表示不限
+    private final Set<String> excludedWorlds;
+    private final boolean[] materials;
+    private final String[] ignoredPermissions;
+
+    private ActionFilter(Set<String> excludedWorlds, boolean[] materials, String[] ignoredPermissions) {
+        this.excludedWorlds = excludedWorlds;
+        this.materials = materials;
+        this.ignoredPermissions = ignoredPermissions;
+    }
+
+    /**
+     * 编译每个动作的规则，default 中的世界和权限组与按动作的合并，材质名单按动作的优先；
+     * 没有任何规则的动作为 null
+     */
+    static ActionFilter[] compile(ConfigurationSection section, Logger logger) {
+        ActionFilter[] filters = new ActionFilter[LogAction.values().length];
+        if (section == null) return filters;
+        for (String key : section.getKeys(false)) {
+            if (key.equals("default")) continue;
+            try {
+                LogAction.valueOf(key);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Unknown log action in filters config: " + key);
+            }
+        }
+        ConfigurationSection defaults = section.getConfigurationSection("default");
+        for (LogAction action : LogAction.values()) {
+            ConfigurationSection rules = section.getConfigurationSection(action.name());
+            Set<String> worlds = new HashSet<>();
+            Set<String> groups = new LinkedHashSet<>();
+            for (ConfigurationSection source : new ConfigurationSection[]{defaults, rules}) {
+                if (source == null) continue;
+                worlds.addAll(source.getStringList("exclude-worlds"));
+                groups.addAll(source.getStringList("ignore-groups"));
+            }
+            ConfigurationSection materialRules = rules != null && rules.isConfigurationSection("materials")
+                    ? rules.getConfigurationSection("materials")
+                    : defaults != null ? defaults.getConfigurationSection("materials") : null;
+            boolean[] materials = compileMaterials(materialRules, logger);
+            if (worlds.isEmpty() && groups.isEmpty() && materials == null) continue;
+
+            String[] permissions = new String[groups.size()];
+            int i = 0;
+            for (String group : groups) {
+                permissions[i++] = "group." + group.toLowerCase(Locale.ROOT);
+            }
+            filters[action.ordinal()] = new ActionFilter(worlds.isEmpty() ? null : Set.copyOf(worlds), materials,
+                    permissions.length == 0 ? null : permissions);
+        }
+        return filters;
+    }
+
+    /**
+     * allow 列表只放行列出的材质，deny 列表排除列出的材质；两个都有时 allow 优先
+     */
+    private static boolean[] compileMaterials(ConfigurationSection section, Logger logger) {
+        if (section == null) return null;
+        List<String> allow = section.getStringList("allow");
+        List<String> deny = section.getStringList("deny");
+        if (allow.isEmpty() && deny.isEmpty()) return null;
+        boolean allowList = !allow.isEmpty();
+        boolean[] accepted = new boolean[MATERIALS.length];
+        Arrays.fill(accepted, !allowList);
+        for (String name : allowList ? allow : deny) {
+            Material material = Material.matchMaterial(name);
+            if (material == null) {
+                logger.warning("Unknown material in filters config: " + name);
+                continue;
+            }
+            accepted[material.ordinal()] = allowList;
+        }
+        return accepted;
+    }
+
+    /**
+     * 世界是否不受排除
+     */
+    boolean accepts(World world) {
+        return excludedWorlds == null || world == null || !excludedWorlds.contains(world.getName());
+    }
+
+    boolean filtersMaterials() {
+        return materials != null;
+    }
+
+    /**
+     * 材质是否放行，null (没有方块或物品) 总是放行
+     */
+    boolean accepts(Material material) {
+        return materials == null || material == null || materials[material.ordinal()];
+    }
+
+    /**
+     * 玩家属于忽略的权限组时，返回的掩码中这个动作对应的位为 1 (见 LogManager.trackPlayer)
+     */
+    static long ignoredMask(ActionFilter[] filters, Player player) {
+        long mask = 0;
+        for (int i = 0; i < filters.length; i++) {
+            ActionFilter filter = filters[i];
+            if (filter == null || filter.ignoredPermissions == null) continue;
+            for (String permission : filter.ignoredPermissions) {
+                // 只看显式设置的权限，没有注册的权限默认给 OP，会让 OP 属于所有组
+                if (player.isPermissionSet(permission) && player.hasPermission(permission)) {
+                    mask |= 1L << i;
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,587 @@
+package org.krnl.stalk.manager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 冷数据归档文件，一个按天分区对应一个文件 (archive/events_yyyyMMdd.sarc)。
+ * 记录每 GROUP_ROWS 行一个行组，组内按列存放、每列单独压缩：玩家、动作、世界存文件内字典的序号，
+ * id 和时间存与上一行的差值，坐标存 zigzag 变长整数。文件末尾是字典、材质名表和每组的时间、坐标范围，
+ * 打开文件时只读这一部分，查询时跳过范围不相交的行组
+ */
+final class ArchiveFile {
+
+    static final String SUFFIX = ".sarc";
+    static final int GROUP_ROWS = 16384;
+
+    private static final long MAGIC = 0x5354414C4B415243L; // "STALKARC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 20;
+
+    // 行组内列的顺序
+    private static final int ID = 0;
+    private static final int TIME = 1;
+    private static final int PLAYER = 2;
+    private static final int ACTION = 3;
+    private static final int WORLD = 4;
+    private static final int X = 5;
+    private static final int Y = 6;
+    private static final int Z = 7;
+    private static final int DETAILS = 8;
+    private static final int DATA = 9;
+    private static final int REPEATS = 10;
+    private static final int FIRST_TIME = 11;
+    private static final int COLUMNS = 12;
+
+    /**
+     * 一个行组在文件中的位置和统计范围
+     */
+    record Group(long offset, int length, int rows, long minTime, long maxTime, int minX, int maxX, int minZ, int maxZ) {
+
+        boolean overlaps(LogQuery query, long threshold) {
+            if (maxTime < query.since || minTime >= query.trackUntil() || maxTime < threshold) return false;
+            // 压缩轨迹的时间戳是最后一步，前面的步骤可能还在结束时间或分页游标之前
+            if (query.hasCursor() && minTime > query.beforeTimestamp + TrajectoryBuffer.MAX_SPAN_MILLIS) return false;
+            if (query.exactBlock) {
+                return query.x >= minX && query.x <= maxX && query.z >= minZ && query.z <= maxZ;
+            }
+            if (query.area) {
+                return query.x + query.radius >= minX && query.x - query.radius <= maxX
+                        && query.z + query.radius >= minZ && query.z - query.radius <= maxZ;
+            }
+            return true;
+        }
+    }
+
+    final File file;
+    final long day;
+    private final String[] playerUuids;
+    private final String[] playerNames;
+    private final String[] actions;
+    private final String[] worlds;
+    private final Map<Integer, String> materials;
+    private final Group[] groups;
+    private final Group stats;
+
+    private ArchiveFile(File file, DataInputStream in) throws IOException {
+        this.file = file;
+        this.day = in.readLong();
+        int players = in.readInt();
+        playerUuids = new String[players];
+        playerNames = new String[players];
+        for (int i = 0; i < players; i++) {
+            playerUuids[i] = in.readUTF();
+            playerNames[i] = in.readUTF();
+        }
+        actions = readStrings(in);
+        worlds = readStrings(in);
+        int materialCount = in.readInt();
+        materials = new HashMap<>(materialCount * 2);
+        for (int i = 0; i < materialCount; i++) {
+            materials.put(in.readInt(), in.readUTF());
+        }
+        groups = new Group[in.readInt()];
+        long rows = 0;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int i = 0; i < groups.length; i++) {
+            Group group = new Group(in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            groups[i] = group;
+            rows += group.rows();
+            minTime = Math.min(minTime, group.minTime());
+            maxTime = Math.max(maxTime, group.maxTime());
+            minX = Math.min(minX, group.minX());
+            maxX = Math.max(maxX, group.maxX());
+            minZ = Math.min(minZ, group.minZ());
+            maxZ = Math.max(maxZ, group.maxZ());
+        }
+        stats = new Group(0, 0, (int) Math.min(Integer.MAX_VALUE, rows), minTime, maxTime, minX, maxX, minZ, maxZ);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+
+    /**
+     * 打开已写完的归档文件，只读取文件尾部
+     */
+    static ArchiveFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < HEADER_SIZE + TRAILER_SIZE) throw new IOException("Truncated archive file");
+            raf.seek(length - TRAILER_SIZE);
+            long footerOffset = raf.readLong();
+            int version = raf.readInt();
+            if (raf.readLong() != MAGIC) throw new IOException("Not an archive file");
+            if (version != VERSION) throw new IOException("Unsupported archive version " + version);
+            if (footerOffset < HEADER_SIZE || footerOffset > length - TRAILER_SIZE) throw new IOException("Corrupt archive footer");
+            byte[] footer = new byte[(int) (length - TRAILER_SIZE - footerOffset)];
+            raf.seek(footerOffset);
+            raf.readFully(footer);
+            return new ArchiveFile(file, new DataInputStream(new ByteArrayInputStream(footer)));
+        }
+    }
+
+    /**
+     * 整个文件的时间、坐标范围上是否可能有符合条件的记录
+     */
+    boolean overlaps(LogQuery query, long threshold) {
+        return groups.length > 0 && stats.overlaps(query, threshold);
+    }
+
+    int rows() {
+        return stats.rows();
+    }
+
+    /**
+     * 从新到旧扫描行组，返回符合条件的最新 limit 条；时间早于 threshold 的行组不再读取
+     */
+    List<LogRow> scan(ReadPool.QueryContext ctx, LogQuery query, long threshold) throws IOException {
+        List<LogRow> rows = new ArrayList<>();
+        boolean[] players = players(query);
+        boolean[] allowed = new boolean[actions.length];
+        boolean any = false;
+        for (int i = 0; i < actions.length; i++) {
+            allowed[i] = (query.includedActions.isEmpty() || query.includedActions.contains(actions[i]))
+                    && !query.excludedActions.contains(actions[i]);
+            any |= allowed[i];
+        }
+        // 世界序号从 1 开始，0 表示未知
+        int world = 0;
+        if (query.exactBlock || query.area) {
+            world = Arrays.asList(worlds).indexOf(query.world) + 1;
+            if (world == 0) return rows;
+        }
+        if (!any || players == null) return rows;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int g = groups.length - 1; g >= 0; g--) {
+                Group group = groups[g];
+                if (!group.overlaps(query, threshold)) continue;
+                if (ctx.isCancelled()) throw new InterruptedIOException("Query interrupted");
+                byte[] bytes = new byte[group.length()];
+                raf.seek(group.offset());
+                raf.readFully(bytes);
+                scanGroup(bytes, group.rows(), query, players, allowed, world, rows);
+                if (rows.size() >= query.limit) {
+                    rows.sort(SegmentMatcher.NEWEST_FIRST);
+                    rows.subList(query.limit, rows.size()).clear();
+                    threshold = Math.max(threshold, rows.get(rows.size() - 1).timestamp());
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // 扫描前已被保留期清理删除
+            return List.of();
+        }
+        return rows;
+    }
+
+    /**
+     * 符合玩家条件的玩家序号，一个都没有时返回 null
+     */
+    private boolean[] players(LogQuery query) {
+        boolean[] matched = new boolean[playerUuids.length];
+        boolean any = false;
+        String prefix = query.playerPattern != null ? query.playerPattern.substring(0, query.playerPattern.length() - 1) : null;
+        for (int i = 0; i < matched.length; i++) {
+            if (query.playerUuids != null) matched[i] = query.playerUuids.contains(playerUuids[i]);
+            else matched[i] = prefix == null || playerNames[i].regionMatches(true, 0, prefix, 0, prefix.length());
+            any |= matched[i];
+        }
+        return any ? matched : null;
+    }
+
+    private void scanGroup(byte[] bytes, int count, LogQuery query, boolean[] players, boolean[] allowed, int world,
+                           List<LogRow> rows) throws IOException {
+        int[] offsets = new int[COLUMNS];
+        for (int i = 0, pos = 0; i < COLUMNS; i++) {
+            offsets[i] = pos;
+            pos += 8 + readInt(bytes, pos + 4);
+        }
+        In ids = column(bytes, offsets[ID]);
+        In times = column(bytes, offsets[TIME]);
+        In playerColumn = column(bytes, offsets[PLAYER]);
+        In actionColumn = column(bytes, offsets[ACTION]);
+        In worldColumn = column(bytes, offsets[WORLD]);
+        In xs = column(bytes, offsets[X]);
+        In ys = column(bytes, offsets[Y]);
+        In zs = column(bytes, offsets[Z]);
+
+        long[] id = new long[count];
+        long[] time = new long[count];
+        int[] player = new int[count];
+        int[] action = new int[count];
+        int[] worldIndex = new int[count];
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int[] z = new int[count];
+        boolean[] hit = new boolean[count];
+        int hits = 0;
+        int chunkMove = Arrays.asList(actions).indexOf(LogAction.CHUNK_MOVE.name());
+        long lastId = 0, lastTime = 0;
+        for (int i = 0; i < count; i++) {
+            id[i] = lastId += ids.readZigZag();
+            time[i] = lastTime += times.readZigZag();
+            player[i] = (int) playerColumn.readVarLong();
+            action[i] = (int) actionColumn.readVarLong();
+            worldIndex[i] = (int) worldColumn.readVarLong();
+            x[i] = (int) xs.readZigZag();
+            y[i] = (int) ys.readZigZag();
+            z[i] = (int) zs.readZigZag();
+            if (!players[player[i]] || !allowed[action[i]]) continue;
+            if (world != 0 && worldIndex[i] != world) continue;
+            if (action[i] == chunkMove) {
+                // 可能是压缩轨迹：只按整条轨迹的范围粗筛，展开后逐步检查
+                if (time[i] < query.since || time[i] >= query.trackUntil()) continue;
+                if (query.hasCursor() && time[i] > query.beforeTimestamp + TrajectoryBuffer.MAX_SPAN_MILLIS) continue;
+                if (query.exactBlock && (query.x != x[i] || query.y != y[i] || query.z != z[i])) continue;
+                if (query.area && (Math.abs(x[i] - query.x) > query.radius || Math.abs(z[i] - query.z) > query.radius)) continue;
+            } else if (!query.matches(time[i], id[i], x[i], y[i], z[i])) {
+                continue;
+            }
+            hit[i] = true;
+            hits++;
+        }
+        if (hits == 0) return;
+
+        In details = column(bytes, offsets[DETAILS]);
+        In data = column(bytes, offsets[DATA]);
+        In repeats = column(bytes, offsets[REPEATS]);
+        In firstTimes = column(bytes, offsets[FIRST_TIME]);
+        for (int i = 0; i < count; i++) {
+            String detail = details.readString();
+            byte[] blob = data.readBytes();
+            long repeat = repeats.readVarLong();
+            long first = time[i] - firstTimes.readZigZag();
+            if (!hit[i]) continue;
+            String playerName = playerNames[player[i]];
+            String playerUuid = playerUuids[player[i]];
+            String worldName = worldIndex[i] == 0 ? null : worlds[worldIndex[i] - 1];
+            if (blob != null && action[i] == chunkMove) {
+                LogReader.expand(id[i], playerName, playerUuid, actions[action[i]], worldName, blob, query, rows);
+                continue;
+            }
+            if (action[i] == chunkMove && !query.matches(time[i], id[i], x[i], y[i], z[i])) continue;
+            if (blob != null) {
+                detail = DetailRenderer.containerChanges(detail, ContainerDiffCodec.decode(blob), materials::get);
+            }
+            if (repeat > 1) detail = DetailRenderer.repeated(detail, repeat, first, time[i]);
+            rows.add(new LogRow(id[i], time[i], playerName, playerUuid, actions[action[i]], detail,
+                    worldName, x[i], y[i], z[i]));
+        }
+    }
+
+    private static In column(byte[] bytes, int offset) throws IOException {
+        int rawLength = readInt(bytes, offset);
+        int length = readInt(bytes, offset + 4);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset + 8, length);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("Corrupt archive column");
+                n += read;
+            }
+            return new In(raw);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive column", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xFF) << 24 | (bytes[pos + 1] & 0xFF) << 16 | (bytes[pos + 2] & 0xFF) << 8 | bytes[pos + 3] & 0xFF;
+    }
+
+    /**
+     * 解压后的一列，按写入顺序读取
+     */
+    private static final class In {
+        private final byte[] bytes;
+        private int pos;
+
+        In(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= bytes.length) throw new IOException("Corrupt archive column");
+                byte b = bytes[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Corrupt archive column");
+        }
+
+        long readZigZag() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        byte[] readBytes() throws IOException {
+            long length = readVarLong() - 1;
+            if (length < 0) return null;
+            if (length > bytes.length - pos) throw new IOException("Corrupt archive column");
+            byte[] value = Arrays.copyOfRange(bytes, pos, pos + (int) length);
+            pos += (int) length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong() - 1;
+            if (length < 0) return null;
+            if (length > bytes.length - pos) throw new IOException("Corrupt archive column");
+            String value = new String(bytes, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+    }
+
+    /**
+     * 待压缩的一列
+     */
+    private static final class Out {
+        private byte[] bytes = new byte[4096];
+        private int length;
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * 长度加一的前缀，0 表示 null
+         */
+        void writeBytes(byte[] value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(value.length + 1L);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * 顺序写入一个归档文件：先写到 .tmp，finish 后文件完整并已刷盘，commit 再改成正式文件名。
+     * 由写入线程独占
+     */
+    static final class Writer implements Closeable {
+
+        final long day;
+        final File target;
+        final File temp;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private long position;
+
+        private final Map<String, Integer> playerIndex = new HashMap<>();
+        private final List<String> playerUuids = new ArrayList<>();
+        private final List<String> playerNames = new ArrayList<>();
+        private final Map<String, Integer> actionIndex = new HashMap<>();
+        private final Map<String, Integer> worldIndex = new HashMap<>();
+        private final Out[] columns = new Out[COLUMNS];
+        private final Deflater deflater = new Deflater();
+        private final List<Group> groups = new ArrayList<>();
+
+        // 当前行组
+        private int groupRows;
+        private long lastId;
+        private long lastTime;
+        private long minTime;
+        private long maxTime;
+        private int minX;
+        private int maxX;
+        private int minZ;
+        private int maxZ;
+        private long rows;
+
+        Writer(File target, long day) throws IOException {
+            this.day = day;
+            this.target = target;
+            this.temp = new File(target.getPath() + ".tmp");
+            this.file = new FileOutputStream(temp);
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            for (int i = 0; i < COLUMNS; i++) {
+                columns[i] = new Out();
+            }
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            position = HEADER_SIZE;
+        }
+
+        void add(long id, long timestamp, String playerUuid, String playerName, String action, String details,
+                 String world, int x, int y, int z, byte[] data, long repeats, long firstTime) throws IOException {
+            if (playerUuid == null) playerUuid = "";
+            if (playerName == null) playerName = "";
+            String key = playerUuid + '\n' + playerName;
+            Integer player = playerIndex.get(key);
+            if (player == null) {
+                player = playerUuids.size();
+                playerIndex.put(key, player);
+                playerUuids.add(playerUuid);
+                playerNames.add(playerName);
+            }
+            if (groupRows == 0) {
+                lastId = 0;
+                lastTime = 0;
+                minTime = maxTime = timestamp;
+                minX = maxX = x;
+                minZ = maxZ = z;
+            }
+            columns[ID].writeZigZag(id - lastId);
+            columns[TIME].writeZigZag(timestamp - lastTime);
+            columns[PLAYER].writeVarLong(player);
+            columns[ACTION].writeVarLong(actionIndex.computeIfAbsent(action, k -> actionIndex.size()));
+            columns[WORLD].writeVarLong(world == null ? 0 : worldIndex.computeIfAbsent(world, k -> worldIndex.size() + 1));
+            columns[X].writeZigZag(x);
+            columns[Y].writeZigZag(y);
+            columns[Z].writeZigZag(z);
+            columns[DETAILS].writeBytes(details == null ? null : details.getBytes(StandardCharsets.UTF_8));
+            columns[DATA].writeBytes(data);
+            columns[REPEATS].writeVarLong(repeats);
+            columns[FIRST_TIME].writeZigZag(repeats > 1 ? timestamp - firstTime : 0);
+            lastId = id;
+            lastTime = timestamp;
+            minTime = Math.min(minTime, timestamp);
+            maxTime = Math.max(maxTime, timestamp);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+            rows++;
+            if (++groupRows == GROUP_ROWS) writeGroup();
+        }
+
+        private void writeGroup() throws IOException {
+            if (groupRows == 0) return;
+            long offset = position;
+            byte[] chunk = new byte[65536];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            for (Out column : columns) {
+                deflater.reset();
+                deflater.setInput(column.bytes, 0, column.length);
+                deflater.finish();
+                compressed.reset();
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+                out.writeInt(column.length);
+                out.writeInt(compressed.size());
+                compressed.writeTo(out);
+                position += 8 + compressed.size();
+                column.length = 0;
+            }
+            groups.add(new Group(offset, (int) (position - offset), groupRows, minTime, maxTime, minX, maxX, minZ, maxZ));
+            groupRows = 0;
+        }
+
+        /**
+         * 写出最后一个行组和文件尾部并刷盘；materials 为材质字典的全部内容，容器改动离开数据库后也能渲染
+         */
+        void finish(Map<Integer, String> materials) throws IOException {
+            writeGroup();
+            long footerOffset = position;
+            out.writeLong(day);
+            out.writeInt(playerUuids.size());
+            for (int i = 0; i < playerUuids.size(); i++) {
+                out.writeUTF(playerUuids.get(i));
+                out.writeUTF(playerNames.get(i));
+            }
+            writeStrings(actionIndex);
+            writeStrings(worldIndex);
+            out.writeInt(materials.size());
+            for (Map.Entry<Integer, String> entry : materials.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(groups.size());
+            for (Group group : groups) {
+                out.writeLong(group.offset());
+                out.writeInt(group.length());
+                out.writeInt(group.rows());
+                out.writeLong(group.minTime());
+                out.writeLong(group.maxTime());
+                out.writeInt(group.minX());
+                out.writeInt(group.maxX());
+                out.writeInt(group.minZ());
+                out.writeInt(group.maxZ());
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(VERSION);
+            out.writeLong(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            deflater.end();
+        }
+
+        private void writeStrings(Map<String, Integer> index) throws IOException {
+            String[] values = new String[index.size()];
+            // 世界序号从 1 开始
+            int base = index == worldIndex ? 1 : 0;
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                values[entry.getValue() - base] = entry.getKey();
+            }
+            out.writeInt(values.length);
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+        }
+
+        /**
+         * 把已完成的临时文件改成正式文件名
+         */
+        File commit() throws IOException {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return target;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        /**
+         * 放弃写到一半的文件
+         */
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException ignored) { }
+            deflater.end();
+            temp.delete();
+        }
+    }
+}
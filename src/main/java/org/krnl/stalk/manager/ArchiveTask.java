@@ -0,0 +1,121 @@
+package org.krnl.stalk.manager;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 把超过 after-days 天的分区逐个写成归档文件：每段按 id 顺序读出一批行追加到归档，
+ * 读完后写出文件尾部、在同一段中删除分区，下一段再把临时文件改成正式文件名。
+ * 中途停服留下的临时文件在下次启动时处理 (见 Archives.open)
+ */
+final class ArchiveTask implements BatchWriter.MaintenanceTask {
+
+    private static final int READ_CHUNK = 5000;
+
+    private final Logger logger;
+    private final Archives archives;
+    private final int afterDays;
+    // 归档结束或失败时调用
+    private final Runnable done;
+
+    private Deque<Long> days;
+    private ArchiveFile.Writer current;
+    private long lastId;
+    // 分区已删除、等待改名的文件
+    private ArchiveFile.Writer written;
+    private int archived;
+    private long rows;
+
+    ArchiveTask(Logger logger, Archives archives, int afterDays, Runnable done) {
+        this.logger = logger;
+        this.archives = archives;
+        this.afterDays = Math.max(1, afterDays);
+        this.done = done;
+    }
+
+    @Override
+    public boolean step(WriteContext ctx) throws SQLException {
+        try {
+            if (days == null) plan(ctx.connection());
+
+            if (written != null) {
+                archives.add(ArchiveFile.open(written.commit()));
+                archived++;
+                rows += written.rows();
+                written = null;
+                return true;
+            }
+
+            if (current == null) {
+                Long day = days.poll();
+                if (day == null) {
+                    if (archived > 0) logger.info("Archived " + archived + " partitions (" + rows + " rows).");
+                    done.run();
+                    return false;
+                }
+                current = new ArchiveFile.Writer(archives.file(day), day);
+                lastId = 0;
+            }
+
+            if (copy(ctx.connection()) == READ_CHUNK) return true;
+            current.finish(materials(ctx.connection()));
+            ctx.partitions().drop(current.day);
+            written = current;
+            current = null;
+            return true;
+        } catch (IOException | SQLException e) {
+            if (current != null) current.close();
+            current = null;
+            if (e instanceof SQLException sql) throw sql;
+            throw new SQLException("Archive write failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void failed() {
+        done.run();
+    }
+
+    private void plan(Connection connection) throws SQLException {
+        days = new ArrayDeque<>();
+        long today = Partitions.dayOf(System.currentTimeMillis());
+        for (long day : Partitions.list(connection)) {
+            // 已有归档的那天又出现分区 (旧数据迁移写入) 时保留分区，两边都会被查询
+            if (today - day > afterDays && !archives.contains(day)) days.add(day);
+        }
+    }
+
+    private int copy(Connection connection) throws SQLException, IOException {
+        int count = 0;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM (" +
+                Partitions.select(Partitions.tableName(current.day), true) + ") WHERE id > ? ORDER BY id LIMIT ?")) {
+            pstmt.setLong(1, lastId);
+            pstmt.setInt(2, READ_CHUNK);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastId = rs.getLong("id");
+                    current.add(lastId, rs.getLong("time_stamp"), rs.getString("player_uuid"), rs.getString("player_name"),
+                            rs.getString("action"), rs.getString("details"), rs.getString("world"),
+                            rs.getInt("x"), rs.getInt("y"), rs.getInt("z"), rs.getBytes("data"),
+                            rs.getLong("repeats"), rs.getLong("first_time"));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static Map<Integer, String> materials(Connection connection) throws SQLException {
+        Map<Integer, String> materials = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, name FROM materials")) {
+            while (rs.next()) materials.put(rs.getInt(1), rs.getString(2));
+        }
+        return materials;
+    }
+}
@@ -0,0 +1,155 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 归档目录中的文件 (见 ArchiveFile)。启动时读出每个文件的尾部常驻内存；查询的时间范围伸到归档时，
+ * 由扫描线程从新到旧每次并行读取线程数个文件，凑够 limit 条后更旧的文件不再扫描
+ */
+final class Archives {
+
+    private final Logger logger;
+    private final File dir;
+    private final int threads;
+    private final ExecutorService executor;
+    private final ConcurrentSkipListMap<Long, ArchiveFile> files = new ConcurrentSkipListMap<>();
+
+    Archives(Logger logger, File dir, int threads) {
+        this.logger = logger;
+        this.dir = dir;
+        this.threads = Math.max(1, threads);
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "Stalk-Archive-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 加载已有的归档文件。上次中断留下的临时文件：分区已删除说明文件已完整写出，补上改名；
+     * 分区还在则丢弃，之后重新归档
+     */
+    void open(List<Long> partitions) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File[] temps = dir.listFiles((d, name) -> name.endsWith(ArchiveFile.SUFFIX + ".tmp"));
+        for (File temp : temps == null ? new File[0] : temps) {
+            try {
+                ArchiveFile archive = ArchiveFile.open(temp);
+                if (!partitions.contains(archive.day)) {
+                    File target = file(archive.day);
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    logger.info("Recovered archive " + target.getName());
+                    continue;
+                }
+            } catch (IOException ignored) { }
+            temp.delete();
+        }
+
+        File[] archives = dir.listFiles((d, name) -> name.endsWith(ArchiveFile.SUFFIX));
+        for (File file : archives == null ? new File[0] : archives) {
+            try {
+                add(ArchiveFile.open(file));
+            } catch (IOException e) {
+                logger.warning("Skipping unreadable archive " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    File file(long day) {
+        return new File(dir, Partitions.tableName(day) + ArchiveFile.SUFFIX);
+    }
+
+    void add(ArchiveFile archive) {
+        files.put(archive.day, archive);
+    }
+
+    boolean contains(long day) {
+        return files.containsKey(day);
+    }
+
+    /**
+     * 并行扫描与查询范围相交的归档文件，返回最新的 limit 条；threshold 为数据库结果中已确定的下限
+     */
+    List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query, long threshold) throws IOException {
+        List<LogRow> rows = new ArrayList<>();
+        List<ArchiveFile> candidates = new ArrayList<>();
+        for (ArchiveFile archive : files.descendingMap().values()) {
+            if (archive.overlaps(query, threshold)) candidates.add(archive);
+        }
+        for (int i = 0; i < candidates.size(); i += threads) {
+            List<Future<List<LogRow>>> futures = new ArrayList<>();
+            for (ArchiveFile archive : candidates.subList(i, Math.min(candidates.size(), i + threads))) {
+                if (!archive.overlaps(query, threshold)) continue;
+                long floor = threshold;
+                futures.add(executor.submit(() -> archive.scan(ctx, query, floor)));
+            }
+            try {
+                for (Future<List<LogRow>> future : futures) {
+                    rows.addAll(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Query interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new IOException(e.getCause());
+            } finally {
+                for (Future<List<LogRow>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            if (rows.size() >= query.limit) {
+                rows.sort(SegmentMatcher.NEWEST_FIRST);
+                rows.subList(query.limit, rows.size()).clear();
+                threshold = Math.max(threshold, rows.get(rows.size() - 1).timestamp());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 归档文件只能整个删除：超过所有动作中最长的保留期才删除
+     */
+    void retain(int defaultDays, Map<LogAction, Integer> actionDays) {
+        int longest = defaultDays;
+        for (int days : actionDays.values()) {
+            longest = longest <= 0 || days <= 0 ? 0 : Math.max(longest, days);
+        }
+        if (longest <= 0) return;
+        long today = Partitions.dayOf(System.currentTimeMillis());
+        int deleted = 0;
+        for (ArchiveFile archive : files.headMap(today - longest).values()) {
+            files.remove(archive.day);
+            if (archive.file.delete()) deleted++;
+            else logger.warning("Failed to delete expired archive " + archive.file.getName());
+        }
+        if (deleted > 0) logger.info("Retention: deleted " + deleted + " expired archives");
+    }
+
+    int count() {
+        return files.size();
+    }
+
+    long size() {
+        long bytes = 0;
+        for (ArchiveFile archive : files.values()) {
+            bytes += archive.file.length();
+        }
+        return bytes;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
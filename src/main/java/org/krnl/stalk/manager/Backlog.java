@@ -0,0 +1,168 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * 写入线程开始处理环形缓冲区之前要先写入的事件：上次停服留下的溢出文件，以及存储初始化期间收到的事件。
+ * 初始化 (升级结构、加载玩家名) 期间由 Stalk-Startup 线程把环形缓冲区中的事件移到内存，不会因队列满而丢弃；
+ * 超过 queue.startup-max-events 条后追加到溢出文件。写入线程启动时接手，按时间顺序成批写入
+ */
+final class Backlog implements Runnable {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger;
+    private final EventRingBuffer buffer;
+    private final File spillDir;
+    private final int maxHeld;
+
+    private List<File> spills = List.of();
+    private List<LogEvent> held = new ArrayList<>();
+    private File overflowFile;
+    private SpillFile.Writer overflow;
+    private Thread thread;
+    private volatile boolean running;
+
+    Backlog(Logger logger, EventRingBuffer buffer, File spillDir, int maxHeld) {
+        this.logger = logger;
+        this.buffer = buffer;
+        this.spillDir = spillDir;
+        this.maxHeld = Math.max(0, maxHeld);
+    }
+
+    /**
+     * 记下上次停服留下的溢出文件，开始接收初始化期间的事件
+     */
+    synchronized void start() {
+        spills = SpillFile.list(spillDir);
+        running = true;
+        thread = new Thread(this, "Stalk-Startup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        LogEvent event = new LogEvent();
+        while (running) {
+            if (!buffer.poll(event)) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (held.size() < maxHeld) {
+                held.add(event);
+                event = new LogEvent();
+                continue;
+            }
+            try {
+                if (overflow == null) {
+                    overflowFile = SpillFile.next(spillDir);
+                    overflow = new SpillFile.Writer(overflowFile);
+                }
+                overflow.append(event);
+            } catch (IOException e) {
+                logger.warning("Failed to spill an event received during startup: " + e.getMessage());
+            }
+            event.clear();
+        }
+    }
+
+    /**
+     * 停止接收，此后由调用方 (写入线程或停服流程) 独占环形缓冲区；可以重复调用
+     */
+    synchronized void stop() {
+        running = false;
+        if (thread == null) return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        if (overflow != null) {
+            try {
+                overflow.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close startup spill file: " + e.getMessage());
+            }
+            overflow = null;
+        }
+    }
+
+    /**
+     * 在写入线程上依次写入溢出文件、初始化期间暂存的事件和它们超出上限的部分，每攒满一批交给 flush。
+     * aborted 为 true (停服时限已到) 时停下，没写的部分由 close 留到下次
+     */
+    void replay(LogEvent[] batch, IntConsumer flush, BooleanSupplier aborted) {
+        long replayed = SpillFile.replay(logger, spills, batch, flush, aborted);
+        if (replayed > 0) logger.info("Wrote " + replayed + " events spilled at the last shutdown.");
+
+        int count = 0;
+        int index = 0;
+        for (; index < held.size() && !aborted.getAsBoolean(); index++) {
+            batch[count].copyFrom(held.get(index));
+            held.set(index, null);
+            if (++count == batch.length) {
+                flush.accept(count);
+                count = 0;
+            }
+        }
+        if (count > 0) flush.accept(count);
+        long written = index;
+        held = new ArrayList<>(held.subList(index, held.size()));
+
+        if (overflowFile != null && !aborted.getAsBoolean()) {
+            written += SpillFile.replay(logger, List.of(overflowFile), batch, flush, aborted);
+            overflowFile = null;
+        }
+        if (written > 0) logger.info("Wrote " + written + " events received while storage was starting.");
+    }
+
+    /**
+     * 停服：写入线程已停止后调用，把仍暂存在内存中的事件、没写的超限部分和环形缓冲区中剩余的事件
+     * 按顺序写入新的溢出文件，下次启动时重放
+     */
+    void close() {
+        stop();
+        if (held.isEmpty() && overflowFile == null && buffer.isEmpty()) return;
+        LogEvent event = new LogEvent();
+        long count = 0;
+        try {
+            File file = SpillFile.next(spillDir);
+            try (SpillFile.Writer writer = new SpillFile.Writer(file)) {
+                for (LogEvent pending : held) {
+                    writer.append(pending);
+                }
+                held = new ArrayList<>();
+                if (overflowFile != null) {
+                    try (SpillFile.Reader reader = new SpillFile.Reader(overflowFile)) {
+                        while (reader.next(event)) {
+                            writer.append(event);
+                            event.clear();
+                        }
+                    }
+                    overflowFile.delete();
+                    overflowFile = null;
+                }
+                while (buffer.poll(event)) {
+                    writer.append(event);
+                    event.clear();
+                }
+                count = writer.count();
+            }
+            logger.info("Spilled " + count + " unwritten events to spill/" + file.getName()
+                    + ", they will be written on the next start.");
+        } catch (IOException e) {
+            logger.severe("Failed to spill unwritten events, " + (held.size() + buffer.size()) + " events lost: "
+                    + e.getMessage());
+        }
+    }
+}
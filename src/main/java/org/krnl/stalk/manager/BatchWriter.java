@@ -0,0 +1,405 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 批量写入线程：按数量或时间阈值成组提交，每批一个事务
+ */
+public class BatchWriter implements Runnable {
+
+    /**
+     * 在写入线程上分段执行的后台任务 (数据迁移等)，每段在独立事务中提交
+     */
+    interface MaintenanceTask {
+        /**
+         * 执行一小段工作，返回 false 表示任务已完成
+         */
+        boolean step(WriteContext ctx) throws SQLException;
+
+        /**
+         * 任务因出错被丢弃时调用
+         */
+        default void failed() { }
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // 写入繁忙时后台任务的最小执行间隔
+    private static final long MAINTENANCE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Logger logger;
+    private final EventRingBuffer buffer;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final LogEvent[] batch;
+    private final String[] details;
+    private final BlockHistoryCache blockCache;
+    private final TrajectoryBuffer trajectories;
+    private final EventCoalescer coalescer;
+    private final Metrics metrics;
+    private final Dictionary dictionary = new Dictionary();
+    private final Partitions partitions = new Partitions();
+    private final Queue<MaintenanceTask> maintenance = new ConcurrentLinkedQueue<>();
+    // 待写入的玩家名字出现时间，同一名字只保留最新一次，不排在后台任务之后
+    private final Map<Sighting, Long> sightings = new ConcurrentHashMap<>();
+    private long lastMaintenance;
+
+    private volatile Thread thread;
+    private String url;
+    private Connection connection;
+    private WriteContext context;
+    private volatile boolean running = true;
+    // 停服时限已到：写完当前批次即退出，剩余事件留在环形缓冲区中
+    private volatile boolean abort;
+    private Backlog backlog;
+
+    // 吞吐统计
+    private final AtomicLong totalWritten = new AtomicLong();
+    private long windowStart = System.nanoTime();
+    private long windowCount;
+    private volatile double eventsPerSecond;
+
+    public BatchWriter(Logger logger, EventRingBuffer buffer, BlockHistoryCache blockCache, TrajectoryBuffer trajectories,
+                       EventCoalescer coalescer, Metrics metrics, int batchSize, long flushIntervalMs) {
+        this.logger = logger;
+        this.buffer = buffer;
+        this.blockCache = blockCache;
+        this.trajectories = trajectories;
+        this.coalescer = coalescer;
+        this.metrics = metrics;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.batch = new LogEvent[this.batchSize];
+        this.details = new String[this.batchSize];
+        for (int i = 0; i < this.batchSize; i++) {
+            batch[i] = new LogEvent();
+        }
+    }
+
+    /**
+     * 数据库就绪后启动写入线程，此前发布的事件会留在环形缓冲区中。
+     * backlog 中的事件 (上次停服的溢出文件、初始化期间暂存的事件) 先于环形缓冲区写入；已经开始关闭时不再启动
+     */
+    public synchronized void start(String url, Backlog backlog) {
+        if (!running) return;
+        backlog.stop();
+        this.url = url;
+        this.backlog = backlog;
+        this.thread = new Thread(this, "Stalk-Writer");
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            connection = DriverManager.getConnection(url);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA synchronous=NORMAL;");
+                stmt.execute("PRAGMA busy_timeout=5000;");
+            }
+            connection.setAutoCommit(false);
+            dictionary.load(connection);
+            partitions.load(connection);
+            connection.commit();
+            context = new WriteContext(connection, dictionary, partitions);
+        } catch (SQLException e) {
+            logger.severe("Failed to open writer connection: " + e.getMessage());
+            return;
+        }
+
+        try {
+            backlog.replay(batch, this::flush, () -> abort);
+            int count = 0;
+            long deadline = 0;
+            while (true) {
+                if (count < batchSize && !abort && buffer.poll(batch[count])) {
+                    if (count == 0) deadline = System.nanoTime() + flushIntervalNanos;
+                    count++;
+                    continue;
+                }
+                boolean stopping = !running;
+                if (count > 0 && (count >= batchSize || stopping || System.nanoTime() - deadline >= 0)) {
+                    flush(count);
+                    count = 0;
+                    if (System.nanoTime() - lastMaintenance >= MAINTENANCE_INTERVAL_NANOS) runMaintenance();
+                    continue;
+                }
+                if (stopping && (abort || buffer.isEmpty())) {
+                    writeSightings();
+                    // 写出所有未结束的轨迹和合并中的重复事件
+                    if (trajectories.hasOpen() || coalescer.hasOpen()) {
+                        trajectories.closeAll();
+                        coalescer.closeAll();
+                        flush(0);
+                    }
+                    break;
+                }
+                if (count == 0) {
+                    recordWritten(0);
+                    long now = System.currentTimeMillis();
+                    if (trajectories.hasExpired(now) || coalescer.hasExpired(now)) {
+                        flush(0);
+                        continue;
+                    }
+                    if (runMaintenance()) continue;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void flush(int count) {
+        try {
+            for (int i = 0; i < count; i++) {
+                LogEvent event = batch[i];
+                if (event.action == LogAction.SESSION) trajectories.close(event.playerUuid);
+                if (trajectories.accept(event)) continue;
+                String rendered = DetailRenderer.render(event);
+                if (coalescer.accept(event, rendered)) continue;
+                details[i] = rendered;
+                PreparedStatement insert = partitions.insertFor(event.timestamp);
+                insert.setLong(1, event.timestamp);
+                insert.setInt(2, dictionary.playerId(event.playerUuid, event.playerName));
+                insert.setInt(3, dictionary.actionId(event.action));
+                insert.setInt(5, dictionary.worldId(event.world));
+                insert.setInt(6, event.x);
+                insert.setInt(7, event.y);
+                insert.setInt(8, event.z);
+                if (event.action == LogAction.CONTAINER_CLOSE && event.contents != null && event.contents.length > 0) {
+                    // 容器改动以二进制保存，查询时再渲染
+                    insert.setString(4, DetailRenderer.containerHeader(event));
+                    insert.setBytes(9, ContainerDiffCodec.encode(event.contents, dictionary));
+                } else {
+                    insert.setString(4, rendered);
+                    insert.setNull(9, Types.BLOB);
+                }
+                insert.setNull(10, Types.INTEGER);
+                insert.setNull(11, Types.INTEGER);
+                insert.addBatch();
+            }
+            long now = System.currentTimeMillis();
+            trajectories.closeExpired(now);
+            for (TrajectoryBuffer.Track track : trajectories.drainClosed()) {
+                insertTrack(track);
+            }
+            coalescer.closeExpired(now);
+            List<EventCoalescer.Group> groups = coalescer.drainClosed();
+            LogEvent[] groupEvents = new LogEvent[groups.size()];
+            String[] groupDetails = new String[groups.size()];
+            for (int i = 0; i < groups.size(); i++) {
+                EventCoalescer.Group group = groups.get(i);
+                insertGroup(group);
+                groupEvents[i] = group.event;
+                groupDetails[i] = group.count > 1
+                        ? DetailRenderer.repeated(group.details, group.count, group.firstTimestamp, group.lastTimestamp())
+                        : group.details;
+            }
+            long start = System.nanoTime();
+            partitions.executeBatches();
+            connection.commit();
+            metrics.commitNanos.record(System.nanoTime() - start);
+            if (count > 0) metrics.batchSize.record(count);
+            recordWritten(count);
+            // 只缓存已经提交的事件
+            blockCache.addAll(batch, details, count);
+            blockCache.addAll(groupEvents, groupDetails, groupEvents.length);
+        } catch (SQLException e) {
+            logger.warning("Log write error (" + count + " events lost): " + e.getMessage());
+            rollback();
+        } catch (RuntimeException e) {
+            // 渲染、编码中的意外错误只丢弃这一批，写入线程继续运行
+            logger.log(Level.SEVERE, "Unexpected log write error (" + count + " events lost)", e);
+            rollback();
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i].clear();
+                details[i] = null;
+            }
+        }
+    }
+
+    private void insertTrack(TrajectoryBuffer.Track track) throws SQLException {
+        PreparedStatement insert = partitions.insertFor(track.lastTimestamp);
+        insert.setLong(1, track.lastTimestamp);
+        insert.setInt(2, dictionary.playerId(track.uuid, track.name));
+        insert.setInt(3, dictionary.actionId(LogAction.CHUNK_MOVE));
+        insert.setString(4, track.summary());
+        insert.setInt(5, dictionary.worldId(track.world));
+        insert.setInt(6, track.lastX);
+        insert.setInt(7, track.lastY);
+        insert.setInt(8, track.lastZ);
+        insert.setBytes(9, track.encoder.toByteArray());
+        insert.setNull(10, Types.INTEGER);
+        insert.setNull(11, Types.INTEGER);
+        insert.addBatch();
+    }
+
+    /**
+     * 一组合并的重复事件写成一行：时间戳为最后一次，只出现一次时与普通事件相同
+     */
+    private void insertGroup(EventCoalescer.Group group) throws SQLException {
+        LogEvent event = group.event;
+        PreparedStatement insert = partitions.insertFor(event.timestamp);
+        insert.setLong(1, event.timestamp);
+        insert.setInt(2, dictionary.playerId(event.playerUuid, event.playerName));
+        insert.setInt(3, dictionary.actionId(event.action));
+        insert.setString(4, group.details);
+        insert.setInt(5, dictionary.worldId(event.world));
+        insert.setInt(6, event.x);
+        insert.setInt(7, event.y);
+        insert.setInt(8, event.z);
+        insert.setNull(9, Types.BLOB);
+        if (group.count > 1) {
+            insert.setLong(10, group.count);
+            insert.setLong(11, group.firstTimestamp);
+        } else {
+            insert.setNull(10, Types.INTEGER);
+            insert.setNull(11, Types.INTEGER);
+        }
+        insert.addBatch();
+    }
+
+    /**
+     * 执行一段后台任务，返回是否执行了工作
+     */
+    private boolean runMaintenance() {
+        lastMaintenance = System.nanoTime();
+        if (writeSightings()) return true;
+        try {
+            if (partitions.refreshView()) {
+                connection.commit();
+                return true;
+            }
+        } catch (SQLException e) {
+            // 只影响 logs 视图，下次分区增减时再重建
+            logger.warning("Failed to rebuild the logs view: " + e.getMessage());
+            rollback();
+            return true;
+        }
+        MaintenanceTask task = maintenance.peek();
+        if (task == null) return false;
+        try {
+            if (!task.step(context)) maintenance.poll();
+            connection.commit();
+        } catch (SQLException e) {
+            logger.warning("Background database task failed: " + e.getMessage());
+            maintenance.poll();
+            rollback();
+            task.failed();
+        } catch (RuntimeException e) {
+            // 一个出错的任务不能让写入线程退出
+            logger.log(Level.SEVERE, "Background database task failed", e);
+            maintenance.poll();
+            rollback();
+            task.failed();
+        }
+        return true;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+            partitions.invalidate();
+        } catch (SQLException ignored) { }
+        dictionary.invalidate();
+    }
+
+    void addMaintenance(MaintenanceTask task) {
+        maintenance.add(task);
+    }
+
+    /**
+     * 记录玩家加入，在下一次后台任务之前合并写入
+     */
+    void addSighting(UUID uuid, String name, long time) {
+        sightings.merge(new Sighting(uuid, name), time, Math::max);
+    }
+
+    /**
+     * 在一个事务中写入所有待写的名字出现时间，返回是否执行了工作
+     */
+    private boolean writeSightings() {
+        if (sightings.isEmpty()) return false;
+        try {
+            for (Map.Entry<Sighting, Long> entry : sightings.entrySet()) {
+                Sighting sighting = entry.getKey();
+                long time = entry.getValue();
+                dictionary.seen(sighting.uuid(), sighting.name(), time);
+                // 写入期间又有新的加入时保留，下次再写
+                sightings.remove(sighting, time);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            logger.warning("Failed to update player names: " + e.getMessage());
+            sightings.clear();
+            rollback();
+        }
+        return true;
+    }
+
+    private record Sighting(UUID uuid, String name) { }
+
+    private void recordWritten(int count) {
+        totalWritten.addAndGet(count);
+        windowCount += count;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            eventsPerSecond = windowCount * 1_000_000_000.0 / elapsed;
+            windowStart = now;
+            windowCount = 0;
+        }
+    }
+
+    private void closeConnection() {
+        try {
+            partitions.close();
+            if (connection != null && !connection.isClosed()) connection.close();
+        } catch (SQLException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * 停止接收新批次，在 timeoutMillis 内尽量写完队列剩余事件后关闭连接；
+     * 超时则写完当前批次就退出，没写完的事件留在环形缓冲区中由调用方处理
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+        running = false;
+        if (thread == null) return;
+        try {
+            thread.join(Math.max(1, timeoutMillis));
+            if (thread.isAlive()) {
+                abort = true;
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 最近一个统计窗口内的写入速率 (事件/秒)
+     */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public long getTotalWritten() {
+        return totalWritten.get();
+    }
+
+    public int getPending() {
+        return buffer.size();
+    }
+}
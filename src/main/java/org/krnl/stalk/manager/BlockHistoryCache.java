@@ -0,0 +1,240 @@
+package org.krnl.stalk.manager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最近方块历史的内存缓存：以打包后的方块坐标为键 (long 键的链式哈希表，不装箱)，
+ * 每个方块保留最近 N 条事件，超出内存预算时按 LRU 整块淘汰。
+ * 写入线程在事务提交后填充，查询时读取。
+ * 对任意方块，时间戳不早于 coverage 的事件都在缓存里，更早的才需要查数据库。
+ */
+final class BlockHistoryCache {
+
+    /**
+     * 查询结果：缓存中的行 (新的在前)，以及缓存完整覆盖的起始时间
+     */
+    record Hit(List<LogRow> rows, long coverage) {
+    }
+
+    private static final Comparator<LogRow> NEWEST_FIRST =
+            Comparator.comparingLong(LogRow::timestamp).reversed();
+
+    // 粗略的对象开销估算 (字节)
+    private static final int NODE_BYTES = 112;
+    private static final int ROW_BYTES = 160;
+
+    private static final class Node {
+        final long key;
+        final int world;
+        Node next;
+        Node before;
+        Node after;
+        LogRow[] rows;
+        int count;
+        long bytes;
+        long coverage;
+
+        Node(long key, int world, long coverage, int capacity) {
+            this.key = key;
+            this.world = world;
+            this.coverage = coverage;
+            this.rows = new LogRow[capacity];
+        }
+    }
+
+    private final int perBlock;
+    private final long budget;
+    private final Map<String, Integer> worlds = new HashMap<>();
+    // 哨兵：after 是最久未访问的方块，before 是最近访问的方块
+    private final Node lru = new Node(0, -1, 0, 0);
+    private Node[] buckets = new Node[1024];
+    private int size;
+    private long bytes;
+    // 任何方块在此时间之后的事件都没有被淘汰过
+    private long completeSince;
+
+    BlockHistoryCache(int perBlock, long budgetBytes) {
+        this.perBlock = Math.max(1, perBlock);
+        this.budget = budgetBytes;
+        this.completeSince = budgetBytes > 0 ? System.currentTimeMillis() : Long.MAX_VALUE;
+        lru.before = lru;
+        lru.after = lru;
+    }
+
+    boolean isEnabled() {
+        return budget > 0;
+    }
+
+    /**
+     * 方块坐标打包：x、z 各 26 位，y 12 位
+     */
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * 写入线程在一批事件提交后调用
+     */
+    synchronized void addAll(LogEvent[] events, String[] details, int count) {
+        if (!isEnabled()) return;
+        for (int i = 0; i < count; i++) {
+            LogEvent event = events[i];
+            // 没有 details 的是已并入轨迹或合并组的事件，合并组写入时另行加入
+            if (details[i] == null || event.world == null || event.timestamp < completeSince) continue;
+            add(event, details[i]);
+        }
+        while (bytes > budget && lru.after != lru) {
+            evict(lru.after);
+        }
+    }
+
+    private void add(LogEvent event, String details) {
+        int world = worlds.computeIfAbsent(event.world, name -> worlds.size());
+        long key = pack(event.x, event.y, event.z);
+        Node node = find(key, world);
+        if (node == null) {
+            node = new Node(key, world, completeSince, perBlock);
+            insert(node);
+            bytes += NODE_BYTES;
+        }
+        if (event.timestamp < node.coverage) return;
+
+        LogRow row = new LogRow(0, event.timestamp, event.playerName, event.playerUuid.toString(),
+                event.action.name(), details, event.world, event.x, event.y, event.z);
+        if (node.count == perBlock) truncate(node);
+        node.rows[node.count++] = row;
+        node.bytes += rowBytes(row);
+        bytes += rowBytes(row);
+        touch(node);
+    }
+
+    /**
+     * 方块的事件数达到上限：丢掉最早的一条，覆盖起点随之后移
+     */
+    private void truncate(Node node) {
+        LogRow oldest = node.rows[0];
+        for (int i = 1; i < node.count; i++) {
+            if (node.rows[i].timestamp() < oldest.timestamp()) oldest = node.rows[i];
+        }
+        node.coverage = oldest.timestamp() + 1;
+        int kept = 0;
+        for (int i = 0; i < node.count; i++) {
+            LogRow row = node.rows[i];
+            if (row.timestamp() < node.coverage) {
+                node.bytes -= rowBytes(row);
+                bytes -= rowBytes(row);
+            } else {
+                node.rows[kept++] = row;
+            }
+        }
+        for (int i = kept; i < node.count; i++) {
+            node.rows[i] = null;
+        }
+        node.count = kept;
+    }
+
+    /**
+     * 读取一个方块的缓存历史，最多 limit 条
+     */
+    synchronized Hit lookup(String worldName, int x, int y, int z, int limit) {
+        Integer world = worlds.get(worldName);
+        Node node = world != null ? find(pack(x, y, z), world) : null;
+        if (node == null) return new Hit(List.of(), completeSince);
+        touch(node);
+        List<LogRow> rows = new ArrayList<>(node.count);
+        for (int i = 0; i < node.count; i++) {
+            rows.add(node.rows[i]);
+        }
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > limit) rows.subList(limit, rows.size()).clear();
+        return new Hit(rows, node.coverage);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    private static long rowBytes(LogRow row) {
+        return ROW_BYTES + (row.details() != null ? row.details().length() : 0);
+    }
+
+    private void evict(Node node) {
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < node.count; i++) {
+            newest = Math.max(newest, node.rows[i].timestamp());
+        }
+        if (newest != Long.MIN_VALUE) completeSince = Math.max(completeSince, newest + 1);
+        remove(node);
+        bytes -= NODE_BYTES + node.bytes;
+    }
+
+    private int index(long key, int world) {
+        long h = (key ^ ((long) world << 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (buckets.length - 1);
+    }
+
+    private Node find(long key, int world) {
+        for (Node node = buckets[index(key, world)]; node != null; node = node.next) {
+            if (node.key == key && node.world == world) return node;
+        }
+        return null;
+    }
+
+    private void insert(Node node) {
+        if (size >= buckets.length * 3 / 4) resize();
+        int idx = index(node.key, node.world);
+        node.next = buckets[idx];
+        buckets[idx] = node;
+        size++;
+        node.before = lru.before;
+        node.after = lru;
+        lru.before.after = node;
+        lru.before = node;
+    }
+
+    private void remove(Node node) {
+        int idx = index(node.key, node.world);
+        Node prev = null;
+        for (Node cur = buckets[idx]; cur != null; prev = cur, cur = cur.next) {
+            if (cur == node) {
+                if (prev == null) buckets[idx] = cur.next;
+                else prev.next = cur.next;
+                size--;
+                break;
+            }
+        }
+        node.before.after = node.after;
+        node.after.before = node.before;
+    }
+
+    private void touch(Node node) {
+        node.before.after = node.after;
+        node.after.before = node.before;
+        node.before = lru.before;
+        node.after = lru;
+        lru.before.after = node;
+        lru.before = node;
+    }
+
+    private void resize() {
+        Node[] old = buckets;
+        buckets = new Node[old.length << 1];
+        for (Node head : old) {
+            for (Node node = head; node != null; ) {
+                Node next = node.next;
+                int idx = index(node.key, node.world);
+                node.next = buckets[idx];
+                buckets[idx] = node;
+                node = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.krnl.stalk.manager;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * 容器改动的紧凑编码：版本号之后每个改动的格子依次是格号、打开时、关闭时的物品，
+ * 物品为 (材质字典 id << 8 | 数量) + 1 (0 表示打开时未知)，全部是无符号变长整数。
+ * 一格改动通常只占 5~7 字节，材质用字典 id 保存，不受服务端版本间枚举顺序变化的影响。
+ */
+final class ContainerDiffCodec {
+
+    private static final int VERSION = 1;
+
+    private ContainerDiffCodec() {
+    }
+
+    /**
+     * 编码监听器采集的改动 (物品为 DetailRenderer.pack 的格式)，材质换成字典 id
+     */
+    static byte[] encode(int[] changes, Dictionary dictionary) throws SQLException {
+        byte[] bytes = new byte[1 + changes.length * 4];
+        int length = 0;
+        bytes[length++] = VERSION;
+        for (int i = 0; i + 2 < changes.length; i += 3) {
+            length = write(bytes, length, changes[i]);
+            length = write(bytes, length, item(changes[i + 1], dictionary) + 1);
+            length = write(bytes, length, item(changes[i + 2], dictionary) + 1);
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * 解码成与 LogEvent.contents 相同的三元组，物品中的材质为字典 id
+     */
+    static int[] decode(byte[] data) {
+        if (data == null || data.length == 0 || data[0] != VERSION) return new int[0];
+        int[] changes = new int[data.length * 3];
+        int count = 0;
+        int[] pos = {1};
+        while (pos[0] < data.length) {
+            changes[count++] = read(data, pos);
+            changes[count++] = read(data, pos) - 1;
+            changes[count++] = read(data, pos) - 1;
+        }
+        return Arrays.copyOf(changes, count);
+    }
+
+    private static int item(int packed, Dictionary dictionary) throws SQLException {
+        if (packed <= 0) return packed;
+        return dictionary.materialId(DetailRenderer.material(packed)) << 8 | (packed & 0xFF);
+    }
+
+    private static int write(byte[] bytes, int length, int value) {
+        // 单个值最多 5 字节，编码前按每格 12 字节预留的空间足够
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        return length;
+    }
+
+    private static int read(byte[] data, int[] pos) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+}
@@ -0,0 +1,130 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+
+import java.util.function.IntFunction;
+
+/**
+ * 在写入线程上把结构化事件渲染成 details 文本，格式与旧版监听器生成的完全一致
+ */
+public final class DetailRenderer {
+
+    private static final Material[] MATERIALS = Material.values();
+
+    private DetailRenderer() {
+    }
+
+    public static String render(LogEvent e) {
+        if (e.details != null) return e.details;
+        return switch (e.action) {
+            case CHUNK_MOVE -> chunkMove(e.x, e.z, e.tx, e.tz);
+            case CHAT, COMMAND -> e.text;
+            case SESSION -> "Joined the server IP: " + e.text;
+            case BLOCK_BREAK -> e.material.name() + " | Tool: " + heldItem(e.item, e.amount);
+            case BLOCK_PLACE -> e.material.name();
+            case INTERACT -> String.format("%s on %s | Hand: %s", e.kind.name(), e.material.name(), heldItem(e.item, e.amount));
+            case DROP_ITEM -> heldItem(e.item, e.amount) + " (Toss)";
+            case PICKUP_ITEM -> item(e.item, e.amount) + " (From Ground)";
+            case ATTACK -> {
+                String victimInfo = e.targetName != null
+                        ? String.format("Player: %s (UUID: %s)", e.targetName, e.target)
+                        : String.format("Entity: %s (UUID: %s)", e.kind.name(), e.target);
+                yield String.format("Target: [%s] | Dmg: %.2f | Weapon: %s", victimInfo, e.damage, heldItem(e.item, e.amount));
+            }
+            case DEATH_PLAYER -> "Message: " + e.text + " | Killer: " + e.targetName + " | Loc: " + e.x + "," + e.y + "," + e.z;
+            case KILL_ENTITY -> "Killed: " + e.text + " | UUID: " + e.target;
+            case CONTAINER_OPEN -> "Type: " + e.kind.name() + " | Title: " + e.text + " | " + containerLoc(e);
+            case CONTAINER_CLOSE -> containerChanges(containerHeader(e), e.contents, DetailRenderer::materialName);
+            case INV_CLICK, CONTAINER_TRANSACTION -> String.format("[%s] Action: %s | %s | Slot: %d%s",
+                    e.kind.name(), e.subKind.name(), e.text + ": " + item(e.item, e.amount), e.slot,
+                    e.action == LogAction.CONTAINER_TRANSACTION ? " | " + containerLoc(e) : "");
+            default -> "";
+        };
+    }
+
+    /**
+     * 跨区块移动：起点为所在方块，终点为目标区块
+     */
+    static String chunkMove(int x, int z, int toChunkX, int toChunkZ) {
+        return String.format("From [%d,%d] To [%d,%d]", x >> 4, z >> 4, toChunkX, toChunkZ);
+    }
+
+    /**
+     * 合并后的重复事件：在原详情后注明次数和持续时间
+     */
+    static String repeated(String details, long count, long firstTimestamp, long lastTimestamp) {
+        return String.format("%s | Repeated %dx over %.1fs", details, count, (lastTimestamp - firstTimestamp) / 1000.0);
+    }
+
+    /**
+     * 手持物品格式：空手显示 EMPTY_HAND，数量总是显示
+     */
+    private static String heldItem(Material type, int amount) {
+        if (type == null || type == Material.AIR) return "EMPTY_HAND";
+        return type.name() + " x" + amount;
+    }
+
+    /**
+     * 物品栏物品格式：空格显示 AIR，数量大于 1 才显示
+     */
+    private static String item(Material type, int amount) {
+        if (type == null || type == Material.AIR) return "AIR";
+        return type.name() + (amount > 1 ? " x" + amount : "");
+    }
+
+    private static String containerLoc(LogEvent e) {
+        if (e.targetWorld != null) {
+            return String.format("Block: [w:%s x:%d y:%d z:%d]", e.targetWorld, e.tx, e.ty, e.tz);
+        }
+        return "Block: [Unknown]";
+    }
+
+    /**
+     * 容器关闭记录中不含改动的部分，改动以二进制形式另存时 details 只写这一段
+     */
+    static String containerHeader(LogEvent e) {
+        return "Type: " + e.kind.name() + " | " + containerLoc(e);
+    }
+
+    /**
+     * 容器改动：每三个数依次是格子、打开时、关闭时的物品 (材质 id << 8 | 数量，0 为空格，-1 为打开时未知)，
+     * names 把材质 id 换成名称
+     */
+    static String containerChanges(String header, int[] changes, IntFunction<String> names) {
+        if (changes == null || changes.length == 0) return header + " | No changes";
+        StringBuilder sb = new StringBuilder(header).append(" | Changes: [");
+        for (int i = 0; i + 2 < changes.length; i += 3) {
+            if (i > 0) sb.append(", ");
+            sb.append(changes[i]).append(": ")
+                    .append(slotItem(changes[i + 1], names)).append(" -> ").append(slotItem(changes[i + 2], names));
+        }
+        return sb.append("]").toString();
+    }
+
+    private static String slotItem(int packed, IntFunction<String> names) {
+        if (packed == -1) return "?";
+        if (packed == 0) return "AIR";
+        String name = names.apply(packed >>> 8);
+        int amount = packed & 0xFF;
+        return (name != null ? name : "UNKNOWN") + (amount > 1 ? " x" + amount : "");
+    }
+
+    private static String materialName(int id) {
+        return MATERIALS[id - 1].name();
+    }
+
+    /**
+     * pack 的逆过程，空格返回 null
+     */
+    static Material material(int packed) {
+        return packed > 0 ? MATERIALS[(packed >>> 8) - 1] : null;
+    }
+
+    /**
+     * 把一格物品打包成 int，供主线程快速采集容器内容
+     */
+    public static int pack(Material type, int amount) {
+        if (type == null || type == Material.AIR) return 0;
+        return (type.ordinal() + 1) << 8 | (amount & 0xFF);
+    }
+}
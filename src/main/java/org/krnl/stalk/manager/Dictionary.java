@@ -0,0 +1,155 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+
+import java.sql.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 写入线程专用的字典缓存：玩家、动作、世界、材质到整数 id 的映射。
+ * 命中缓存时不访问数据库，只有第一次出现的新值才会插入字典表。
+ */
+final class Dictionary {
+
+    private final Map<UUID, Map<String, Integer>> players = new HashMap<>();
+    private final Map<String, Integer> worlds = new HashMap<>();
+    private final Map<String, Integer> actionsByName = new HashMap<>();
+    private final int[] actions = new int[LogAction.values().length];
+    private final int[] materials = new int[Material.values().length];
+
+    private Connection connection;
+
+    /**
+     * 绑定写入连接并预加载全部字典
+     */
+    void load(Connection connection) throws SQLException {
+        this.connection = connection;
+        invalidate();
+        Map<String, Integer> materialsByName = new HashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT id, uuid, name FROM players")) {
+                while (rs.next()) {
+                    players.computeIfAbsent(UUID.fromString(rs.getString(2)), k -> new HashMap<>(2)).put(rs.getString(3), rs.getInt(1));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM worlds")) {
+                while (rs.next()) worlds.put(rs.getString(2), rs.getInt(1));
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM actions")) {
+                while (rs.next()) actionsByName.put(rs.getString(2), rs.getInt(1));
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM materials")) {
+                while (rs.next()) materialsByName.put(rs.getString(2), rs.getInt(1));
+            }
+        }
+        for (LogAction action : LogAction.values()) {
+            Integer id = actionsByName.get(action.name());
+            if (id != null) actions[action.ordinal()] = id;
+        }
+        for (Material material : Material.values()) {
+            Integer id = materialsByName.get(material.name());
+            if (id != null) materials[material.ordinal()] = id;
+        }
+    }
+
+    /**
+     * 事务回滚后调用：新插入的字典项可能已不存在，清空缓存后按需重新读取
+     */
+    void invalidate() {
+        players.clear();
+        worlds.clear();
+        actionsByName.clear();
+        Arrays.fill(actions, 0);
+        Arrays.fill(materials, 0);
+    }
+
+    int playerId(UUID uuid, String name) throws SQLException {
+        Map<String, Integer> names = players.get(uuid);
+        Integer id = names != null ? names.get(name) : null;
+        if (id != null) return id;
+
+        try (PreparedStatement insert = connection.prepareStatement("INSERT OR IGNORE INTO players (uuid, name) VALUES (?, ?)");
+             PreparedStatement select = connection.prepareStatement("SELECT id FROM players WHERE uuid = ? AND name = ?")) {
+            String uuidStr = uuid.toString();
+            insert.setString(1, uuidStr);
+            insert.setString(2, name);
+            insert.executeUpdate();
+            select.setString(1, uuidStr);
+            select.setString(2, name);
+            id = selectId(select);
+        }
+        players.computeIfAbsent(uuid, k -> new HashMap<>(2)).put(name, id);
+        return id;
+    }
+
+    /**
+     * 玩家加入：更新改名历史中这个名字的首次、最近出现时间
+     */
+    void seen(UUID uuid, String name, long time) throws SQLException {
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO players (uuid, name, first_seen, last_seen) VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (uuid, name) DO UPDATE SET first_seen = COALESCE(first_seen, excluded.first_seen), " +
+                        "last_seen = excluded.last_seen")) {
+            upsert.setString(1, uuid.toString());
+            upsert.setString(2, name);
+            upsert.setLong(3, time);
+            upsert.setLong(4, time);
+            upsert.executeUpdate();
+        }
+    }
+
+    int actionId(LogAction action) throws SQLException {
+        int id = actions[action.ordinal()];
+        if (id != 0) return id;
+        id = actionId(action.name());
+        actions[action.ordinal()] = id;
+        return id;
+    }
+
+    /**
+     * 按名称取动作 id，用于迁移旧数据中可能存在的未知动作
+     */
+    int actionId(String name) throws SQLException {
+        Integer id = actionsByName.get(name);
+        if (id != null) return id;
+        id = nameId("actions", name);
+        actionsByName.put(name, id);
+        return id;
+    }
+
+    int materialId(Material material) throws SQLException {
+        int id = materials[material.ordinal()];
+        if (id != 0) return id;
+        id = nameId("materials", material.name());
+        materials[material.ordinal()] = id;
+        return id;
+    }
+
+    int worldId(String name) throws SQLException {
+        Integer id = worlds.get(name);
+        if (id != null) return id;
+        id = nameId("worlds", name);
+        worlds.put(name, id);
+        return id;
+    }
+
+    private int nameId(String table, String name) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT OR IGNORE INTO " + table + " (name) VALUES (?)");
+             PreparedStatement select = connection.prepareStatement("SELECT id FROM " + table + " WHERE name = ?")) {
+            insert.setString(1, name);
+            insert.executeUpdate();
+            select.setString(1, name);
+            return selectId(select);
+        }
+    }
+
+    private int selectId(PreparedStatement select) throws SQLException {
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) throw new SQLException("Dictionary insert failed");
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.krnl.stalk.manager;
+
+import java.util.*;
+
+/**
+ * 写入线程独占：把短时间内重复的同类事件 (同一玩家、动作、对象和位置) 合并成一行，
+ * 记录次数和首末时间。相邻两次间隔超过窗口、总跨度超过上限或跨日时结束一组。
+ * 攻击事件不比较位置和伤害 (战斗中两者每次都不同)，合并后记录总伤害。
+ */
+final class EventCoalescer {
+
+    // 同时进行中的组数上限，超出时提前结束最久没有更新的组
+    private static final int MAX_OPEN = 10_000;
+
+    private record Key(UUID player, LogAction action, String world, int x, int y, int z, String identity) {
+    }
+
+    /**
+     * 一组合并中的事件；event 是第一条事件的副本，时间戳随最后一条更新
+     */
+    static final class Group {
+        final LogEvent event = new LogEvent();
+        final long firstTimestamp;
+        String details;
+        int count = 1;
+        double damage;
+
+        Group(LogEvent first, String details) {
+            event.copyFrom(first);
+            this.firstTimestamp = first.timestamp;
+            this.details = details;
+            this.damage = first.damage;
+        }
+
+        long lastTimestamp() {
+            return event.timestamp;
+        }
+
+        private void add(LogEvent next) {
+            count++;
+            damage += next.damage;
+            event.timestamp = Math.max(event.timestamp, next.timestamp);
+        }
+
+        private void finish() {
+            if (event.action == LogAction.ATTACK && count > 1) {
+                event.damage = damage;
+                details = DetailRenderer.render(event);
+            }
+        }
+    }
+
+    private final Set<LogAction> actions;
+    private final long windowMillis;
+    private final long maxSpanMillis;
+    // 按访问顺序排列，最前面的是最久没有新事件的组
+    private final LinkedHashMap<Key, Group> groups = new LinkedHashMap<>(256, 0.75f, true);
+    private final List<Group> closed = new ArrayList<>();
+
+    EventCoalescer(Set<LogAction> actions, long windowMillis, long maxSpanMillis) {
+        this.actions = actions.isEmpty() ? EnumSet.noneOf(LogAction.class) : EnumSet.copyOf(actions);
+        this.windowMillis = Math.max(1, windowMillis);
+        this.maxSpanMillis = Math.max(this.windowMillis, maxSpanMillis);
+    }
+
+    /**
+     * 收下一个事件 (details 已渲染)，返回 false 表示不合并，照常逐行写入
+     */
+    boolean accept(LogEvent event, String details) {
+        if (!actions.contains(event.action) || event.playerUuid == null) return false;
+        Key key = event.action == LogAction.ATTACK
+                ? new Key(event.playerUuid, event.action, event.world, 0, 0, 0, event.target + "|" + event.kind + "|" + event.item)
+                : new Key(event.playerUuid, event.action, event.world, event.x, event.y, event.z, details);
+        Group group = groups.get(key);
+        if (group != null && (event.timestamp - group.lastTimestamp() > windowMillis
+                || event.timestamp - group.firstTimestamp > maxSpanMillis
+                || Partitions.dayOf(group.firstTimestamp) != Partitions.dayOf(event.timestamp))) {
+            close(groups.remove(key));
+            group = null;
+        }
+        if (group == null) {
+            groups.put(key, new Group(event, details));
+            if (groups.size() > MAX_OPEN) closeEldest();
+        } else {
+            group.add(event);
+        }
+        return true;
+    }
+
+    boolean hasExpired(long now) {
+        if (groups.isEmpty()) return false;
+        return now - groups.values().iterator().next().lastTimestamp() > windowMillis;
+    }
+
+    /**
+     * 结束所有超过窗口没有新事件的组
+     */
+    void closeExpired(long now) {
+        while (hasExpired(now)) {
+            closeEldest();
+        }
+    }
+
+    void closeAll() {
+        for (Group group : groups.values()) {
+            close(group);
+        }
+        groups.clear();
+    }
+
+    boolean hasOpen() {
+        return !groups.isEmpty();
+    }
+
+    /**
+     * 取出所有已结束、等待写入的组
+     */
+    List<Group> drainClosed() {
+        if (closed.isEmpty()) return List.of();
+        List<Group> drained = new ArrayList<>(closed);
+        closed.clear();
+        return drained;
+    }
+
+    private void closeEldest() {
+        Iterator<Group> it = groups.values().iterator();
+        close(it.next());
+        it.remove();
+    }
+
+    private void close(Group group) {
+        group.finish();
+        closed.add(group);
+    }
+}
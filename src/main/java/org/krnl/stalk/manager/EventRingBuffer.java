@@ -0,0 +1,201 @@
+package org.krnl.stalk.manager;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 有界无锁环形队列 (Vyukov 序号槽算法)，多个生产者 (主线程、异步聊天线程)，一个写入线程消费。
+ * 槽位预先分配并重复使用，溢出时按配置的策略处理并按动作统计丢弃数量。
+ */
+public class EventRingBuffer {
+
+    public enum OverflowPolicy {
+        /** 等待写入线程腾出空间，最多等待 maxBlockNanos */
+        BLOCK,
+        /** 丢弃最旧的事件，给新事件让位 */
+        DROP_OLDEST,
+        /** 按动作优先级分水位丢弃，低优先级先丢 */
+        PRIORITY
+    }
+
+    private static final long WARN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final LogEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final OverflowPolicy policy;
+    private final long maxBlockNanos;
+    private final int[] priorityLimits;
+    private final AtomicLongArray dropped = new AtomicLongArray(LogAction.values().length);
+    private final AtomicLong lastWarn = new AtomicLong(System.nanoTime() - WARN_INTERVAL_NANOS);
+    private final Logger logger;
+
+    public EventRingBuffer(int capacity, OverflowPolicy policy, long maxBlockMs, Logger logger) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new LogEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.policy = policy;
+        this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMs);
+        this.logger = logger;
+
+        // 各优先级允许的最高水位：低 50%，普通 80%，高 100%
+        this.priorityLimits = new int[LogAction.PRIORITY_HIGH + 1];
+        priorityLimits[LogAction.PRIORITY_LOW] = size / 2;
+        priorityLimits[LogAction.PRIORITY_NORMAL] = size / 10 * 8;
+        priorityLimits[LogAction.PRIORITY_HIGH] = size;
+    }
+
+    /**
+     * 按溢出策略把事件复制进一个空槽，返回 false 表示事件被丢弃
+     */
+    public boolean publish(LogEvent event) {
+        LogAction action = event.action;
+        switch (policy) {
+            case PRIORITY -> {
+                if (size() >= priorityLimits[action.getPriority()]) {
+                    recordDrop(action);
+                    return false;
+                }
+                if (tryPublish(event)) return true;
+            }
+            case DROP_OLDEST -> {
+                while (!tryPublish(event)) {
+                    LogAction evicted = discardOldest();
+                    if (evicted != null) recordDrop(evicted);
+                }
+                return true;
+            }
+            case BLOCK -> {
+                long deadline = System.nanoTime() + maxBlockNanos;
+                while (!tryPublish(event)) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        recordDrop(action);
+                        return false;
+                    }
+                    LockSupport.parkNanos(50_000);
+                }
+                return true;
+            }
+        }
+        recordDrop(action);
+        return false;
+    }
+
+    private boolean tryPublish(LogEvent event) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[idx].copyFrom(event);
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出最旧的事件复制到 target 中，队列为空时返回 false
+     */
+    public boolean poll(LogEvent target) {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    LogEvent slot = slots[idx];
+                    target.copyFrom(slot);
+                    slot.clear();
+                    sequences.set(idx, pos + mask + 1);
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private LogAction discardOldest() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    LogEvent slot = slots[idx];
+                    LogAction action = slot.action;
+                    slot.clear();
+                    sequences.set(idx, pos + mask + 1);
+                    return action;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private void recordDrop(LogAction action) {
+        dropped.incrementAndGet(action.ordinal());
+        long now = System.nanoTime();
+        long last = lastWarn.get();
+        if (now - last >= WARN_INTERVAL_NANOS && lastWarn.compareAndSet(last, now)) {
+            logger.warning("Log queue is full (" + policy + "), dropping events. Dropped so far: " + getDroppedCounts());
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public long getDropped(LogAction action) {
+        return dropped.get(action.ordinal());
+    }
+
+    /**
+     * 每个动作被丢弃的事件数，只包含非零项
+     */
+    public Map<LogAction, Long> getDroppedCounts() {
+        Map<LogAction, Long> counts = new EnumMap<>(LogAction.class);
+        for (LogAction action : LogAction.values()) {
+            long count = dropped.get(action.ordinal());
+            if (count > 0) counts.put(action, count);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,52 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 在写入线程空闲时逐个补建旧分区缺少的索引 (以及删除被取代的旧索引)，每一步只执行一条语句。
+ * 建好之前查询照样正确，只是这个分区走不到新索引。
+ */
+final class IndexBuilder implements BatchWriter.MaintenanceTask {
+
+    private final Logger logger;
+    private final Deque<String> pending;
+    private final int total;
+
+    IndexBuilder(Logger logger, List<String> statements) {
+        this.logger = logger;
+        this.pending = new ArrayDeque<>(statements);
+        this.total = statements.size();
+    }
+
+    @Override
+    public boolean step(WriteContext ctx) throws SQLException {
+        String ddl = pending.poll();
+        if (ddl == null) {
+            logger.info("Updated " + total + " partition indexes.");
+            return false;
+        }
+        if (ddl.startsWith("DROP")) {
+            try (Statement stmt = ctx.connection().createStatement()) {
+                stmt.execute(ddl);
+            }
+            return true;
+        }
+        // 分区可能在排队期间被保留期任务删除
+        String table = ddl.substring(ddl.indexOf(" ON ") + 4, ddl.indexOf('('));
+        try (PreparedStatement pstmt = ctx.connection().prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return true;
+            }
+        }
+        try (Statement stmt = ctx.connection().createStatement()) {
+            stmt.execute(ddl);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,380 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 共享数据库后端：一个网络中的多个服务器写同一个 PostgreSQL / MySQL 数据库，每行带上本服的 server_id。
+ * 事件不分区、不用字典表，一张 stalk_events 表加几个二级索引；写入见 JdbcWriter。
+ * 玩家、动作、文本查询一条 SQL 查所有服务器，方块、区域查询和回滚只查本服 (坐标只在本服有意义)
+ */
+final class JdbcBackend implements StorageBackend {
+
+    /**
+     * 按 JDBC URL 识别的数据库，只在建表和分段删除的写法上有区别
+     */
+    enum Dialect {
+        POSTGRESQL("jdbc:postgresql:", "org.postgresql.Driver",
+                "BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY", "TEXT"),
+        MYSQL("jdbc:mysql:", "com.mysql.cj.jdbc.Driver", "BIGINT AUTO_INCREMENT PRIMARY KEY", "MEDIUMTEXT"),
+        H2("jdbc:h2:", "org.h2.Driver", "BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY", "VARCHAR");
+
+        final String prefix;
+        final String driver;
+        final String idColumn;
+        final String textType;
+
+        Dialect(String prefix, String driver, String idColumn, String textType) {
+            this.prefix = prefix;
+            this.driver = driver;
+            this.idColumn = idColumn;
+            this.textType = textType;
+        }
+
+        static Dialect of(String url) throws SQLException {
+            for (Dialect dialect : values()) {
+                if (url.startsWith(dialect.prefix)) return dialect;
+            }
+            throw new SQLException("Unsupported JDBC URL, expected jdbc:postgresql:, jdbc:mysql: or jdbc:h2:");
+        }
+
+        /**
+         * 删除满足条件的最多 ? 行 (最后一个参数)；MySQL 不支持 IN 子查询中的 LIMIT，但 DELETE 本身可以带 LIMIT
+         */
+        String deleteChunk(String where) {
+            if (this == MYSQL) return "DELETE FROM stalk_events WHERE " + where + " LIMIT ?";
+            return "DELETE FROM stalk_events WHERE id IN (SELECT id FROM stalk_events WHERE " + where + " LIMIT ?)";
+        }
+
+        /**
+         * 插入或更新玩家名字的出现时间，参数为 uuid、name、time；多个服务器同时写同一名字时不会主键冲突
+         */
+        String upsertPlayer() {
+            return switch (this) {
+                case POSTGRESQL -> "INSERT INTO stalk_players (uuid, name, first_seen, last_seen) VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (uuid, name) DO UPDATE SET last_seen = EXCLUDED.last_seen";
+                case MYSQL -> "INSERT INTO stalk_players (uuid, name, first_seen, last_seen) VALUES (?, ?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE last_seen = VALUES(last_seen)";
+                case H2 -> "MERGE INTO stalk_players p USING (VALUES (CAST(? AS VARCHAR(36)), CAST(? AS VARCHAR(64)), " +
+                        "CAST(? AS BIGINT), CAST(? AS BIGINT))) s (uuid, name, first_seen, last_seen) " +
+                        "ON p.uuid = s.uuid AND p.name = s.name WHEN MATCHED THEN UPDATE SET last_seen = s.last_seen " +
+                        "WHEN NOT MATCHED THEN INSERT (uuid, name, first_seen, last_seen) " +
+                        "VALUES (s.uuid, s.name, s.first_seen, s.last_seen)";
+            };
+        }
+    }
+
+    // 索引名 -> 列，MySQL 没有 CREATE INDEX IF NOT EXISTS，启动时按元数据补建缺失的
+    private static final Map<String, String> INDEXES = new LinkedHashMap<>();
+
+    static {
+        INDEXES.put("stalk_events_time", "time_stamp");
+        INDEXES.put("stalk_events_player", "player_uuid, time_stamp");
+        INDEXES.put("stalk_events_action", "action, time_stamp");
+        INDEXES.put("stalk_events_coords", "server_id, world, x, z, y");
+    }
+
+    // 每次清理删除的最多行数，一段一个事务，中间可以穿插写入批次
+    private static final int RETENTION_CHUNK = 10_000;
+    // 其他服务器的新玩家名多久同步一次
+    private static final long REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Logger logger;
+    private final String url;
+    private final Properties props;
+    private final String serverId;
+    private final JdbcWriter writer;
+    private final ReadPool readPool;
+    private Dialect dialect;
+    private ScheduledExecutorService refresher;
+
+    JdbcBackend(Logger logger, String url, Properties props, String serverId, EventRingBuffer buffer,
+                BlockHistoryCache blockCache, Metrics metrics, ReadPool readPool, int connections, int batchSize,
+                long flushIntervalMs) {
+        this.logger = logger;
+        this.url = url;
+        this.props = props;
+        this.serverId = serverId;
+        this.readPool = readPool;
+        this.writer = new JdbcWriter(logger, buffer, blockCache, metrics, serverId, connections, batchSize,
+                flushIntervalMs);
+    }
+
+    @Override
+    public void open(PlayerDirectory directory, Backlog backlog) throws Exception {
+        if (serverId == null || serverId.isBlank()) throw new SQLException("storage.jdbc.server-id is not set");
+        dialect = Dialect.of(url);
+        try {
+            Class.forName(dialect.driver);
+        } catch (ClassNotFoundException e) {
+            // 插件不自带驱动，由服主放到服务器类路径上或打包进插件 jar
+            throw new SQLException("JDBC driver " + dialect.driver + " for " + dialect.prefix +
+                    " was not found; add the driver jar to the server classpath (see storage.jdbc in config.yml)");
+        }
+        try (Connection connection = DriverManager.getConnection(url, props)) {
+            createTables(connection);
+            loadPlayers(connection, directory, Long.MIN_VALUE);
+        }
+        writer.start(url, props, backlog);
+        readPool.open(url, props);
+        scheduleRefresh(directory);
+        logger.info("Shared database (" + dialect.name().toLowerCase(Locale.ROOT) + ") connected as server '"
+                + serverId + "'.");
+    }
+
+    private void createTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS stalk_events (" +
+                    "id " + dialect.idColumn + ", " +
+                    "server_id VARCHAR(64) NOT NULL, " +
+                    "time_stamp BIGINT NOT NULL, " +
+                    "player_uuid VARCHAR(36) NOT NULL, " +
+                    "player_name VARCHAR(64) NOT NULL, " +
+                    "action VARCHAR(32) NOT NULL, " +
+                    "details " + dialect.textType + ", " +
+                    "world VARCHAR(128), " +
+                    "x INT NOT NULL, " +
+                    "y INT NOT NULL, " +
+                    "z INT NOT NULL" +
+                    ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS stalk_players (" +
+                    "uuid VARCHAR(36) NOT NULL, " +
+                    "name VARCHAR(64) NOT NULL, " +
+                    "first_seen BIGINT NOT NULL, " +
+                    "last_seen BIGINT NOT NULL, " +
+                    "PRIMARY KEY (uuid, name)" +
+                    ")");
+            Set<String> existing = indexes(connection);
+            for (Map.Entry<String, String> index : INDEXES.entrySet()) {
+                if (existing.contains(index.getKey())) continue;
+                try {
+                    stmt.execute("CREATE INDEX " + index.getKey() + " ON stalk_events (" + index.getValue() + ")");
+                    logger.info("Created index " + index.getKey());
+                } catch (SQLException e) {
+                    // 其他服务器可能同时在建
+                    if (!indexes(connection).contains(index.getKey())) throw e;
+                }
+            }
+        }
+        if (!connection.getAutoCommit()) connection.commit();
+    }
+
+    private static Set<String> indexes(Connection connection) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        String table = meta.storesUpperCaseIdentifiers() ? "STALK_EVENTS" : "stalk_events";
+        Set<String> names = new HashSet<>();
+        try (ResultSet rs = meta.getIndexInfo(null, null, table, false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name != null) names.add(name.toLowerCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 加载 since 之后出现过的 (UUID, 名字)，包括在其他服务器上加入的玩家
+     */
+    private static void loadPlayers(Connection connection, PlayerDirectory directory, long since) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT uuid, name FROM stalk_players WHERE last_seen >= ?")) {
+            pstmt.setLong(1, since);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        directory.add(UUID.fromString(rs.getString(1)), rs.getString(2));
+                    } catch (IllegalArgumentException ignored) { }
+                }
+            }
+        }
+    }
+
+    /**
+     * 定期同步其他服务器上新出现的玩家名，/stalk search 才能按名字找到只在别的服务器上出现过的玩家
+     */
+    private void scheduleRefresh(PlayerDirectory directory) {
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Stalk-Player-Sync");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] since = {System.currentTimeMillis()};
+        refresher.scheduleWithFixedDelay(() -> {
+            // 多减一个周期，容忍服务器之间的时钟偏差
+            long from = since[0] - REFRESH_MILLIS;
+            since[0] = System.currentTimeMillis();
+            writer.addTask("Player name sync", connection -> {
+                loadPlayers(connection, directory, from);
+                return false;
+            });
+        }, REFRESH_MILLIS, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT id, server_id, time_stamp, player_name, player_uuid, action, " +
+                "details, world, x, y, z FROM stalk_events WHERE ").append(query.where(params));
+        if (query.local || query.exactBlock || query.area) {
+            sql.append(" AND server_id = ?");
+            params.add(serverId);
+        }
+        if (query.text != null) {
+            List<String> terms = terms(query.text);
+            if (terms.isEmpty()) return List.of();
+            for (String term : terms) {
+                sql.append(" AND LOWER(details) LIKE ? ESCAPE '!'");
+                params.add("%" + term + "%");
+            }
+        }
+        sql.append(" ORDER BY time_stamp DESC, id DESC LIMIT ?");
+
+        List<LogRow> rows = new ArrayList<>();
+        try (PreparedStatement pstmt = ctx.prepare(sql.toString())) {
+            int index = 1;
+            for (Object param : params) {
+                pstmt.setObject(index++, param);
+            }
+            pstmt.setInt(index, query.limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // 其他服务器的记录在世界名前加上服务器名
+                    String server = rs.getString("server_id");
+                    String world = rs.getString("world");
+                    rows.add(new LogRow(
+                            rs.getLong("id"),
+                            rs.getLong("time_stamp"),
+                            rs.getString("player_name"),
+                            rs.getString("player_uuid"),
+                            rs.getString("action"),
+                            rs.getString("details"),
+                            serverId.equals(server) ? world : server + ":" + world,
+                            rs.getInt("x"),
+                            rs.getInt("y"),
+                            rs.getInt("z")));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 搜索文本拆成小写的词，转义 LIKE 的通配符；没有字母或数字的词忽略
+     */
+    private static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String term : text.trim().split("\\s+")) {
+            if (term.codePoints().noneMatch(Character::isLetterOrDigit)) continue;
+            terms.add(term.toLowerCase(Locale.ROOT)
+                    .replace("!", "!!").replace("%", "!%").replace("_", "!_"));
+        }
+        return terms;
+    }
+
+    @Override
+    public void seen(UUID uuid, String name, long time) {
+        writer.addTask("Player name update", connection -> {
+            try (PreparedStatement upsert = connection.prepareStatement(dialect.upsertPlayer())) {
+                upsert.setString(1, uuid.toString());
+                upsert.setString(2, name);
+                upsert.setLong(3, time);
+                upsert.setLong(4, time);
+                upsert.executeUpdate();
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 每个服务器只清理自己的记录，按 RETENTION_CHUNK 行一段删除，每段一个事务。
+     * 按动作设置的保留期单独删除，未列出的动作按 defaultDays 删除；保留天数为 0 表示永久保留。
+     * 各条件的删除并行排队，全部结束后调用 done
+     */
+    @Override
+    public void retain(int defaultDays, Map<LogAction, Integer> actionDays, Runnable done) {
+        long now = System.currentTimeMillis();
+        // 先占一个计数，避免前面的删除在全部排队之前就结束并调用 done
+        AtomicInteger pending = new AtomicInteger(1);
+        for (Map.Entry<LogAction, Integer> entry : actionDays.entrySet()) {
+            if (entry.getValue() <= 0) continue;
+            deleteExpired("server_id = ? AND action = ? AND time_stamp < ?",
+                    List.of(serverId, entry.getKey().name(), now - entry.getValue() * Partitions.DAY_MILLIS), pending, done);
+        }
+        if (defaultDays > 0) {
+            List<Object> params = new ArrayList<>(List.of(serverId, now - defaultDays * Partitions.DAY_MILLIS));
+            StringBuilder where = new StringBuilder("server_id = ? AND time_stamp < ?");
+            if (!actionDays.isEmpty()) {
+                where.append(" AND action NOT IN (");
+                int i = 0;
+                for (LogAction action : actionDays.keySet()) {
+                    where.append(i++ == 0 ? "?" : ", ?");
+                    params.add(action.name());
+                }
+                where.append(")");
+            }
+            deleteExpired(where.toString(), params, pending, done);
+        }
+        if (pending.decrementAndGet() == 0) done.run();
+    }
+
+    /**
+     * 每段提交后重新排队，直到一段删不满 RETENTION_CHUNK 行；结束或失败时减少 pending，最后一个结束的调用 done
+     */
+    private void deleteExpired(String where, List<Object> params, AtomicInteger pending, Runnable done) {
+        long[] total = new long[1];
+        pending.incrementAndGet();
+        writer.addTask("Retention", connection -> {
+            int deleted;
+            try (PreparedStatement pstmt = connection.prepareStatement(dialect.deleteChunk(where))) {
+                int index = 1;
+                for (Object param : params) {
+                    pstmt.setObject(index++, param);
+                }
+                pstmt.setInt(index, RETENTION_CHUNK);
+                deleted = pstmt.executeUpdate();
+            }
+            total[0] += deleted;
+            if (deleted >= RETENTION_CHUNK) return true;
+            if (total[0] > 0) logger.info("Retention: deleted " + total[0] + " expired rows");
+            return false;
+        }, () -> {
+            if (pending.decrementAndGet() == 0) done.run();
+        });
+    }
+
+    /**
+     * 共享数据库的容量由数据库服务器管理，不做本地归档
+     */
+    @Override
+    public void archive(int afterDays, Runnable done) {
+        done.run();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return writer.getEventsPerSecond();
+    }
+
+    @Override
+    public long getTotalWritten() {
+        return writer.getTotalWritten();
+    }
+
+    @Override
+    public String describe() {
+        return String.format("Shared database: %s, server '%s', %d batches in flight",
+                dialect == null ? "not connected" : dialect.name().toLowerCase(Locale.ROOT), serverId,
+                writer.getInFlight());
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+        if (refresher != null) refresher.shutdownNow();
+        writer.shutdown(timeoutMillis);
+    }
+}
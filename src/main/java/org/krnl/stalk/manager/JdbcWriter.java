@@ -0,0 +1,417 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 共享数据库的写入线程：从环形缓冲区攒批，交给发送线程用多行 INSERT 写入，每批一个事务。
+ * 每个发送线程占用一个连接，最多 connections 批同时在路上，网络往返的等待不会挡住攒下一批；
+ * 空闲批次用完时写入线程停下等待，事件留在环形缓冲区中，由它的溢出策略兜底。
+ * 不做移动轨迹压缩和重复事件合并，每个事件一行
+ */
+final class JdbcWriter implements Runnable {
+
+    /**
+     * 在发送线程上用一个连接执行的小任务 (记录玩家名、清理过期记录等)，执行后提交
+     */
+    interface Task {
+        /**
+         * 返回 true 表示还有下一段，提交后重新排队，中间可以穿插写入批次
+         */
+        boolean run(Connection connection) throws SQLException;
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int COLUMNS = 10;
+    // 单条 INSERT 的最大行数，避开 PostgreSQL 每条语句 32767 个参数的上限
+    private static final int ROWS_PER_STATEMENT = 1000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int STATEMENT_TIMEOUT_SECONDS = 30;
+
+    private final Logger logger;
+    private final EventRingBuffer buffer;
+    private final BlockHistoryCache blockCache;
+    private final Metrics metrics;
+    private final String serverId;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int connections;
+    // 重放 backlog 用的暂存批次，攒满后复制到空闲批次
+    private final LogEvent[] staging;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Connection> pool;
+
+    private volatile Thread thread;
+    private ExecutorService senders;
+    private String url;
+    private Properties props;
+    private volatile boolean running = true;
+    // 停服时限已到：交出当前批次即退出，失败的批次不再重试，剩余事件留在环形缓冲区中
+    private volatile boolean abort;
+    private Backlog backlog;
+
+    // 吞吐统计，由多个发送线程更新；单独加锁，shutdown 持有本对象的锁等待发送线程
+    private final Object statsLock = new Object();
+    private final AtomicLong totalWritten = new AtomicLong();
+    private long windowStart = System.nanoTime();
+    private long windowCount;
+    private volatile double eventsPerSecond;
+
+    JdbcWriter(Logger logger, EventRingBuffer buffer, BlockHistoryCache blockCache, Metrics metrics, String serverId,
+               int connections, int batchSize, long flushIntervalMs) {
+        this.logger = logger;
+        this.buffer = buffer;
+        this.blockCache = blockCache;
+        this.metrics = metrics;
+        this.serverId = serverId;
+        this.connections = Math.max(1, connections);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.staging = new LogEvent[this.batchSize];
+        for (int i = 0; i < this.batchSize; i++) {
+            staging[i] = new LogEvent();
+        }
+        // 每个连接一批在发送、一批在攒
+        this.free = new ArrayBlockingQueue<>(this.connections * 2);
+        for (int i = 0; i < this.connections * 2; i++) {
+            free.add(new Batch(this.batchSize));
+        }
+        this.pool = new ArrayBlockingQueue<>(this.connections);
+    }
+
+    /**
+     * 打开写入连接并启动写入线程；backlog 中的事件先于环形缓冲区写入，已经开始关闭时不再启动
+     */
+    synchronized void start(String url, Properties props, Backlog backlog) throws SQLException {
+        if (!running) return;
+        this.url = url;
+        this.props = props;
+        try {
+            for (int i = 0; i < connections; i++) {
+                pool.add(connect());
+            }
+        } catch (SQLException e) {
+            closeConnections();
+            throw e;
+        }
+        AtomicInteger threadId = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(connections, r -> {
+            Thread t = new Thread(r, "Stalk-Writer-Send-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        backlog.stop();
+        this.backlog = backlog;
+        this.thread = new Thread(this, "Stalk-Writer");
+        this.thread.start();
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, props);
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    @Override
+    public void run() {
+        try {
+            backlog.replay(staging, this::submitStaged, () -> abort);
+            Batch current = null;
+            long deadline = 0;
+            while (true) {
+                if (current == null) current = free.poll();
+                if (current != null && current.count < batchSize && !abort
+                        && buffer.poll(current.events[current.count])) {
+                    if (current.count == 0) deadline = System.nanoTime() + flushIntervalNanos;
+                    current.count++;
+                    continue;
+                }
+                boolean stopping = !running;
+                if (current != null && current.count > 0
+                        && (current.count >= batchSize || stopping || System.nanoTime() - deadline >= 0)) {
+                    submit(current);
+                    current = null;
+                    continue;
+                }
+                if (stopping && (abort || buffer.isEmpty())) break;
+                if (current != null && current.count == 0) recordWritten(0);
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        } finally {
+            closeSenders();
+        }
+    }
+
+    /**
+     * 把暂存批次中的 count 个事件复制到一个空闲批次发送 (重放 backlog 时)
+     */
+    private void submitStaged(int count) {
+        Batch batch;
+        try {
+            batch = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Log write interrupted (" + count + " events lost)");
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            batch.events[i].copyFrom(staging[i]);
+            staging[i].clear();
+        }
+        batch.count = count;
+        submit(batch);
+    }
+
+    private void submit(Batch batch) {
+        try {
+            senders.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            logger.warning("Log write error (" + batch.count + " events lost): writer is closed");
+            release(batch);
+        }
+    }
+
+    /**
+     * 在发送线程上渲染 details 并写入一批，失败时换连接重试几次
+     */
+    private void send(Batch batch) {
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < batch.count; i++) {
+                batch.details[i] = DetailRenderer.render(batch.events[i]);
+            }
+            execute(connection -> {
+                insert(connection, batch);
+                return false;
+            });
+            metrics.commitNanos.record(System.nanoTime() - start);
+            metrics.batchSize.record(batch.count);
+            recordWritten(batch.count);
+            blockCache.addAll(batch.events, batch.details, batch.count);
+        } catch (SQLException e) {
+            logger.warning("Log write error (" + batch.count + " events lost): " + e.getMessage());
+        } finally {
+            release(batch);
+        }
+    }
+
+    private void insert(Connection connection, Batch batch) throws SQLException {
+        for (int from = 0; from < batch.count; from += ROWS_PER_STATEMENT) {
+            int rows = Math.min(ROWS_PER_STATEMENT, batch.count - from);
+            try (PreparedStatement pstmt = connection.prepareStatement(insertSql(rows))) {
+                pstmt.setQueryTimeout(STATEMENT_TIMEOUT_SECONDS);
+                int index = 1;
+                for (int i = from; i < from + rows; i++) {
+                    LogEvent event = batch.events[i];
+                    pstmt.setString(index++, serverId);
+                    pstmt.setLong(index++, event.timestamp);
+                    pstmt.setString(index++, event.playerUuid != null ? event.playerUuid.toString() : "");
+                    pstmt.setString(index++, event.playerName);
+                    pstmt.setString(index++, event.action.name());
+                    pstmt.setString(index++, batch.details[i]);
+                    pstmt.setString(index++, event.world);
+                    pstmt.setInt(index++, event.x);
+                    pstmt.setInt(index++, event.y);
+                    pstmt.setInt(index++, event.z);
+                }
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(128 + rows * (COLUMNS * 3 + 4));
+        sql.append("INSERT INTO stalk_events (server_id, time_stamp, player_uuid, player_name, action, details, " +
+                "world, x, y, z) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 取一个连接执行任务并提交，返回任务是否还有下一段；出错时回滚，检查连接 (断开的重连) 后重试，
+     * 重试用尽或停服时限已到时抛出最后一次的错误
+     */
+    private boolean execute(Task task) throws SQLException {
+        SQLException error = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                if (abort) break;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS * (attempt - 1)));
+            }
+            Connection connection;
+            try {
+                connection = pool.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted");
+            }
+            try {
+                boolean more = task.run(connection);
+                connection.commit();
+                return more;
+            } catch (SQLException e) {
+                error = e;
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) { }
+                connection = revalidate(connection);
+            } finally {
+                pool.offer(connection);
+            }
+        }
+        throw error;
+    }
+
+    private Connection revalidate(Connection connection) {
+        try {
+            if (connection.isValid(2)) return connection;
+            connection.close();
+        } catch (SQLException ignored) { }
+        try {
+            return connect();
+        } catch (SQLException e) {
+            return connection;
+        }
+    }
+
+    private void release(Batch batch) {
+        for (int i = 0; i < batch.count; i++) {
+            batch.events[i].clear();
+            batch.details[i] = null;
+        }
+        batch.count = 0;
+        free.offer(batch);
+    }
+
+    /**
+     * 在发送线程上执行一个任务，失败只记录警告
+     */
+    void addTask(String name, Task task) {
+        addTask(name, task, () -> { });
+    }
+
+    /**
+     * 同上，任务全部完成、失败或无法排队时调用 done
+     */
+    void addTask(String name, Task task, Runnable done) {
+        ExecutorService executor = senders;
+        if (executor == null) {
+            done.run();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                boolean more = false;
+                try {
+                    more = execute(task);
+                } catch (SQLException e) {
+                    logger.warning(name + " failed: " + e.getMessage());
+                }
+                if (more) addTask(name, task, done);
+                else done.run();
+            });
+        } catch (RejectedExecutionException e) {
+            done.run();
+        }
+    }
+
+    /**
+     * 等发送中的批次写完后关闭连接
+     */
+    private void closeSenders() {
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(STATEMENT_TIMEOUT_SECONDS * MAX_ATTEMPTS, TimeUnit.SECONDS)) {
+                senders.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnections();
+    }
+
+    private void closeConnections() {
+        Connection connection;
+        while ((connection = pool.poll()) != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warning("Failed to close database connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordWritten(int count) {
+        totalWritten.addAndGet(count);
+        synchronized (statsLock) {
+            windowCount += count;
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                eventsPerSecond = windowCount * 1_000_000_000.0 / elapsed;
+                windowStart = now;
+                windowCount = 0;
+            }
+        }
+    }
+
+    /**
+     * 停止接收新批次，在 timeoutMillis 内尽量写完队列剩余事件；
+     * 超时则交出当前批次就退出，没写完的事件留在环形缓冲区中由调用方处理
+     */
+    synchronized void shutdown(long timeoutMillis) {
+        running = false;
+        if (thread == null) return;
+        try {
+            thread.join(Math.max(1, timeoutMillis));
+            if (thread.isAlive()) {
+                abort = true;
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 不在空闲队列中的批次数 (正在攒、发送或等待发送)
+     */
+    int getInFlight() {
+        return connections * 2 - free.size();
+    }
+
+    double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    long getTotalWritten() {
+        return totalWritten.get();
+    }
+
+    /**
+     * 一批事件及渲染好的 details，在写入线程和发送线程之间循环使用
+     */
+    private static final class Batch {
+
+        final LogEvent[] events;
+        final String[] details;
+        int count;
+
+        Batch(int size) {
+            events = new LogEvent[size];
+            details = new String[size];
+            for (int i = 0; i < size; i++) {
+                events[i] = new LogEvent();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 在线迁移旧版本的事件表 (旧版 logs 或未分区的 events)：写入线程空闲时每次搬运一小段到对应日期的分区，
+ * 插入分区和删除旧行在同一事务内完成，查询永远不会看到重复或缺失的行。
+ */
+final class LegacyMigrator implements BatchWriter.MaintenanceTask {
+
+    private static final int CHUNK_SIZE = 2000;
+
+    private final Logger logger;
+    private final String source;
+    private final boolean normalized;
+    private long migrated;
+    // 旧版 logs 中玩家 UUID、名字或动作无效的行，无法写入分区，随所在的一段一起删除
+    private long skipped;
+    private boolean announced;
+
+    LegacyMigrator(Logger logger, String source) {
+        this.logger = logger;
+        this.source = source;
+        this.normalized = !Schema.LEGACY_TABLE.equals(source);
+    }
+
+    @Override
+    public boolean step(WriteContext ctx) throws SQLException {
+        Connection connection = ctx.connection();
+        if (!announced) {
+            announced = true;
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + source)) {
+                logger.info("Migrating " + (rs.next() ? rs.getLong(1) : 0) + " rows from " + source + " in the background...");
+            }
+        }
+
+        String columns = normalized
+                ? "id, time_stamp, player_id, action_id, details, world_id, x, y, z"
+                : "id, time_stamp, player_name, player_uuid, action, details, world, x, y, z";
+        long maxId = -1;
+        int count = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT " + columns + " FROM " + source + " ORDER BY id LIMIT ?")) {
+            select.setInt(1, CHUNK_SIZE);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    maxId = rs.getLong(1);
+                    UUID uuid = normalized ? null : uuid(rs.getString(4));
+                    if (!normalized && (uuid == null || rs.getString(3) == null || rs.getString(5) == null)) {
+                        skipped++;
+                        continue;
+                    }
+                    PreparedStatement insert = ctx.partitions().insertFor(rs.getLong(2));
+                    insert.setLong(1, rs.getLong(2));
+                    if (normalized) {
+                        insert.setInt(2, rs.getInt(3));
+                        insert.setInt(3, rs.getInt(4));
+                        insert.setString(4, rs.getString(5));
+                        insert.setObject(5, rs.getObject(6));
+                        insert.setInt(6, rs.getInt(7));
+                        insert.setInt(7, rs.getInt(8));
+                        insert.setInt(8, rs.getInt(9));
+                    } else {
+                        Dictionary dictionary = ctx.dictionary();
+                        insert.setInt(2, dictionary.playerId(uuid, rs.getString(3)));
+                        insert.setInt(3, dictionary.actionId(rs.getString(5)));
+                        insert.setString(4, rs.getString(6));
+                        String world = rs.getString(7);
+                        if (world != null) insert.setInt(5, dictionary.worldId(world));
+                        else insert.setNull(5, Types.INTEGER);
+                        insert.setInt(6, rs.getInt(8));
+                        insert.setInt(7, rs.getInt(9));
+                        insert.setInt(8, rs.getInt(10));
+                    }
+                    insert.setNull(9, Types.BLOB);
+                    insert.setNull(10, Types.INTEGER);
+                    insert.setNull(11, Types.INTEGER);
+                    insert.addBatch();
+                    count++;
+                }
+            }
+        }
+        ctx.partitions().executeBatches();
+
+        try (Statement stmt = connection.createStatement()) {
+            if (maxId < 0) {
+                stmt.execute("DROP TABLE " + source + ";");
+                ctx.partitions().invalidateView();
+                logger.info("Migration of " + source + " finished, " + migrated + " rows migrated.");
+                if (skipped > 0) logger.warning("Skipped " + skipped + " rows of " + source + " with an invalid player or action.");
+                return false;
+            }
+            stmt.execute("DELETE FROM " + source + " WHERE id <= " + maxId + ";");
+        }
+        migrated += count;
+        return true;
+    }
+
+    private static UUID uuid(String text) {
+        if (text == null) return null;
+        try {
+            return UUID.fromString(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
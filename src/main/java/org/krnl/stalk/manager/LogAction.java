@@ -0,0 +1,38 @@
+package org.krnl.stalk.manager;
+
+/**
+ * 所有可记录的动作类型，priority 越小越先被丢弃
+ */
+public enum LogAction {
+    CHUNK_MOVE(0),
+    CHAT(1),
+    COMMAND(2),
+    SESSION(2),
+    BLOCK_BREAK(2),
+    BLOCK_PLACE(2),
+    INTERACT(0),
+    DROP_ITEM(1),
+    ATTACK(0),
+    DEATH(2),
+    DEATH_PLAYER(2),
+    KILL_ENTITY(1),
+    CONTAINER_OPEN(1),
+    CONTAINER_CLOSE(1),
+    CONTAINER_TRANSACTION(1),
+    PICKUP_ITEM(1),
+    INV_CLICK(0);
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    private final int priority;
+
+    LogAction(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,211 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.UUID;
+
+/**
+ * 结构化事件：主线程只采集基本类型和枚举引用，details 文本由写入线程渲染 (见 DetailRenderer)。
+ * 环形缓冲区中的槽位和每个线程的采集对象都会被重复使用。
+ */
+public final class LogEvent {
+
+    long timestamp;
+    String playerName;
+    UUID playerUuid;
+    LogAction action;
+    String world;
+    int x;
+    int y;
+    int z;
+
+    // 已渲染好的文本；为 null 时由写入线程根据下面的结构化字段生成
+    String details;
+
+    // 结构化字段，含义取决于 action
+    Material material;
+    Material item;
+    int amount;
+    int slot;
+    Enum<?> kind;
+    Enum<?> subKind;
+    double damage;
+    String text;
+    String targetName;
+    UUID target;
+    // 关联位置 (容器方块、目标区块等)，targetWorld 为 null 表示未知
+    String targetWorld;
+    int tx;
+    int ty;
+    int tz;
+    // 容器关闭时的改动：每格依次是格子、打开时、关闭时的物品 (见 DetailRenderer.pack)，-1 表示打开时未知
+    int[] contents;
+
+    // 监听器开始采集的时刻 (System.nanoTime)，只用于统计主线程耗时，不复制进队列
+    long startNanos;
+
+    void reset(long timestamp, String playerName, UUID playerUuid, LogAction action) {
+        clear();
+        this.timestamp = timestamp;
+        this.playerName = playerName;
+        this.playerUuid = playerUuid;
+        this.action = action;
+    }
+
+    void copyFrom(LogEvent other) {
+        timestamp = other.timestamp;
+        playerName = other.playerName;
+        playerUuid = other.playerUuid;
+        action = other.action;
+        world = other.world;
+        x = other.x;
+        y = other.y;
+        z = other.z;
+        details = other.details;
+        material = other.material;
+        item = other.item;
+        amount = other.amount;
+        slot = other.slot;
+        kind = other.kind;
+        subKind = other.subKind;
+        damage = other.damage;
+        text = other.text;
+        targetName = other.targetName;
+        target = other.target;
+        targetWorld = other.targetWorld;
+        tx = other.tx;
+        ty = other.ty;
+        tz = other.tz;
+        contents = other.contents;
+    }
+
+    /**
+     * 释放引用，让字符串可以被回收
+     */
+    void clear() {
+        playerName = null;
+        playerUuid = null;
+        action = null;
+        world = null;
+        details = null;
+        material = null;
+        item = null;
+        amount = 0;
+        slot = 0;
+        kind = null;
+        subKind = null;
+        damage = 0;
+        text = null;
+        targetName = null;
+        target = null;
+        targetWorld = null;
+        tx = 0;
+        ty = 0;
+        tz = 0;
+        contents = null;
+    }
+
+    public LogEvent at(Location loc) {
+        return at(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    public LogEvent at(Block block) {
+        return at(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public LogEvent at(World world, int x, int y, int z) {
+        this.world = world.getName();
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public LogEvent details(String details) {
+        this.details = details;
+        return this;
+    }
+
+    public LogEvent material(Material material) {
+        this.material = material;
+        return this;
+    }
+
+    /**
+     * 记录相关物品 (手持、丢弃、点击的物品)，只保存材质和数量
+     */
+    public LogEvent item(ItemStack stack) {
+        if (stack != null) {
+            this.item = stack.getType();
+            this.amount = stack.getAmount();
+        }
+        return this;
+    }
+
+    public LogEvent slot(int slot) {
+        this.slot = slot;
+        return this;
+    }
+
+    public LogEvent kind(Enum<?> kind) {
+        this.kind = kind;
+        return this;
+    }
+
+    public LogEvent subKind(Enum<?> subKind) {
+        this.subKind = subKind;
+        return this;
+    }
+
+    public LogEvent damage(double damage) {
+        this.damage = damage;
+        return this;
+    }
+
+    public LogEvent text(String text) {
+        this.text = text;
+        return this;
+    }
+
+    public LogEvent target(UUID target, String targetName) {
+        this.target = target;
+        this.targetName = targetName;
+        return this;
+    }
+
+    public LogEvent targetPos(Location loc) {
+        if (loc != null) {
+            this.targetWorld = loc.getWorld().getName();
+            this.tx = loc.getBlockX();
+            this.ty = loc.getBlockY();
+            this.tz = loc.getBlockZ();
+        }
+        return this;
+    }
+
+    public LogEvent targetPos(int tx, int ty, int tz) {
+        this.targetWorld = world;
+        this.tx = tx;
+        this.ty = ty;
+        this.tz = tz;
+        return this;
+    }
+
+    public LogEvent contents(int[] contents) {
+        this.contents = contents;
+        return this;
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public String getPlayerName() { return playerName; }
+    public UUID getPlayerUuid() { return playerUuid; }
+    public LogAction getAction() { return action; }
+    public String getWorld() { return world; }
+    public int getX() { return x; }
+    public int getY() { return y; }
+    public int getZ() { return z; }
+}
@@ -1,241 +1,739 @@
 package org.krnl.stalk.manager;
 
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.krnl.stalk.Stalk;
 
 import java.io.File;
-import java.sql.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LogManager {
 
+    // 一次搜索最多匹配的玩家数，超过时提示输入更完整的名字
+    private static final int MAX_MATCHED_PLAYERS = 50;
+    // 生成回滚计划时每次读取的记录数
+    private static final int ROLLBACK_PAGE = 5000;
+
     private final Stalk plugin;
-    private final File dbFile;
     private final ExecutorService ioExecutor;
-    private Connection connection;
+    private final EventRingBuffer buffer;
+    private final BlockHistoryCache blockCache;
+    private final ReadPool readPool;
+    private final StorageBackend storage;
+    private final RollbackEngine rollbacks;
+    private final int maxRollbackBlocks;
+    private final Backlog backlog;
+    // 停服时写完队列的时限，超时剩余的事件写入溢出文件 (见 SpillFile)
+    private final long drainMillis;
+    private final PlayerDirectory directory = new PlayerDirectory();
+    private final Metrics metrics = new Metrics();
+    // 保留期清理已排队、尚未结束
+    private final AtomicBoolean retaining = new AtomicBoolean();
+    // 归档已排队、尚未结束
+    private final AtomicBoolean archiving = new AtomicBoolean();
+    // 每个管理员最近一次分页搜索的游标
+    private final Map<String, SearchCursor> cursors = new ConcurrentHashMap<>();
+    // 在线玩家的最近事件，加入时创建、退出时释放
+    private final Map<UUID, PlayerHistory> recentHistory = new ConcurrentHashMap<>();
+    private final int historySize;
 
-    private final Set<String> disabledActions = new HashSet<>();
-    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+    // 重新加载时整体替换，监听器 (含异步聊天线程) 读取时无需加锁
+    private volatile Set<LogAction> disabledActions = EnumSet.noneOf(LogAction.class);
+    // 按动作 ordinal 的过滤规则，没有规则的为 null
+    private volatile ActionFilter[] filters = new ActionFilter[LogAction.values().length];
+    // 在线玩家因权限组被忽略的动作 (按 ordinal 的位掩码)，加入和重新加载时计算
+    private final Map<UUID, Long> ignoredActions = new ConcurrentHashMap<>();
+    private final ThreadLocal<LogEvent> scratch = ThreadLocal.withInitial(LogEvent::new);
+    // 多个查询线程共用，必须线程安全
+    private final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
 
     public LogManager(Stalk plugin) {
         this.plugin = plugin;
-        this.dbFile = new File(plugin.getDataFolder(), "stalk_data.db");
         this.ioExecutor = Executors.newSingleThreadExecutor();
+        this.buffer = new EventRingBuffer(
+                plugin.getConfig().getInt("queue.capacity", 65536),
+                parsePolicy(plugin.getConfig().getString("queue.overflow-policy", "PRIORITY")),
+                plugin.getConfig().getLong("queue.max-block-ms", 50),
+                plugin.getLogger());
+        this.blockCache = new BlockHistoryCache(
+                plugin.getConfig().getInt("block-cache.events-per-block", 16),
+                plugin.getConfig().getLong("block-cache.max-memory-mb", 32) * 1024 * 1024);
+        this.readPool = new ReadPool(plugin, metrics,
+                plugin.getConfig().getInt("query.pool-size", 3),
+                plugin.getConfig().getLong("query.timeout-seconds", 30));
+        this.storage = createStorage();
+        this.rollbacks = new RollbackEngine(plugin,
+                plugin.getConfig().getLong("rollback.tick-budget-ms", 5),
+                plugin.getConfig().getInt("rollback.max-loading-chunks", 16),
+                plugin.getConfig().getLong("rollback.progress-interval-seconds", 5));
+        this.maxRollbackBlocks = plugin.getConfig().getInt("rollback.max-blocks", 500000);
+        this.backlog = new Backlog(plugin.getLogger(), buffer, new File(plugin.getDataFolder(), "spill"),
+                plugin.getConfig().getInt("queue.startup-max-events", 200000));
+        this.drainMillis = Math.max(0, plugin.getConfig().getLong("shutdown.drain-timeout-ms", 5000));
+
+        this.historySize = plugin.getConfig().getInt("recent-history.events-per-player", 200);
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            trackPlayer(player);
+        }
 
         loadSettings();
-        initDatabase();
+        initStorage();
+        scheduleMetrics();
+    }
+
+    private StorageBackend createStorage() {
+        int batchSize = plugin.getConfig().getInt("writer.batch-size", 500);
+        long flushInterval = plugin.getConfig().getLong("writer.flush-interval-ms", 1000);
+        String backend = plugin.getConfig().getString("storage.backend", "sqlite");
+        if ("segment-log".equalsIgnoreCase(backend)) {
+            return new SegmentLogBackend(plugin.getLogger(), new File(plugin.getDataFolder(), "segments"), buffer,
+                    blockCache, metrics, readPool,
+                    plugin.getConfig().getInt("storage.segment-log.segment-size-mb", 64),
+                    plugin.getConfig().getLong("storage.segment-log.roll-minutes", 60),
+                    batchSize, flushInterval);
+        }
+        if ("jdbc".equalsIgnoreCase(backend)) {
+            Properties props = new Properties();
+            props.setProperty("user", plugin.getConfig().getString("storage.jdbc.user", ""));
+            props.setProperty("password", plugin.getConfig().getString("storage.jdbc.password", ""));
+            return new JdbcBackend(plugin.getLogger(), plugin.getConfig().getString("storage.jdbc.url", ""), props,
+                    plugin.getConfig().getString("storage.jdbc.server-id", ""), buffer, blockCache, metrics, readPool,
+                    plugin.getConfig().getInt("storage.jdbc.writer-connections", 2),
+                    batchSize, flushInterval);
+        }
+        if (!"sqlite".equalsIgnoreCase(backend)) {
+            plugin.getLogger().warning("Unknown storage backend: " + backend + ", using sqlite");
+        }
+        TrajectoryBuffer trajectories = new TrajectoryBuffer(
+                plugin.getConfig().getBoolean("movement.compress", true),
+                plugin.getConfig().getLong("movement.window-seconds", 300) * 1000,
+                plugin.getConfig().getInt("movement.max-steps", 512));
+        BatchWriter writer = new BatchWriter(plugin.getLogger(), buffer, blockCache, trajectories, createCoalescer(),
+                metrics, batchSize, flushInterval);
+        Archives archives = new Archives(plugin.getLogger(), new File(plugin.getDataFolder(), "archive"),
+                plugin.getConfig().getInt("archive.scan-threads", 2));
+        return new SqliteBackend(plugin.getLogger(), new File(plugin.getDataFolder(), "stalk_data.db"), writer, readPool,
+                archives);
+    }
+
+    private EventCoalescer createCoalescer() {
+        Set<LogAction> actions = EnumSet.noneOf(LogAction.class);
+        if (plugin.getConfig().getBoolean("coalesce.enabled", true)) {
+            for (String name : plugin.getConfig().getStringList("coalesce.actions")) {
+                try {
+                    actions.add(LogAction.valueOf(name.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Unknown log action in coalesce config: " + name);
+                }
+            }
+        }
+        return new EventCoalescer(actions,
+                plugin.getConfig().getLong("coalesce.window-ms", 3000),
+                plugin.getConfig().getLong("coalesce.max-span-seconds", 60) * 1000);
     }
 
+    /**
+     * 读取 logging 开关和 filters 规则，启动和 /stalk reload 时在主线程调用
+     */
     public void loadSettings() {
-        disabledActions.clear();
+        Set<LogAction> disabled = EnumSet.noneOf(LogAction.class);
         ConfigurationSection section = plugin.getConfig().getConfigurationSection("logging");
         if (section != null) {
             for (String key : section.getKeys(false)) {
-                if (!section.getBoolean(key)) {
-                    disabledActions.add(key);
+                if (section.getBoolean(key)) continue;
+                try {
+                    disabled.add(LogAction.valueOf(key));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Unknown log action in config: " + key);
                 }
             }
         }
-        if (!disabledActions.isEmpty()) {
-            plugin.getLogger().info("Disabled log actions: " + disabledActions);
+        disabledActions = disabled;
+        if (!disabled.isEmpty()) {
+            plugin.getLogger().info("Disabled log actions: " + disabled);
+        }
+
+        ActionFilter[] compiled = ActionFilter.compile(plugin.getConfig().getConfigurationSection("filters"), plugin.getLogger());
+        filters = compiled;
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            updateIgnored(player, compiled);
+        }
+    }
+
+    private void updateIgnored(Player player, ActionFilter[] compiled) {
+        long mask = ActionFilter.ignoredMask(compiled, player);
+        if (mask == 0) ignoredActions.remove(player.getUniqueId());
+        else ignoredActions.put(player.getUniqueId(), mask);
+    }
+
+    private EventRingBuffer.OverflowPolicy parsePolicy(String name) {
+        try {
+            return EventRingBuffer.OverflowPolicy.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Unknown queue overflow policy: " + name + ", using PRIORITY");
+            return EventRingBuffer.OverflowPolicy.PRIORITY;
         }
     }
 
-    private void initDatabase() {
+    private void initStorage() {
+        // 存储就绪前收到的事件先移到内存暂存，写入线程启动后接手
+        backlog.start();
         ioExecutor.submit(() -> {
             try {
-                Class.forName("org.sqlite.JDBC");
-                String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
-                connection = DriverManager.getConnection(url);
-
-                try (Statement stmt = connection.createStatement()) {
-                    stmt.execute("PRAGMA journal_mode=WAL;");
-                    stmt.execute("PRAGMA synchronous=NORMAL;");
-
-                    String sql = "CREATE TABLE IF NOT EXISTS logs (" +
-                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                            "time_stamp LONG NOT NULL, " +
-                            "player_name TEXT NOT NULL, " +
-                            "player_uuid TEXT NOT NULL, " +
-                            "action TEXT NOT NULL, " +
-                            "details TEXT, " +
-                            "world TEXT, " +
-                            "x INTEGER, " +
-                            "y INTEGER, " +
-                            "z INTEGER" +
-                            ");";
-                    stmt.execute(sql);
-
-                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_player ON logs(player_name);");
-                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_time ON logs(time_stamp);");
-                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_coords ON logs(world, x, y, z);");
-                }
-                plugin.getLogger().info("SQLite database initialized successfully.");
+                storage.open(directory, backlog);
+                scheduleRetention();
+                scheduleArchive();
             } catch (Exception e) {
-                plugin.getLogger().severe("Failed to initialize database: " + e.getMessage());
+                plugin.getLogger().severe("Failed to initialize storage: " + e.getMessage());
                 e.printStackTrace();
             }
         });
     }
 
     /**
-     * 默认日志方法：使用玩家当前位置
+     * 定期按保留期清理存储
      */
-    public void log(Player player, String action, String details) {
-        log(player.getName(), player.getUniqueId().toString(), action, details, player.getLocation());
+    private void scheduleRetention() {
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("retention");
+        if (section == null) return;
+        int defaultDays = section.getInt("default-days", 0);
+        Map<LogAction, Integer> actionDays = new EnumMap<>(LogAction.class);
+        ConfigurationSection actions = section.getConfigurationSection("actions");
+        if (actions != null) {
+            for (String key : actions.getKeys(false)) {
+                try {
+                    actionDays.put(LogAction.valueOf(key), actions.getInt(key));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Unknown log action in retention config: " + key);
+                }
+            }
+        }
+        if (defaultDays <= 0 && actionDays.values().stream().noneMatch(days -> days > 0)) return;
+
+        long interval = Math.max(1, section.getLong("check-interval-minutes", 60)) * 60 * 20;
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin,
+                () -> {
+                    // 上一次清理还在写入线程上排队或执行时跳过，不重复排队
+                    if (retaining.compareAndSet(false, true)) storage.retain(defaultDays, actionDays, () -> retaining.set(false));
+                }, 20 * 60, interval);
+        plugin.getLogger().info("Retention enabled: default " + defaultDays + " days, per action " + actionDays);
     }
 
     /**
-     * 底层日志方法：指定具体位置 (用于记录方块破坏、放置等)
+     * 定期把超过 archive.after-days 天的数据移到归档文件
      */
-    public void log(String playerName, String playerUUID, String action, String details, Location loc) {
-        // 1. 检查配置是否禁用了该动作
-        if (disabledActions.contains(action)) return;
+    private void scheduleArchive() {
+        if (!plugin.getConfig().getBoolean("archive.enabled", false)) return;
+        int afterDays = Math.max(1, plugin.getConfig().getInt("archive.after-days", 30));
+        long interval = Math.max(1, plugin.getConfig().getLong("archive.check-interval-minutes", 60)) * 60 * 20;
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin,
+                () -> {
+                    // 上一次归档还没结束时跳过，避免重复扫描同样的分区
+                    if (archiving.compareAndSet(false, true)) storage.archive(afterDays, () -> archiving.set(false));
+                }, 20 * 60 * 2, interval);
+        plugin.getLogger().info("Archiving enabled: partitions older than " + afterDays + " days");
+    }
 
-        long now = System.currentTimeMillis();
-        String world = loc.getWorld().getName();
-        int x = loc.getBlockX();
-        int y = loc.getBlockY();
-        int z = loc.getBlockZ();
+    private void scheduleMetrics() {
+        plugin.getServer().getScheduler().runTaskTimer(plugin, metrics::endTick, 1, 1);
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, metrics::sample, 20, 20);
 
-        ioExecutor.submit(() -> {
-            if (connection == null) return;
-            String sql = "INSERT INTO logs (time_stamp, player_name, player_uuid, action, details, world, x, y, z) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setLong(1, now);
-                pstmt.setString(2, playerName);
-                pstmt.setString(3, playerUUID);
-                pstmt.setString(4, action);
-                pstmt.setString(5, details);
-                pstmt.setString(6, world);
-                pstmt.setInt(7, x);
-                pstmt.setInt(8, y);
-                pstmt.setInt(9, z);
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                plugin.getLogger().warning("Log write error: " + e.getMessage());
+        long interval = plugin.getConfig().getLong("metrics.dump-interval-seconds", 0);
+        if (interval <= 0) return;
+        File file = new File(plugin.getDataFolder(), plugin.getConfig().getString("metrics.dump-file", "metrics.log"));
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            StringBuilder sb = new StringBuilder("[").append(Instant.now()).append("]\n");
+            for (String line : statsReport()) {
+                sb.append(line).append('\n');
             }
-        });
+            try {
+                Files.writeString(file.toPath(), sb.append('\n'), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to write metrics to " + file.getName() + ": " + e.getMessage());
+            }
+        }, interval * 20, interval * 20);
+    }
+
+    public boolean isEnabled(LogAction action) {
+        return !disabledActions.contains(action);
     }
 
     /**
-     * 查询指定玩家的日志
+     * 开始记录一个事件 (位置为玩家当前位置)。返回当前线程复用的事件对象，
+     * 动作被禁用时返回 null，调用方应直接返回，不做任何采集。
      */
-    public void searchLogs(CommandSender sender, String playerName, int limit, Set<String> ignoredActions, boolean hideUuid) {
-        ioExecutor.submit(() -> {
-            if (connection == null) {
-                sender.sendMessage(Component.text("Database not connected.", NamedTextColor.RED));
+    public LogEvent event(Player player, LogAction action) {
+        LogEvent event = begin(player, action, player.getWorld(), null);
+        return event != null ? event.at(player.getLocation()) : null;
+    }
+
+    /**
+     * 开始记录一个发生在指定方块上的事件 (方块破坏、放置、交互等)
+     */
+    public LogEvent event(Player player, LogAction action, Block block) {
+        LogEvent event = begin(player, action, block.getWorld(), block);
+        return event != null ? event.at(block) : null;
+    }
+
+    /**
+     * 禁用的动作和过滤规则在这里判断，被过滤时不取事件对象，也不调用任何会分配内存的 API；
+     * 发生在方块上的事件按方块材质过滤
+     */
+    private LogEvent begin(Player player, LogAction action, World world, Block block) {
+        if (disabledActions.contains(action)) return null;
+        ActionFilter filter = filters[action.ordinal()];
+        if (filter != null) {
+            if (!filter.accepts(world)) return null;
+            if (block != null && filter.filtersMaterials() && !filter.accepts(block.getType())) return null;
+            Long ignored = ignoredActions.get(player.getUniqueId());
+            if (ignored != null && (ignored & 1L << action.ordinal()) != 0) return null;
+        }
+        LogEvent event = scratch.get();
+        event.reset(System.currentTimeMillis(), player.getName(), player.getUniqueId(), action);
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * 把采集好的事件放入写入队列，details 由写入线程渲染。不在方块上的事件在这里按涉及的物品过滤
+     */
+    public void submit(LogEvent event) {
+        ActionFilter filter = filters[event.action.ordinal()];
+        if (filter != null && filter.filtersMaterials() && event.material == null && !filter.accepts(event.item)) return;
+        // 被缓冲区丢弃的事件不会写入数据库，也不能出现在最近记录中，否则同一查询在落盘前后结果不同
+        if (buffer.publish(event)) {
+            PlayerHistory history = recentHistory.get(event.playerUuid);
+            if (history != null) history.add(event);
+        }
+        metrics.event(event.action);
+        if (Bukkit.isPrimaryThread()) metrics.listenerTime(System.nanoTime() - event.startNanos);
+    }
+
+    /**
+     * 玩家加入：记录名字历史，并开始在内存中保留其最近事件
+     */
+    public void trackPlayer(Player player) {
+        UUID uuid = player.getUniqueId();
+        String name = player.getName();
+        long now = System.currentTimeMillis();
+        directory.add(uuid, name);
+        storage.seen(uuid, name, now);
+        updateIgnored(player, filters);
+        if (historySize > 0) recentHistory.put(uuid, new PlayerHistory(historySize));
+    }
+
+    /**
+     * 玩家退出后释放其最近事件 (数据库中仍有完整记录)
+     */
+    public void releasePlayer(Player player) {
+        recentHistory.remove(player.getUniqueId());
+        ignoredActions.remove(player.getUniqueId());
+    }
+
+    /**
+     * 分页搜索的状态：下一页从上一页最后一条 (lastTimestamp, lastId) 之后继续
+     */
+    private record SearchCursor(String playerName, Set<UUID> uuids, Set<String> actions, Set<String> ignoredActions,
+                                long since, long until, boolean hideUuid, int limit, long lastTimestamp, long lastId, int page) {
+
+        LogQuery query() {
+            return new LogQuery().players(uuids).player(playerName).actions(actions).excludeActions(ignoredActions)
+                    .between(since, until);
+        }
+    }
+
+    /**
+     * 查询指定玩家的日志。名字先在内存索引中解析成 UUID (前缀匹配、不区分大小写，包括改名前的名字)，
+     * 再按 UUID 查询。只匹配到一个在线玩家时，最近的事件 (包括还在写入队列中的) 直接从内存回答，
+     * 不够一页时再查数据库中更早的记录。actions 为空时不限动作，时间范围为 [since, until)。
+     * nextPage 为 true 时接着该管理员上一次的搜索翻到下一页
+     */
+    public void searchLogs(CommandSender sender, String playerName, int limit, Set<String> actions, Set<String> ignoredActions,
+                           long since, long until, boolean hideUuid, boolean nextPage) {
+        if (nextPage) {
+            SearchCursor cursor = cursors.get(sender.getName());
+            if (cursor == null || !cursor.playerName().equalsIgnoreCase(playerName)) {
+                sender.sendMessage(Component.text("No more pages. Run /stalk search " + playerName + " first.", NamedTextColor.RED));
                 return;
             }
+            LogQuery query = plan(cursor.query().before(cursor.lastTimestamp(), cursor.lastId()).limit(cursor.limit() + 1));
+            readPool.submit(sender, ctx -> {
+                sender.sendMessage(Component.text("Searching: " + playerName + " (page " + (cursor.page() + 1) + ")...", NamedTextColor.YELLOW));
+                showPage(sender, cursor, List.of(), storage.read(ctx, query));
+            });
+            return;
+        }
+
+        Set<UUID> uuids = directory.resolve(playerName, MAX_MATCHED_PLAYERS);
+        if (uuids.size() > MAX_MATCHED_PLAYERS) {
+            sender.sendMessage(Component.text("Too many players match '" + playerName + "', please type more of the name.", NamedTextColor.RED));
+            return;
+        }
+        SearchCursor first = new SearchCursor(playerName, uuids, actions, ignoredActions, since, until, hideUuid, limit, 0, 0, 0);
+        // 每页多取一条，用来判断是否还有下一页
+        PlayerHistory history = uuids.size() == 1 ? recentHistory.get(uuids.iterator().next()) : null;
+        if (history == null) {
+            LogQuery query = plan(first.query().limit(limit + 1));
+            readPool.submit(sender, ctx -> {
+                sender.sendMessage(Component.text("Searching: " + playerName + "...", NamedTextColor.YELLOW));
+                showPage(sender, first, List.of(), storage.read(ctx, query));
+            });
+            return;
+        }
+
+        PlayerHistory.Snapshot snapshot = history.snapshot(limit + 1, actions, ignoredActions, since, until);
+        if (snapshot.rows().size() > limit) {
             sender.sendMessage(Component.text("Searching: " + playerName + "...", NamedTextColor.YELLOW));
+            showPage(sender, first, snapshot.rows(), List.of());
+            return;
+        }
+        // coverage 作为结束时间：跨过它的压缩轨迹由 LogReader 单独取回，只留下它之前的步骤，之后的在内存中
+        LogQuery query = plan(new LogQuery().players(uuids).actions(actions).excludeActions(ignoredActions)
+                .between(since, Math.min(until, snapshot.coverage())).limit(limit + 1 - snapshot.rows().size()));
+        readPool.submit(sender, ctx -> {
+            sender.sendMessage(Component.text("Searching: " + playerName + "...", NamedTextColor.YELLOW));
+            showPage(sender, first, snapshot.rows(), storage.read(ctx, query));
+        });
+    }
 
-            StringBuilder sqlBuilder = new StringBuilder("SELECT * FROM logs WHERE player_name LIKE ?");
-            if (!ignoredActions.isEmpty()) {
-                sqlBuilder.append(" AND action NOT IN (");
-                for (int i = 0; i < ignoredActions.size(); i++) {
-                    sqlBuilder.append(i == 0 ? "?" : ", ?");
-                }
-                sqlBuilder.append(")");
-            }
-            sqlBuilder.append(" ORDER BY time_stamp DESC LIMIT ?");
+    /**
+     * 为查询条件选择分区索引。优先选能按时间顺序直接给出结果的索引，这样凑够 limit 条就能停止：
+     * 只有一个玩家或一个动作时，(player_id, time_stamp) / (action_id, time_stamp) 的一段就是有序的；
+     * 多个值要合并排序时，玩家通常比动作更有区分度。没有玩家和动作条件时按时间索引倒序扫描
+     */
+    static LogQuery plan(LogQuery query) {
+        int players = query.playerUuids != null ? query.playerUuids.size() : 0;
+        int actions = query.includedActions.size();
+        LogQuery.Index index;
+        if (query.exactBlock) {
+            index = LogQuery.Index.COORDS;
+        } else if (query.area) {
+            index = LogQuery.Index.CHUNK;
+        } else if (players == 1 || (players > 1 && actions != 1)) {
+            index = LogQuery.Index.PLAYER;
+        } else if (actions > 0) {
+            index = LogQuery.Index.ACTION;
+        } else {
+            index = LogQuery.Index.TIME;
+        }
+        return query.using(index);
+    }
 
-            try (PreparedStatement pstmt = connection.prepareStatement(sqlBuilder.toString())) {
-                int paramIndex = 1;
-                pstmt.setString(paramIndex++, playerName + "%");
-                for (String ignore : ignoredActions) {
-                    pstmt.setString(paramIndex++, ignore);
-                }
-                pstmt.setInt(paramIndex, limit);
+    private void showPage(CommandSender sender, SearchCursor cursor, List<LogRow> cached, List<LogRow> stored) {
+        List<LogRow> rows = new ArrayList<>(cached);
+        rows.addAll(stored);
+        boolean more = rows.size() > cursor.limit();
+        if (more) rows = rows.subList(0, cursor.limit());
+        int page = cursor.page() + 1;
 
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    printResultSet(sender, rs, hideUuid);
-                }
-            } catch (SQLException e) {
-                sender.sendMessage(Component.text("Query error: " + e.getMessage(), NamedTextColor.RED));
-                e.printStackTrace();
-            }
-        });
+        String next = null;
+        if (more) {
+            LogRow last = rows.get(rows.size() - 1);
+            // 内存中的行还没有数据库 id，同一毫秒的记录宁可重复显示也不遗漏
+            long lastId = last.id() == 0 ? Long.MAX_VALUE : last.id();
+            cursors.put(sender.getName(), new SearchCursor(cursor.playerName(), cursor.uuids(), cursor.actions(),
+                    cursor.ignoredActions(), cursor.since(), cursor.until(), cursor.hideUuid(), cursor.limit(),
+                    last.timestamp(), lastId, page));
+            next = "/stalk search " + cursor.playerName() + " --page next";
+        } else {
+            cursors.remove(sender.getName());
+        }
+        printRows(sender, rows, cursor.hideUuid(), page, next);
     }
 
     /**
-     * 查询特定方块位置的历史
+     * 查询特定方块位置的历史：最近的历史直接从内存缓存回答，不够 limit 条时再查数据库中更早的记录
      */
     public void searchBlock(CommandSender sender, Location loc, int limit) {
-        ioExecutor.submit(() -> {
-            if (connection == null) {
-                sender.sendMessage(Component.text("Database not connected.", NamedTextColor.RED));
+        String world = loc.getWorld().getName();
+        int x = loc.getBlockX();
+        int y = loc.getBlockY();
+        int z = loc.getBlockZ();
+        String header = String.format("Checking block history at [%s %d,%d,%d]...", world, x, y, z);
+        BlockHistoryCache.Hit hit = blockCache.lookup(world, x, y, z, limit);
+        if (hit.rows().size() >= limit) {
+            sender.sendMessage(Component.text(header, NamedTextColor.YELLOW));
+            printRows(sender, hit.rows(), false);
+            return;
+        }
+
+        LogQuery query = plan(new LogQuery().block(world, x, y, z).between(Long.MIN_VALUE, hit.coverage())
+                .limit(limit - hit.rows().size()));
+        readPool.submit(sender, ctx -> {
+            sender.sendMessage(Component.text(header, NamedTextColor.YELLOW));
+            List<LogRow> rows = new ArrayList<>(hit.rows());
+            rows.addAll(storage.read(ctx, query));
+            printRows(sender, rows, false);
+        });
+    }
+
+    /**
+     * 查询以某个位置为中心、水平半径 radius 内 (所有高度) 的历史，since 为 Long.MIN_VALUE 时不限时间
+     */
+    public void searchArea(CommandSender sender, Location loc, int radius, long since, int limit) {
+        String world = loc.getWorld().getName();
+        int x = loc.getBlockX();
+        int z = loc.getBlockZ();
+        LogQuery query = plan(new LogQuery().area(world, x, z, radius).between(since, Long.MAX_VALUE).limit(limit));
+        readPool.submit(sender, ctx -> {
+            sender.sendMessage(Component.text(String.format("Checking area history within %d blocks of [%s %d,%d]...",
+                    radius, world, x, z), NamedTextColor.YELLOW));
+            printRows(sender, storage.read(ctx, query), false);
+        });
+    }
+
+    /**
+     * 在聊天、命令等文本中全文搜索，结果按相关度排序；playerName 不为 null 时只搜这些玩家，时间范围为 [since, until)
+     */
+    public void grep(CommandSender sender, String text, String playerName, int limit, long since, long until, boolean hideUuid) {
+        Set<String> actions = new HashSet<>();
+        for (LogAction action : Partitions.SEARCHABLE) {
+            actions.add(action.name());
+        }
+        LogQuery query = new LogQuery().text(text).actions(actions).between(since, until).limit(limit);
+        if (playerName != null) {
+            Set<UUID> uuids = directory.resolve(playerName, MAX_MATCHED_PLAYERS);
+            if (uuids.size() > MAX_MATCHED_PLAYERS) {
+                sender.sendMessage(Component.text("Too many players match '" + playerName + "', please type more of the name.", NamedTextColor.RED));
                 return;
             }
-            String world = loc.getWorld().getName();
-            int x = loc.getBlockX();
-            int y = loc.getBlockY();
-            int z = loc.getBlockZ();
-            sender.sendMessage(Component.text(String.format("Checking block history at [%s %d,%d,%d]...", world, x, y, z), NamedTextColor.YELLOW));
-
-            String sql = "SELECT * FROM logs WHERE world = ? AND x = ? AND y = ? AND z = ? ORDER BY time_stamp DESC LIMIT ?";
-
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, world);
-                pstmt.setInt(2, x);
-                pstmt.setInt(3, y);
-                pstmt.setInt(4, z);
-                pstmt.setInt(5, limit);
-
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    printResultSet(sender, rs, false);
+            query.players(uuids).player(playerName);
+        }
+        readPool.submit(sender, ctx -> {
+            sender.sendMessage(Component.text("Searching text: " + text + (playerName != null ? " (player " + playerName + ")" : "") + "...",
+                    NamedTextColor.YELLOW));
+            printRows(sender, storage.read(ctx, query), hideUuid);
+        });
+    }
+
+    /**
+     * 回滚玩家自 since 以来的方块破坏和放置 (名字须完全一致，包括改名前的名字)。
+     * 在查询线程上分页读出全部记录并生成按区块分组的计划，再交给主线程按 tick 预算执行；
+     * dryRun 时只报告规模并在管理员的客户端预览
+     */
+    public void rollback(CommandSender sender, String playerName, long since, boolean dryRun) {
+        Set<UUID> uuids = directory.exact(playerName);
+        if (uuids.isEmpty()) {
+            sender.sendMessage(Component.text("Unknown player: " + playerName, NamedTextColor.RED));
+            return;
+        }
+        if (!dryRun && rollbacks.isRunning()) {
+            sender.sendMessage(Component.text("Another rollback is still running.", NamedTextColor.RED));
+            return;
+        }
+        readPool.submit(sender, ctx -> {
+            sender.sendMessage(Component.text("Planning rollback of " + playerName + "...", NamedTextColor.YELLOW));
+            List<LogRow> rows = new ArrayList<>();
+            LogRow last = null;
+            while (true) {
+                LogQuery query = new LogQuery().players(uuids).local()
+                        .actions(Set.of(LogAction.BLOCK_BREAK.name(), LogAction.BLOCK_PLACE.name()))
+                        .between(since, Long.MAX_VALUE).limit(ROLLBACK_PAGE);
+                if (last != null) query.before(last.timestamp(), last.id());
+                List<LogRow> page = storage.read(ctx, plan(query));
+                rows.addAll(page);
+                if (rows.size() > maxRollbackBlocks) {
+                    sender.sendMessage(Component.text("Too many block changes (over " + maxRollbackBlocks +
+                            "), use a shorter time range.", NamedTextColor.RED));
+                    return;
                 }
-            } catch (SQLException e) {
-                sender.sendMessage(Component.text("Query error: " + e.getMessage(), NamedTextColor.RED));
+                if (page.size() < ROLLBACK_PAGE) break;
+                last = page.get(page.size() - 1);
             }
+            RollbackPlan rollback = RollbackPlan.rollback(rows);
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                if (dryRun) rollbacks.preview(sender, rollback, "Rollback");
+                else rollbacks.rollback(sender, rollback);
+            });
         });
     }
 
-    private void printResultSet(CommandSender sender, ResultSet rs, boolean hideUuid) throws SQLException {
-        int count = 0;
-        while (rs.next()) {
-            long timestamp = rs.getLong("time_stamp");
-            String pName = rs.getString("player_name");
-            String pUuid = rs.getString("player_uuid");
-            String act = rs.getString("action");
-            String det = rs.getString("details");
-            String w = rs.getString("world");
-            int x = rs.getInt("x");
-            int y = rs.getInt("y");
-            int z = rs.getInt("z");
+    /**
+     * 撤销该管理员最近一次回滚 (主线程)
+     */
+    public void restore(CommandSender sender, boolean dryRun) {
+        rollbacks.restore(sender, dryRun);
+    }
+
+    /**
+     * 中断正在执行的回滚或还原
+     */
+    public boolean cancelRollback(CommandSender sender) {
+        return rollbacks.cancel(sender);
+    }
 
-            String timeStr = timeFormat.format(new Date(timestamp));
-            String locStr = String.format("[w:%s x:%d y:%d z:%d]", w, x, y, z);
-            String uuidPart = hideUuid ? "" : (" " + pUuid);
+    /**
+     * 中断该管理员正在执行的查询
+     */
+    public boolean cancelQuery(CommandSender sender) {
+        return readPool.cancel(sender);
+    }
 
-            String msg = String.format("[%s] [%s]%s | %s | %s | Loc: %s",
-                    timeStr, pName, uuidPart, act, det, locStr);
+    private void printRows(CommandSender sender, List<LogRow> rows, boolean hideUuid) {
+        printRows(sender, rows, hideUuid, 1, null);
+    }
 
-            sender.sendMessage(Component.text(msg, NamedTextColor.GRAY));
-            count++;
+    /**
+     * 把一页结果拼成一条消息，在主线程上一次发送；nextCommand 不为空时附带可点击的下一页
+     */
+    private void printRows(CommandSender sender, List<LogRow> rows, boolean hideUuid, int page, String nextCommand) {
+        TextComponent.Builder message = Component.text();
+        StringBuilder line = new StringBuilder(160);
+        for (LogRow row : rows) {
+            line.setLength(0);
+            line.append('[').append(timeFormat.format(Instant.ofEpochMilli(row.timestamp()))).append("] [")
+                    .append(row.playerName()).append(']');
+            if (!hideUuid) line.append(' ').append(row.playerUuid());
+            line.append(" | ").append(row.action()).append(" | ").append(row.details())
+                    .append(" | Loc: [w:").append(row.world()).append(" x:").append(row.x())
+                    .append(" y:").append(row.y()).append(" z:").append(row.z()).append(']');
+            message.append(Component.text(line.toString(), NamedTextColor.GRAY)).appendNewline();
+        }
+        if (rows.isEmpty()) {
+            message.append(Component.text("No records found.", NamedTextColor.RED));
+        } else {
+            message.append(Component.text("Shown " + rows.size() + " records" + (page > 1 ? " (page " + page + ")." : "."), NamedTextColor.GREEN));
         }
-        if (count == 0) {
-            sender.sendMessage(Component.text("No records found.", NamedTextColor.RED));
+        if (nextCommand != null) {
+            message.append(Component.text(" [Next page]", NamedTextColor.AQUA)
+                    .clickEvent(ClickEvent.runCommand(nextCommand))
+                    .hoverEvent(HoverEvent.showText(Component.text(nextCommand))));
+        }
+        deliver(sender, message.build());
+    }
+
+    /**
+     * 查询线程上的结果交回主线程发送
+     */
+    private void deliver(CommandSender sender, Component message) {
+        if (Bukkit.isPrimaryThread()) {
+            sender.sendMessage(message);
         } else {
-            sender.sendMessage(Component.text("Shown " + count + " records.", NamedTextColor.GREEN));
+            plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+        }
+    }
+
+    /**
+     * 运行指标：/stalk stats 显示，定期输出到文件时也用同样的内容
+     */
+    public List<String> statsReport() {
+        List<String> lines = new ArrayList<>();
+        long uptime = System.currentTimeMillis() - metrics.getStartedAt();
+        lines.add(String.format("Uptime: %dh %dm", uptime / 3_600_000, uptime / 60_000 % 60));
+        lines.add(String.format("Queue: %d / %d pending, %d dropped", buffer.size(), buffer.capacity(),
+                buffer.getDroppedCounts().values().stream().mapToLong(Long::longValue).sum()));
+        lines.add(String.format("Writer: %.1f events/s, %d written, batch size p50 %s p99 %s",
+                storage.getEventsPerSecond(), storage.getTotalWritten(),
+                count(metrics.batchSize.snapshot(), 0.5), count(metrics.batchSize.snapshot(), 0.99)));
+        lines.add("Commit latency: " + latency(metrics.commitNanos.snapshot()));
+        lines.add("Query latency: " + latency(metrics.queryNanos.snapshot()) + ", " + readPool.getActiveQueries() + " running");
+        lines.add("Listener time per tick: " + latency(metrics.tickNanos.snapshot()));
+        lines.add(String.format("Block cache: %d blocks, %s", blockCache.size(), bytes(blockCache.getEstimatedBytes())));
+        lines.add(storage.describe());
+
+        double[] rates = metrics.ratesPerSecond();
+        Map<LogAction, Long> drops = buffer.getDroppedCounts();
+        StringBuilder sb = new StringBuilder("Events/s (last minute):");
+        for (LogAction action : LogAction.values()) {
+            long total = metrics.getTotal(action);
+            if (total == 0) continue;
+            sb.append(String.format(" %s %.1f", action.name(), rates[action.ordinal()]));
+            Long dropped = drops.get(action);
+            if (dropped != null) sb.append(" (").append(dropped).append(" dropped)");
+            sb.append(',');
         }
+        if (sb.charAt(sb.length() - 1) == ',') sb.setLength(sb.length() - 1);
+        lines.add(sb.toString());
+        return lines;
+    }
+
+    public void sendStats(CommandSender sender) {
+        sender.sendMessage(Component.text("Stalk stats:", NamedTextColor.YELLOW));
+        for (String line : statsReport()) {
+            sender.sendMessage(Component.text(line, NamedTextColor.GRAY));
+        }
+    }
+
+    private static String count(Metrics.Histogram.Snapshot snapshot, double p) {
+        long value = snapshot.percentile(p);
+        return value < 0 ? "-" : Long.toString(value);
+    }
+
+    private static String latency(Metrics.Histogram.Snapshot snapshot) {
+        if (snapshot.total() == 0) return "no samples";
+        return String.format("p50 %.2fms p99 %.2fms max %.2fms (%d samples)",
+                snapshot.percentile(0.5) / 1e6, snapshot.percentile(0.99) / 1e6, snapshot.max() / 1e6, snapshot.total());
+    }
+
+    static String bytes(long bytes) {
+        if (bytes < 1024 * 1024) return (bytes / 1024) + " KB";
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / 1048576.0);
+        return String.format("%.2f GB", bytes / 1073741824.0);
     }
 
     public void shutdown() {
-        ioExecutor.submit(() -> {
-            try {
-                if (connection != null && !connection.isClosed()) connection.close();
-            } catch (SQLException e) { e.printStackTrace(); }
-        });
+        // 回滚出错不能影响后面写完队列和写入溢出文件
+        try {
+            rollbacks.shutdown();
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Failed to stop the running rollback: " + e);
+        }
+        readPool.shutdown();
+        long deadline = System.currentTimeMillis() + drainMillis;
+        // 存储仍在初始化时等它结束，但总共不超过时限；来不及启动的写入线程不会再启动
         ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        storage.shutdown(Math.max(1, deadline - System.currentTimeMillis()));
+        backlog.close();
+        plugin.getLogger().info("Log writer stopped, " + storage.getTotalWritten() + " events written this session.");
+        Map<LogAction, Long> drops = buffer.getDroppedCounts();
+        if (!drops.isEmpty()) {
+            plugin.getLogger().warning("Events dropped by the log queue this session: " + drops);
+        }
+    }
+
+    /**
+     * 每个动作因队列溢出被丢弃的事件数
+     */
+    public Map<LogAction, Long> getDroppedCounts() {
+        return buffer.getDroppedCounts();
+    }
+
+    public PlayerDirectory getPlayerDirectory() {
+        return directory;
     }
 }
@@ -0,0 +1,315 @@
+package org.krnl.stalk.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 日志查询条件，列名对应 logs 视图的列
+ */
+public final class LogQuery {
+
+    /**
+     * 分区上可用的索引，由 LogManager 按条件组合选定；为 null 时交给 SQLite 自己选择
+     */
+    enum Index {
+        PLAYER, ACTION, TIME, COORDS, CHUNK
+    }
+
+    String playerPattern;
+    List<String> playerUuids;
+    Set<String> includedActions = Set.of();
+    Set<String> excludedActions = Set.of();
+    String world;
+    int x;
+    int y;
+    int z;
+    boolean exactBlock;
+    boolean area;
+    int radius;
+    long since = Long.MIN_VALUE;
+    long until = Long.MAX_VALUE;
+    int limit = 20;
+    // 分页游标：只取排在 (beforeTimestamp, beforeId) 之后 (更旧) 的记录
+    long beforeTimestamp = Long.MAX_VALUE;
+    long beforeId;
+    Index index;
+    // 全文搜索的文本，不为 null 时结果按相关度而不是时间排序
+    String text;
+    // 共享数据库 (JDBC 后端) 中只查本服的记录；位置查询总是只查本服
+    boolean local;
+
+    // 由 LogReader 在查询线程上解析：玩家 UUID、动作名对应的字典 id，区域查询的世界 id
+    List<Integer> playerIds = List.of();
+    List<Integer> actionIds = List.of();
+    int worldId = -1;
+
+    /**
+     * 玩家名前缀匹配。与 players() 同时使用时，只用于尚未迁移的旧表
+     */
+    public LogQuery player(String namePrefix) {
+        this.playerPattern = namePrefix + "%";
+        return this;
+    }
+
+    /**
+     * 按 UUID 匹配玩家 (包括改名前的记录)
+     */
+    public LogQuery players(Collection<UUID> uuids) {
+        this.playerUuids = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            playerUuids.add(uuid.toString());
+        }
+        return this;
+    }
+
+    /**
+     * 只要这些动作，为空时不限制
+     */
+    public LogQuery actions(Set<String> actions) {
+        this.includedActions = actions;
+        return this;
+    }
+
+    /**
+     * 在文本动作 (聊天、命令等) 的内容中搜索，空格分隔的每个词都要出现
+     */
+    public LogQuery text(String text) {
+        this.text = text;
+        return this;
+    }
+
+    /**
+     * 只查本服的记录，多个服务器共用数据库时才有区别
+     */
+    public LogQuery local() {
+        this.local = true;
+        return this;
+    }
+
+    public LogQuery excludeActions(Set<String> actions) {
+        this.excludedActions = actions;
+        return this;
+    }
+
+    public LogQuery block(String world, int x, int y, int z) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.exactBlock = true;
+        return this;
+    }
+
+    /**
+     * 以 (x, z) 为中心、水平半径 radius 的方形区域，包含所有高度
+     */
+    public LogQuery area(String world, int x, int z, int radius) {
+        this.world = world;
+        this.x = x;
+        this.z = z;
+        this.radius = radius;
+        this.area = true;
+        return this;
+    }
+
+    /**
+     * 时间范围 [since, until)，毫秒时间戳
+     */
+    public LogQuery between(long since, long until) {
+        this.since = since;
+        this.until = until;
+        return this;
+    }
+
+    /**
+     * 键集分页：从上一页最后一条记录之后继续，按 (time_stamp, id) 定位，不使用 OFFSET
+     */
+    public LogQuery before(long timestamp, long id) {
+        this.beforeTimestamp = timestamp;
+        this.beforeId = id;
+        return this;
+    }
+
+    boolean hasCursor() {
+        return beforeTimestamp != Long.MAX_VALUE;
+    }
+
+    /**
+     * 有结束时间或分页游标时，时间戳 (最后一步) 越过上界的压缩轨迹要单独取回，见 where 的 overlap
+     */
+    boolean hasUpperBound() {
+        return until != Long.MAX_VALUE || hasCursor();
+    }
+
+    /**
+     * 普通记录的时间上界 (不含)：结束时间和分页游标中较早的一个
+     */
+    long upperBound() {
+        return Math.min(until, hasCursor() ? beforeTimestamp + 1 : Long.MAX_VALUE);
+    }
+
+    /**
+     * 按整条轨迹粗筛时用的结束时间：轨迹前面的步骤最多比时间戳早 MAX_SPAN_MILLIS
+     */
+    long trackUntil() {
+        return until == Long.MAX_VALUE ? until : until + TrajectoryBuffer.MAX_SPAN_MILLIS;
+    }
+
+    LogQuery using(Index index) {
+        this.index = index;
+        return this;
+    }
+
+    public LogQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * 生成 WHERE 条件并按顺序收集参数，没有条件时返回 "1 = 1"
+     */
+    String where(List<Object> params) {
+        return where(params, false);
+    }
+
+    /**
+     * 同上；partition 为 true 时数据源是带 player_id、chunk_key 列的分区，玩家、动作和区域条件改用整数 id 走索引。
+     * 选定了索引时，其他索引列前加一元 + 号，优化器就只能用选定的那个
+     */
+    String where(List<Object> params, boolean partition) {
+        return where(params, partition, false);
+    }
+
+    /**
+     * overlap 为 true 时把结束时间和分页条件换成它们的补集，并只要上界之后 MAX_SPAN_MILLIS 内的压缩轨迹：
+     * 时间戳 (最后一步) 越过上界的轨迹，前面的步骤仍可能在范围内，由 matches 逐步过滤
+     */
+    String where(List<Object> params, boolean partition, boolean overlap) {
+        StringBuilder sql = new StringBuilder();
+        if (playerUuids != null && partition) {
+            in(and(sql), column("player_id", Index.PLAYER), playerIds, params);
+        } else if (playerUuids != null) {
+            and(sql).append("(");
+            in(sql, "player_uuid", playerUuids, params);
+            if (playerPattern != null) {
+                sql.append(" OR player_name LIKE ?");
+                params.add(playerPattern);
+            }
+            sql.append(")");
+        } else if (playerPattern != null) {
+            and(sql).append("player_name LIKE ?");
+            params.add(playerPattern);
+        }
+        if (!includedActions.isEmpty() && partition) {
+            in(and(sql), column("action_id", Index.ACTION), actionIds, params);
+        } else if (!includedActions.isEmpty()) {
+            in(and(sql), "action", new ArrayList<>(includedActions), params);
+        }
+        if (!excludedActions.isEmpty()) {
+            and(sql).append("action NOT IN (");
+            int i = 0;
+            for (String action : excludedActions) {
+                sql.append(i++ == 0 ? "?" : ", ?");
+                params.add(action);
+            }
+            sql.append(")");
+        }
+        if (exactBlock) {
+            and(sql).append("world = ? AND x = ? AND y = ? AND z = ?");
+            params.add(world);
+            params.add(x);
+            params.add(y);
+            params.add(z);
+        }
+        if (area) {
+            if (partition) {
+                // 每一列区块的 z 在区块键上连续，一列一个范围；精确坐标用 + 号避免优化器改走坐标索引
+                int minChunkZ = (z - radius) >> 4;
+                int maxChunkZ = (z + radius) >> 4;
+                and(sql).append("(");
+                for (int chunkX = (x - radius) >> 4; chunkX <= (x + radius) >> 4; chunkX++) {
+                    if (chunkX != (x - radius) >> 4) sql.append(" OR ");
+                    sql.append("chunk_key BETWEEN ? AND ?");
+                    params.add(Partitions.chunkKey(worldId, chunkX, minChunkZ));
+                    params.add(Partitions.chunkKey(worldId, chunkX, maxChunkZ));
+                }
+                sql.append(") AND +x BETWEEN ? AND ? AND +z BETWEEN ? AND ?");
+            } else {
+                and(sql).append("world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ?");
+                params.add(world);
+            }
+            params.add(x - radius);
+            params.add(x + radius);
+            params.add(z - radius);
+            params.add(z + radius);
+        }
+        if (since != Long.MIN_VALUE) {
+            and(sql).append("time_stamp >= ?");
+            params.add(since);
+        }
+        if (overlap) {
+            and(sql).append("data IS NOT NULL AND time_stamp < ? AND (");
+            params.add(upperBound() + TrajectoryBuffer.MAX_SPAN_MILLIS);
+            if (until != Long.MAX_VALUE) {
+                sql.append("time_stamp >= ?");
+                params.add(until);
+                if (hasCursor()) sql.append(" OR ");
+            }
+            if (hasCursor()) {
+                sql.append("time_stamp > ? OR (time_stamp = ? AND id >= ?)");
+                params.add(beforeTimestamp);
+                params.add(beforeTimestamp);
+                params.add(beforeId);
+            }
+            sql.append(")");
+            return sql.toString();
+        }
+        if (until != Long.MAX_VALUE) {
+            and(sql).append("time_stamp < ?");
+            params.add(until);
+        }
+        if (hasCursor()) {
+            // 单独的 time_stamp <= ? 让优化器直接沿索引定位，不用排序
+            and(sql).append("time_stamp <= ? AND (time_stamp < ? OR (time_stamp = ? AND id < ?))");
+            params.add(beforeTimestamp);
+            params.add(beforeTimestamp);
+            params.add(beforeTimestamp);
+            params.add(beforeId);
+        }
+        return sql.isEmpty() ? "1 = 1" : sql.toString();
+    }
+
+    /**
+     * 对单条记录重新检查时间、分页和位置条件 (压缩轨迹展开后逐步过滤)
+     */
+    boolean matches(long timestamp, long id, int x, int y, int z) {
+        if (timestamp < since || timestamp >= until) return false;
+        if (hasCursor() && (timestamp > beforeTimestamp || (timestamp == beforeTimestamp && id >= beforeId))) return false;
+        if (exactBlock && (this.x != x || this.y != y || this.z != z)) return false;
+        return !area || (Math.abs(x - this.x) <= radius && Math.abs(z - this.z) <= radius);
+    }
+
+    private String column(String name, Index indexed) {
+        return index == null || index == indexed ? name : "+" + name;
+    }
+
+    private static void in(StringBuilder sql, String column, List<?> values, List<Object> params) {
+        if (values.isEmpty()) {
+            sql.append("1 = 0");
+            return;
+        }
+        sql.append(column).append(" IN (");
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+            params.add(values.get(i));
+        }
+        sql.append(")");
+    }
+
+    private static StringBuilder and(StringBuilder sql) {
+        return sql.isEmpty() ? sql : sql.append(" AND ");
+    }
+}
@@ -0,0 +1,311 @@
+package org.krnl.stalk.manager;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * 按分区执行查询：从最新的分区往旧的方向查，凑够 limit 条立即停止，
+ * 与时间范围不相交的分区直接跳过。迁移期间尚未迁移的旧表也会一并查询。
+ * 压缩存储的移动轨迹 (时间戳为最后一步) 在这里展开成逐步的记录，合并的重复事件注明次数，
+ * 以二进制保存的容器改动渲染成文本。已归档的旧分区由 Archives 并行扫描，结果与数据库中的合并。
+ */
+final class LogReader {
+
+    private static final Comparator<LogRow> NEWEST_FIRST =
+            Comparator.comparingLong(LogRow::timestamp).thenComparingLong(LogRow::id).reversed();
+
+    private LogReader() {
+    }
+
+    static List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query) throws SQLException {
+        List<LogRow> rows = readDatabase(ctx, query);
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > query.limit) rows.subList(query.limit, rows.size()).clear();
+        return rows;
+    }
+
+    /**
+     * 数据库和归档文件一起查询；数据库中已凑够 limit 条时，只扫描比其中最旧一条更新的归档
+     */
+    static List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query, Archives archives) throws SQLException, IOException {
+        List<LogRow> rows = readDatabase(ctx, query);
+        rows.sort(NEWEST_FIRST);
+        long threshold = rows.size() >= query.limit ? rows.get(query.limit - 1).timestamp() : Long.MIN_VALUE;
+        rows.addAll(archives.read(ctx, query, threshold));
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > query.limit) rows.subList(query.limit, rows.size()).clear();
+        return rows;
+    }
+
+    private static List<LogRow> readDatabase(ReadPool.QueryContext ctx, LogQuery query) throws SQLException {
+        List<LogRow> rows = new ArrayList<>();
+        Map<Integer, String> materials = new HashMap<>();
+        List<Long> days = Partitions.list(ctx.connection());
+        List<String> pending = Schema.pendingSources(ctx.connection());
+
+        // 先把玩家 UUID、动作名、世界名换成整数 id；一个都没有时分区里不可能有匹配的行
+        if (query.playerUuids != null) {
+            // 迁移期间，旧表中的名字可能还不在内存索引里
+            if (!pending.isEmpty() && query.playerPattern != null) addUuidsByName(ctx, query);
+            query.playerIds = playerIds(ctx, query.playerUuids);
+            if (query.playerIds.isEmpty()) days = List.of();
+        }
+        if (!query.includedActions.isEmpty()) {
+            query.actionIds = actionIds(ctx, query.includedActions);
+            if (query.actionIds.isEmpty()) days = List.of();
+        }
+        if (query.area) {
+            query.worldId = worldId(ctx, query.world);
+            if (query.worldId == -1) days = List.of();
+        }
+
+        // 时间戳越过结束时间或分页游标、但前面的步骤仍在范围内的压缩轨迹要单独取回；
+        // 它们的时间戳在上界之后 MAX_SPAN_MILLIS 内，最多跨两个分区
+        if (query.hasUpperBound()) {
+            long upper = query.upperBound();
+            for (long day : days) {
+                if (day < Partitions.dayOf(upper) || day > Partitions.dayOf(upper + TrajectoryBuffer.MAX_SPAN_MILLIS - 1)) continue;
+                readSource(ctx, Partitions.select(Partitions.tableName(day), true), query, true, true, Integer.MAX_VALUE,
+                        materials, rows);
+            }
+        }
+
+        int found = rows.size();
+        for (int i = days.size() - 1; i >= 0 && rows.size() - found < query.limit; i--) {
+            long start = days.get(i) * Partitions.DAY_MILLIS;
+            if (start >= query.until || start + Partitions.DAY_MILLIS <= query.since || start > query.beforeTimestamp) continue;
+            readSource(ctx, Partitions.select(Partitions.tableName(days.get(i)), true), query, true, false,
+                    query.limit - (rows.size() - found), materials, rows);
+        }
+
+        for (String source : pending) {
+            readSource(ctx, Schema.sourceSelect(source), query, false, false, query.limit, materials, rows);
+        }
+        return rows;
+    }
+
+    private record Ranked(double score, LogRow row) {
+    }
+
+    /**
+     * 全文搜索：逐个分区在全文索引中按相关度 (bm25) 取前 limit 条，合并后再按相关度排序，相同时新的在前。
+     * 还没补建全文索引的分区、尚未迁移的旧表和归档文件不参与搜索
+     */
+    static List<LogRow> search(ReadPool.QueryContext ctx, LogQuery query) throws SQLException {
+        String match = match(query.text);
+        if (match.isEmpty()) return List.of();
+        if (query.playerUuids != null) {
+            query.playerIds = playerIds(ctx, query.playerUuids);
+            if (query.playerIds.isEmpty()) return List.of();
+        }
+        if (!query.includedActions.isEmpty()) {
+            query.actionIds = actionIds(ctx, query.includedActions);
+            if (query.actionIds.isEmpty()) return List.of();
+        }
+
+        List<Ranked> ranked = new ArrayList<>();
+        Set<Long> indexed = Partitions.listSearch(ctx.connection());
+        List<Long> days = Partitions.list(ctx.connection());
+        for (int i = days.size() - 1; i >= 0; i--) {
+            long day = days.get(i);
+            long start = day * Partitions.DAY_MILLIS;
+            if (!indexed.contains(day) || start >= query.until || start + Partitions.DAY_MILLIS <= query.since) continue;
+            String search = Partitions.searchTableName(day);
+            List<Object> params = new ArrayList<>();
+            params.add(match);
+            String sql = "SELECT s.*, " + search + ".rank AS score FROM " + search +
+                    " JOIN (" + Partitions.select(Partitions.tableName(day), true) + ") s ON s.id = " + search + ".rowid" +
+                    " WHERE " + search + " MATCH ? AND " + query.where(params, true) +
+                    " ORDER BY " + search + ".rank LIMIT ?";
+            try (PreparedStatement pstmt = ctx.prepare(sql)) {
+                int index = 1;
+                for (Object param : params) {
+                    pstmt.setObject(index++, param);
+                }
+                pstmt.setInt(index, query.limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String details = rs.getString("details");
+                        long repeats = rs.getLong("repeats");
+                        if (repeats > 1) {
+                            details = DetailRenderer.repeated(details, repeats, rs.getLong("first_time"), rs.getLong("time_stamp"));
+                        }
+                        ranked.add(new Ranked(rs.getDouble("score"), new LogRow(
+                                rs.getLong("id"),
+                                rs.getLong("time_stamp"),
+                                rs.getString("player_name"),
+                                rs.getString("player_uuid"),
+                                rs.getString("action"),
+                                details,
+                                rs.getString("world"),
+                                rs.getInt("x"),
+                                rs.getInt("y"),
+                                rs.getInt("z"))));
+                    }
+                }
+            }
+        }
+        // bm25 越小越相关
+        ranked.sort(Comparator.comparingDouble(Ranked::score).thenComparing(Ranked::row, NEWEST_FIRST));
+        List<LogRow> rows = new ArrayList<>(Math.min(ranked.size(), query.limit));
+        for (int i = 0; i < ranked.size() && i < query.limit; i++) {
+            rows.add(ranked.get(i).row());
+        }
+        return rows;
+    }
+
+    /**
+     * 把输入的文本换成 FTS5 查询：每个词加引号按字面处理并做前缀匹配，词之间是 AND；
+     * 只有标点的词不会产生任何分词，直接忽略
+     */
+    static String match(String text) {
+        StringBuilder match = new StringBuilder();
+        for (String term : text.trim().split("\\s+")) {
+            if (term.codePoints().noneMatch(Character::isLetterOrDigit)) continue;
+            if (!match.isEmpty()) match.append(' ');
+            match.append('"').append(term.replace("\"", "\"\"")).append("\"*");
+        }
+        return match.toString();
+    }
+
+    private static int worldId(ReadPool.QueryContext ctx, String world) throws SQLException {
+        try (PreparedStatement pstmt = ctx.prepare("SELECT id FROM worlds WHERE name = ?")) {
+            pstmt.setString(1, world);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private static List<Integer> actionIds(ReadPool.QueryContext ctx, Set<String> names) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement pstmt = ctx.prepare("SELECT id FROM actions WHERE name = ?")) {
+            for (String name : names) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void addUuidsByName(ReadPool.QueryContext ctx, LogQuery query) throws SQLException {
+        try (PreparedStatement pstmt = ctx.prepare("SELECT DISTINCT uuid FROM players WHERE name LIKE ?")) {
+            pstmt.setString(1, query.playerPattern);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!query.playerUuids.contains(rs.getString(1))) query.playerUuids.add(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    private static List<Integer> playerIds(ReadPool.QueryContext ctx, List<String> uuids) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        if (uuids.isEmpty()) return ids;
+        StringBuilder sql = new StringBuilder("SELECT id FROM players WHERE uuid IN (");
+        for (int i = 0; i < uuids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        try (PreparedStatement pstmt = ctx.prepare(sql.append(")").toString())) {
+            for (int i = 0; i < uuids.size(); i++) {
+                pstmt.setString(i + 1, uuids.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 从一个来源按时间倒序读取的语句，条件参数依次加入 params，最后一个 ? 是 LIMIT
+     */
+    static String sql(String source, LogQuery query, boolean partition, boolean overlap, List<Object> params) {
+        return "SELECT * FROM (" + source + ") WHERE " + query.where(params, partition, overlap) +
+                " ORDER BY time_stamp DESC, id DESC LIMIT ?";
+    }
+
+    private static void readSource(ReadPool.QueryContext ctx, String source, LogQuery query, boolean partition,
+                                   boolean overlap, int limit, Map<Integer, String> materials,
+                                   List<LogRow> rows) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        try (PreparedStatement pstmt = ctx.prepare(sql(source, query, partition, overlap, params))) {
+            int index = 1;
+            for (Object param : params) {
+                pstmt.setObject(index++, param);
+            }
+            pstmt.setInt(index, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] data = partition ? rs.getBytes("data") : null;
+                    String action = rs.getString("action");
+                    if (data != null && LogAction.CHUNK_MOVE.name().equals(action)) {
+                        expand(rs.getLong("id"), rs.getString("player_name"), rs.getString("player_uuid"), action,
+                                rs.getString("world"), data, query, rows);
+                        continue;
+                    }
+                    if (query.hasCursor() && !query.matches(rs.getLong("time_stamp"), rs.getLong("id"),
+                            rs.getInt("x"), rs.getInt("y"), rs.getInt("z"))) {
+                        continue;
+                    }
+                    String details = rs.getString("details");
+                    if (data != null) {
+                        int[] changes = ContainerDiffCodec.decode(data);
+                        details = DetailRenderer.containerChanges(details, changes, materialNames(ctx, changes, materials));
+                    }
+                    long repeats = partition ? rs.getLong("repeats") : 0;
+                    if (repeats > 1) {
+                        details = DetailRenderer.repeated(details, repeats, rs.getLong("first_time"), rs.getLong("time_stamp"));
+                    }
+                    rows.add(new LogRow(
+                            rs.getLong("id"),
+                            rs.getLong("time_stamp"),
+                            rs.getString("player_name"),
+                            rs.getString("player_uuid"),
+                            action,
+                            details,
+                            rs.getString("world"),
+                            rs.getInt("x"),
+                            rs.getInt("y"),
+                            rs.getInt("z")));
+                }
+            }
+        }
+    }
+
+    /**
+     * 容器改动中用到的材质名称，按 id 从字典表读取并缓存到本次查询结束
+     */
+    private static IntFunction<String> materialNames(ReadPool.QueryContext ctx, int[] changes,
+                                                     Map<Integer, String> materials) throws SQLException {
+        for (int i = 0; i < changes.length; i++) {
+            if (i % 3 == 0 || changes[i] <= 0) continue;
+            int id = changes[i] >>> 8;
+            if (materials.containsKey(id)) continue;
+            try (PreparedStatement pstmt = ctx.prepare("SELECT name FROM materials WHERE id = ?")) {
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    materials.put(id, rs.next() ? rs.getString(1) : null);
+                }
+            }
+        }
+        return materials::get;
+    }
+
+    /**
+     * 把一条压缩轨迹展开成符合条件的逐步记录 (归档文件的扫描也用这里)
+     */
+    static void expand(long id, String playerName, String playerUuid, String action, String world, byte[] data,
+                       LogQuery query, List<LogRow> rows) {
+        for (TrajectoryCodec.Step step : TrajectoryCodec.decode(data)) {
+            if (!query.matches(step.timestamp(), id, step.x(), step.y(), step.z())) continue;
+            rows.add(new LogRow(id, step.timestamp(), playerName, playerUuid, action,
+                    DetailRenderer.chunkMove(step.x(), step.z(), step.toChunkX(), step.toChunkZ()),
+                    world, step.x(), step.y(), step.z()));
+        }
+    }
+}
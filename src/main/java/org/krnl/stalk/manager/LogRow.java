@@ -0,0 +1,8 @@
+package org.krnl.stalk.manager;
+
+/**
+ * 查询结果中的一行，列与 logs 视图相同
+ */
+public record LogRow(long id, long timestamp, String playerName, String playerUuid, String action,
+                     String details, String world, int x, int y, int z) {
+}
@@ -0,0 +1,163 @@
+package org.krnl.stalk.manager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 运行指标：各动作的事件计数、批次大小、提交延迟、查询延迟和监听器每 tick 占用的主线程时间。
+ * 记录只是几次原子加法，统计在 /stalk stats 或定期输出时才计算。
+ * 直方图按分钟轮换，报告的是最近一到两分钟的分布。
+ */
+public final class Metrics {
+
+    private static final int RATE_WINDOW = 60;
+
+    private final LogAction[] actions = LogAction.values();
+    private final LongAdder[] events = new LongAdder[actions.length];
+    // 每秒采样一次的累计计数，环形保存最近 RATE_WINDOW 秒
+    private final long[][] samples = new long[RATE_WINDOW + 1][actions.length];
+    private int sampleCount;
+
+    final Histogram batchSize = new Histogram();
+    final Histogram commitNanos = new Histogram();
+    final Histogram queryNanos = new Histogram();
+    final Histogram tickNanos = new Histogram();
+    private final LongAdder tickListenerNanos = new LongAdder();
+    private final long startedAt = System.currentTimeMillis();
+
+    Metrics() {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new LongAdder();
+        }
+    }
+
+    void event(LogAction action) {
+        events[action.ordinal()].increment();
+    }
+
+    /**
+     * 监听器在主线程上处理一个事件的耗时
+     */
+    void listenerTime(long nanos) {
+        tickListenerNanos.add(nanos);
+    }
+
+    /**
+     * 每 tick 在主线程调用：把本 tick 累计的监听器耗时记入分布
+     */
+    void endTick() {
+        tickNanos.record(tickListenerNanos.sumThenReset());
+    }
+
+    /**
+     * 每秒调用一次：记录累计计数，每分钟轮换直方图
+     */
+    synchronized void sample() {
+        long[] slot = samples[sampleCount % samples.length];
+        for (int i = 0; i < events.length; i++) {
+            slot[i] = events[i].sum();
+        }
+        sampleCount++;
+        if (sampleCount % RATE_WINDOW == 0) {
+            batchSize.rotate();
+            commitNanos.rotate();
+            queryNanos.rotate();
+            tickNanos.rotate();
+        }
+    }
+
+    /**
+     * 最近一分钟 (不足一分钟时为已采样的时间) 各动作的每秒事件数
+     */
+    synchronized double[] ratesPerSecond() {
+        double[] rates = new double[actions.length];
+        if (sampleCount < 2) return rates;
+        int span = Math.min(sampleCount - 1, RATE_WINDOW);
+        long[] newest = samples[(sampleCount - 1) % samples.length];
+        long[] oldest = samples[(sampleCount - 1 - span) % samples.length];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = (newest[i] - oldest[i]) / (double) span;
+        }
+        return rates;
+    }
+
+    long getTotal(LogAction action) {
+        return events[action.ordinal()].sum();
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * 对数分桶的直方图：每个 2 的幂区间分 8 个桶，相对误差约 12%。
+     * 当前窗口和上一个窗口合并报告，轮换时丢弃上一个窗口
+     */
+    static final class Histogram {
+
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+        private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+        private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+        void record(long value) {
+            current.incrementAndGet(index(Math.max(0, value)));
+        }
+
+        synchronized void rotate() {
+            previous = current;
+            current = new AtomicLongArray(BUCKETS);
+        }
+
+        /**
+         * 两个窗口合计的样本数和分位数 (p 取 0 到 1)，没有样本时分位数为 -1
+         */
+        Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            AtomicLongArray a = current;
+            AtomicLongArray b = previous;
+            long total = 0;
+            int highest = -1;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = a.get(i) + b.get(i);
+                total += counts[i];
+                if (counts[i] > 0) highest = i;
+            }
+            return new Snapshot(counts, total, highest >= 0 ? value(highest) : -1);
+        }
+
+        private static int index(long value) {
+            if (value < LINEAR) return (int) value;
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * 桶的代表值 (区间中点)
+         */
+        private static long value(int index) {
+            if (index < LINEAR) return index;
+            int exp = (index - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (index - LINEAR) % SUB_BUCKETS;
+            long width = 1L << (exp - 3);
+            return (SUB_BUCKETS + sub) * width + width / 2;
+        }
+
+        record Snapshot(long[] counts, long total, long max) {
+
+            long percentile(double p) {
+                if (total == 0) return -1;
+                long rank = Math.max(1, (long) Math.ceil(p * total));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) return value(i);
+                }
+                return max;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.krnl.stalk.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * 一个版本化的结构升级 (见 Migrations)。分两部分：打开数据库时同步执行的快速部分 (建表、加列、建触发器)，
+ * 和需要扫描已有数据的部分 (补建索引、回填数据)，后者在写入线程上分段执行，不阻塞写入，进度随每段一起提交
+ */
+interface Migration {
+
+    /**
+     * 在后台分段执行的部分
+     */
+    interface Step extends BatchWriter.MaintenanceTask {
+        /**
+         * 当前进度，与这一段的改动在同一事务中保存，停服后从这里继续；没有需要保存的进度时返回 null
+         */
+        String state();
+    }
+
+    /**
+     * 版本号，按从小到大的顺序执行，已发布的版本号不能再改
+     */
+    int version();
+
+    String name();
+
+    /**
+     * 第一次遇到这个版本时在打开数据库时同步执行，不能扫描大表；中途停服会重新执行，必须可以重复执行
+     */
+    default void apply(Connection connection) throws SQLException {
+    }
+
+    /**
+     * 后台部分，state 为上次保存的进度 (第一次为 null)；没有后台部分时返回 null
+     */
+    default Step background(Logger logger, String state) {
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 版本化的结构升级。Schema.init 负责到 v3 (按天分区) 为止的结构，之后的每次升级是一个 Migration，
+ * 执行记录保存在 schema_migrations 表中：每个版本的快速部分只执行一次，后台部分排进写入线程的后台任务，
+ * 完成前每段的进度都会保存，停服后下次启动从保存的进度继续
+ */
+final class Migrations {
+
+    /** 全部升级，按版本号升序 */
+    static final List<Migration> ALL = List.of(new FullTextSearch());
+
+    private Migrations() {
+    }
+
+    /**
+     * v4: 给全文搜索 (/stalk grep) 上线前就存在的分区补建全文索引
+     */
+    private static final class FullTextSearch implements Migration {
+
+        @Override
+        public int version() {
+            return 4;
+        }
+
+        @Override
+        public String name() {
+            return "full-text search index";
+        }
+
+        @Override
+        public Step background(Logger logger, String state) {
+            return new SearchIndexBuilder(logger, state);
+        }
+    }
+
+    /**
+     * 执行尚未执行过的快速部分，返回需要排进写入线程的后台部分 (按版本顺序)
+     */
+    static List<BatchWriter.MaintenanceTask> apply(Logger logger, Connection connection) throws SQLException {
+        Map<Integer, String> unfinished = new HashMap<>();
+        List<Integer> applied = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                    "version INTEGER PRIMARY KEY, " +
+                    "name TEXT NOT NULL, " +
+                    "applied INTEGER NOT NULL, " +
+                    "finished INTEGER, " +
+                    "state TEXT" +
+                    ");");
+            try (ResultSet rs = stmt.executeQuery("SELECT version, finished, state FROM schema_migrations")) {
+                while (rs.next()) {
+                    applied.add(rs.getInt(1));
+                    rs.getLong(2);
+                    if (rs.wasNull()) unfinished.put(rs.getInt(1), rs.getString(3));
+                }
+            }
+        }
+
+        List<BatchWriter.MaintenanceTask> tasks = new ArrayList<>();
+        int latest = Schema.VERSION;
+        for (Migration migration : ALL) {
+            int version = migration.version();
+            latest = Math.max(latest, version);
+            String state = unfinished.get(version);
+            if (!applied.contains(version)) {
+                logger.info("Applying schema migration " + version + " (" + migration.name() + ")");
+                migration.apply(connection);
+                try (PreparedStatement pstmt = connection.prepareStatement(
+                        "INSERT INTO schema_migrations (version, name, applied) VALUES (?, ?, ?)")) {
+                    pstmt.setInt(1, version);
+                    pstmt.setString(2, migration.name());
+                    pstmt.setLong(3, System.currentTimeMillis());
+                    pstmt.executeUpdate();
+                }
+            } else if (!unfinished.containsKey(version)) {
+                continue;
+            }
+
+            Migration.Step step = migration.background(logger, state);
+            if (step == null) {
+                finish(connection, version);
+            } else {
+                tasks.add(new Background(logger, migration, step));
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA user_version=" + latest + ";");
+        }
+        return tasks;
+    }
+
+    private static void finish(Connection connection, int version) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "UPDATE schema_migrations SET finished = ?, state = NULL WHERE version = ?")) {
+            pstmt.setLong(1, System.currentTimeMillis());
+            pstmt.setInt(2, version);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 后台部分：每段执行后在同一事务中保存进度，完成时记下完成时间
+     */
+    private static final class Background implements BatchWriter.MaintenanceTask {
+
+        private final Logger logger;
+        private final Migration migration;
+        private final Migration.Step step;
+
+        Background(Logger logger, Migration migration, Migration.Step step) {
+            this.logger = logger;
+            this.migration = migration;
+            this.step = step;
+        }
+
+        @Override
+        public boolean step(WriteContext ctx) throws SQLException {
+            if (!step.step(ctx)) {
+                finish(ctx.connection(), migration.version());
+                logger.info("Schema migration " + migration.version() + " (" + migration.name() + ") finished.");
+                return false;
+            }
+            try (PreparedStatement pstmt = ctx.connection().prepareStatement(
+                    "UPDATE schema_migrations SET state = ? WHERE version = ?")) {
+                pstmt.setString(1, step.state());
+                pstmt.setInt(2, migration.version());
+                pstmt.executeUpdate();
+            }
+            return true;
+        }
+    }
+}
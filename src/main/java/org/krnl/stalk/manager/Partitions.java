@@ -0,0 +1,440 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * 按天分区的事件表 (events_yyyyMMdd，UTC 日期)。
+ * 静态方法供查询线程使用；实例由写入线程独占，缓存各分区的插入语句。
+ */
+final class Partitions {
+
+    static final long DAY_MILLIS = 86_400_000L;
+    private static final String PREFIX = "events_";
+    // logs 视图只包含最近的这么多个分区：每个分区是一项 UNION ALL，SQLite 默认最多 500 项 (SQLITE_LIMIT_COMPOUND_SELECT)
+    static final int VIEW_PARTITIONS = 400;
+
+    // 区块键：世界 id 占高 16 位，区块 x、z 各偏移 2^23 后占 24 位；同一列区块的 z 连续，便于范围查询
+    private static final long CHUNK_OFFSET = 1L << 23;
+    static final String CHUNK_KEY_SQL = "(world_id << 48) | (((x >> 4) + " + CHUNK_OFFSET + ") << 24) | ((z >> 4) + " + CHUNK_OFFSET + ")";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** 进入全文索引的动作，details 是玩家输入的文本 */
+    static final Set<LogAction> SEARCHABLE = EnumSet.of(LogAction.CHAT, LogAction.COMMAND, LogAction.DEATH_PLAYER);
+
+    private final Map<Long, PreparedStatement> inserts = new HashMap<>();
+    private final List<PreparedStatement> dirty = new ArrayList<>();
+    private final Set<Long> known = new HashSet<>();
+    private Connection connection;
+    // 分区增减后 logs 视图需要重建，由写入线程在批次事务之外完成 (见 refreshView)
+    private boolean viewStale;
+    private long lastDay = Long.MIN_VALUE;
+    private PreparedStatement lastInsert;
+
+    static long dayOf(long timestamp) {
+        return Math.floorDiv(timestamp, DAY_MILLIS);
+    }
+
+    static String tableName(long day) {
+        return PREFIX + LocalDate.ofEpochDay(day).format(NAME_FORMAT);
+    }
+
+    /**
+     * 解析分区表名，不是分区表时返回 -1
+     */
+    static long parseDay(String table) {
+        if (!table.startsWith(PREFIX) || table.length() != PREFIX.length() + 8) return -1;
+        try {
+            return LocalDate.parse(table.substring(PREFIX.length()), NAME_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 列出现有分区，按日期升序
+     */
+    static List<Long> list(Connection connection) throws SQLException {
+        List<Long> days = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE 'events\\_%' ESCAPE '\\'")) {
+            while (rs.next()) {
+                long day = parseDay(rs.getString(1));
+                if (day >= 0) days.add(day);
+            }
+        }
+        Collections.sort(days);
+        return days;
+    }
+
+    static long chunkKey(int worldId, int chunkX, int chunkZ) {
+        return ((long) worldId << 48) | ((chunkX + CHUNK_OFFSET) << 24) | (chunkZ + CHUNK_OFFSET);
+    }
+
+    static String searchTableName(long day) {
+        return tableName(day) + "_fts";
+    }
+
+    static void create(Statement stmt, long day) throws SQLException {
+        String table = tableName(day);
+        // 新分区没有旧记录，直接建全文索引；已有的分区由 SearchIndexBuilder 在后台补建
+        boolean created = !exists(stmt.getConnection(), table);
+        stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                "id INTEGER PRIMARY KEY, " +
+                "time_stamp INTEGER NOT NULL, " +
+                "player_id INTEGER NOT NULL, " +
+                "action_id INTEGER NOT NULL, " +
+                "details TEXT, " +
+                "world_id INTEGER, " +
+                "x INTEGER, " +
+                "y INTEGER, " +
+                "z INTEGER, " +
+                "data BLOB, " +
+                "repeats INTEGER, " +
+                "first_time INTEGER, " +
+                "chunk_key INTEGER GENERATED ALWAYS AS (" + CHUNK_KEY_SQL + ") VIRTUAL" +
+                ");");
+        for (String ddl : indexes(day)) {
+            stmt.execute(ddl);
+        }
+        if (created) createSearch(stmt, day);
+    }
+
+    /**
+     * 建分区的全文索引：FTS5 外部内容表 (文本只在分区中存一份) 和维护它的触发器。
+     * 触发器在插入、删除分区记录的同一个事务中更新索引。只用于还没有记录的新分区，已有记录的分区见 SearchIndexBuilder
+     */
+    static void createSearch(Statement stmt, long day) throws SQLException {
+        createSearchTable(stmt, day);
+        createSearchDeleteTrigger(stmt, day);
+    }
+
+    /**
+     * 建全文索引表和插入触发器：此后新写入的记录自动进入索引，已有的记录由 backfillSearch 分段补上
+     */
+    static void createSearchTable(Statement stmt, long day) throws SQLException {
+        String table = tableName(day);
+        String search = searchTableName(day);
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + search + " USING fts5(details, content='" + table +
+                "', content_rowid='id', tokenize='unicode61 remove_diacritics 2');");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS " + search + "_insert AFTER INSERT ON " + table +
+                " WHEN new." + searchable() + " BEGIN INSERT INTO " + search + "(rowid, details) VALUES (new.id, new.details); END;");
+    }
+
+    /**
+     * 把 id 在 (fromId, toId] 内的已有文本记录写入全文索引
+     */
+    static void backfillSearch(Statement stmt, long day, long fromId, long toId) throws SQLException {
+        stmt.execute("INSERT INTO " + searchTableName(day) + "(rowid, details) SELECT id, details FROM " + tableName(day) +
+                " WHERE id > " + fromId + " AND id <= " + toId + " AND " + searchable() + ";");
+    }
+
+    /**
+     * 建删除触发器。外部内容表删除索引项时必须给出原文，所以要等已有记录全部补进索引后才能建
+     */
+    static void createSearchDeleteTrigger(Statement stmt, long day) throws SQLException {
+        String search = searchTableName(day);
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS " + search + "_delete AFTER DELETE ON " + tableName(day) +
+                " WHEN old." + searchable() + " BEGIN INSERT INTO " + search + "(" + search +
+                ", rowid, details) VALUES ('delete', old.id, old.details); END;");
+    }
+
+    /**
+     * 删除分区的全文索引表和触发器，分区本身保留
+     */
+    static void dropSearch(Statement stmt, long day) throws SQLException {
+        String search = searchTableName(day);
+        stmt.execute("DROP TRIGGER IF EXISTS " + search + "_insert;");
+        stmt.execute("DROP TRIGGER IF EXISTS " + search + "_delete;");
+        stmt.execute("DROP TABLE IF EXISTS " + search + ";");
+    }
+
+    private static String searchable() {
+        StringBuilder actions = new StringBuilder();
+        for (LogAction action : SEARCHABLE) {
+            actions.append(actions.isEmpty() ? "'" : ", '").append(action.name()).append('\'');
+        }
+        return "action_id IN (SELECT id FROM actions WHERE name IN (" + actions + "))";
+    }
+
+    /**
+     * 有全文索引的分区 (包括仍在后台补建的)
+     */
+    static Set<Long> listSearch(Connection connection) throws SQLException {
+        return listSearch(connection, "table", "_fts");
+    }
+
+    /**
+     * 全文索引已补建完成 (有删除触发器) 的分区
+     */
+    static Set<Long> listCompleteSearch(Connection connection) throws SQLException {
+        return listSearch(connection, "trigger", "_fts_delete");
+    }
+
+    private static Set<Long> listSearch(Connection connection, String type, String suffix) throws SQLException {
+        Set<Long> days = new HashSet<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = ? AND name LIKE ? ESCAPE '\\'")) {
+            pstmt.setString(1, type);
+            pstmt.setString(2, "events\\_%" + suffix.replace("_", "\\_"));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    long day = parseDay(name.substring(0, name.length() - suffix.length()));
+                    if (day >= 0) days.add(day);
+                }
+            }
+        }
+        return days;
+    }
+
+    private static boolean exists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * 分区上的全部索引
+     */
+    static List<String> indexes(long day) {
+        String table = tableName(day);
+        return List.of(
+                "CREATE INDEX IF NOT EXISTS idx_" + table + "_player_time ON " + table + "(player_id, time_stamp);",
+                "CREATE INDEX IF NOT EXISTS idx_" + table + "_time ON " + table + "(time_stamp);",
+                "CREATE INDEX IF NOT EXISTS idx_" + table + "_action ON " + table + "(action_id, time_stamp);",
+                // 带上时间，单个方块的历史按索引顺序给出，不用排序
+                "CREATE INDEX IF NOT EXISTS idx_" + table + "_block ON " + table + "(world_id, x, y, z, time_stamp);",
+                "CREATE INDEX IF NOT EXISTS idx_" + table + "_chunk ON " + table + "(chunk_key, time_stamp);");
+    }
+
+    /**
+     * 给旧分区补上后来新增的列 (不重写数据，瞬间完成)
+     */
+    static void addMissingColumns(Connection connection, long day) throws SQLException {
+        String table = tableName(day);
+        boolean hasChunkKey = false;
+        boolean hasData = false;
+        boolean hasRepeats = false;
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA table_xinfo(" + table + ")")) {
+                while (rs.next()) {
+                    if ("chunk_key".equals(rs.getString("name"))) hasChunkKey = true;
+                    if ("data".equals(rs.getString("name"))) hasData = true;
+                    if ("repeats".equals(rs.getString("name"))) hasRepeats = true;
+                }
+            }
+            if (!hasData) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN data BLOB;");
+            }
+            if (!hasRepeats) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN repeats INTEGER;");
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN first_time INTEGER;");
+            }
+            if (!hasChunkKey) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN chunk_key INTEGER GENERATED ALWAYS AS (" + CHUNK_KEY_SQL + ") VIRTUAL;");
+            }
+        }
+    }
+
+    /**
+     * 分区上尚未建立的索引，以及已被取代、需要删除的旧索引
+     */
+    static List<String> missingIndexes(Connection connection, long day) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?")) {
+            pstmt.setString(1, tableName(day));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) existing.add(rs.getString(1));
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (String ddl : indexes(day)) {
+            String name = ddl.substring("CREATE INDEX IF NOT EXISTS ".length(), ddl.indexOf(" ON "));
+            if (!existing.remove(name)) missing.add(ddl);
+        }
+        for (String name : existing) {
+            if (name.startsWith("idx_")) missing.add("DROP INDEX IF EXISTS " + name + ";");
+        }
+        return missing;
+    }
+
+    /**
+     * 把一张规范化事件表 (分区或未分区的 v2 表) 展开成旧版 logs 的列
+     */
+    static String select(String table) {
+        return select(table, false);
+    }
+
+    /**
+     * 同上，分区表可以额外带上 player_id、action_id、chunk_key (范围查询)、data (压缩轨迹) 以及 repeats、first_time (合并的重复事件) 列
+     */
+    static String select(String table, boolean extended) {
+        return "SELECT e.id AS id, e.time_stamp AS time_stamp, p.name AS player_name, p.uuid AS player_uuid, " +
+                "a.name AS action, e.details AS details, w.name AS world, e.x AS x, e.y AS y, e.z AS z" +
+                (extended ? ", e.player_id AS player_id, e.action_id AS action_id, e.chunk_key AS chunk_key, e.data AS data, " +
+                        "e.repeats AS repeats, e.first_time AS first_time " : " ") +
+                "FROM " + table + " e " +
+                "JOIN players p ON p.id = e.player_id " +
+                "JOIN actions a ON a.id = e.action_id " +
+                "LEFT JOIN worlds w ON w.id = e.world_id";
+    }
+
+    /**
+     * 重建 logs 兼容视图：最近 VIEW_PARTITIONS 个分区加上尚未迁移的旧表。
+     * 视图只供外部 SQLite 工具查看，插件自己的查询直接读分区；在保存点中执行，失败时保留原来的视图
+     */
+    static void rebuildView(Connection connection) throws SQLException {
+        List<String> parts = new ArrayList<>();
+        List<Long> days = list(connection);
+        for (long day : days.subList(Math.max(0, days.size() - VIEW_PARTITIONS), days.size())) {
+            parts.add(select(tableName(day)));
+        }
+        for (String source : Schema.pendingSources(connection)) {
+            parts.add(Schema.sourceSelect(source));
+        }
+        String body = parts.isEmpty()
+                ? "SELECT NULL AS id, NULL AS time_stamp, NULL AS player_name, NULL AS player_uuid, NULL AS action, " +
+                "NULL AS details, NULL AS world, NULL AS x, NULL AS y, NULL AS z WHERE 0"
+                : String.join(" UNION ALL ", parts);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SAVEPOINT logs_view;");
+            try {
+                stmt.execute("DROP VIEW IF EXISTS logs;");
+                stmt.execute("CREATE VIEW logs AS " + body + ";");
+            } catch (SQLException e) {
+                stmt.execute("ROLLBACK TO logs_view;");
+                throw e;
+            } finally {
+                stmt.execute("RELEASE logs_view;");
+            }
+        }
+    }
+
+    /**
+     * 标记 logs 视图需要重建 (旧表迁移完成等)
+     */
+    void invalidateView() {
+        viewStale = true;
+    }
+
+    /**
+     * 分区增减后重建 logs 视图。写入线程在批次事务之外调用，失败只影响视图，不影响写入；返回是否执行了重建
+     */
+    boolean refreshView() throws SQLException {
+        if (!viewStale) return false;
+        viewStale = false;
+        rebuildView(connection);
+        return true;
+    }
+
+    /**
+     * 绑定写入连接并读取现有分区
+     */
+    void load(Connection connection) throws SQLException {
+        this.connection = connection;
+        invalidate();
+    }
+
+    /**
+     * 取得该时间所属分区的插入语句，分区不存在时创建
+     */
+    PreparedStatement insertFor(long timestamp) throws SQLException {
+        long day = dayOf(timestamp);
+        if (day == lastDay) return track(lastInsert);
+
+        PreparedStatement insert = inserts.get(day);
+        if (insert == null) {
+            if (known.add(day)) {
+                try (Statement stmt = connection.createStatement()) {
+                    create(stmt, day);
+                }
+                viewStale = true;
+            }
+            insert = connection.prepareStatement("INSERT INTO " + tableName(day) +
+                    " (time_stamp, player_id, action_id, details, world_id, x, y, z, data, repeats, first_time) " +
+                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            inserts.put(day, insert);
+        }
+        lastDay = day;
+        lastInsert = insert;
+        return track(insert);
+    }
+
+    private PreparedStatement track(PreparedStatement insert) {
+        if (!dirty.contains(insert)) dirty.add(insert);
+        return insert;
+    }
+
+    /**
+     * 执行本批次用到的所有分区语句
+     */
+    void executeBatches() throws SQLException {
+        try {
+            for (PreparedStatement insert : dirty) {
+                insert.executeBatch();
+            }
+        } finally {
+            dirty.clear();
+        }
+    }
+
+    /**
+     * 删除整个分区 (保留期过期)
+     */
+    void drop(long day) throws SQLException {
+        forget(day);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + searchTableName(day) + ";");
+            stmt.execute("DROP TABLE IF EXISTS " + tableName(day) + ";");
+        }
+        viewStale = true;
+    }
+
+    /**
+     * 事务回滚后调用：本批次新建的分区可能已不存在
+     */
+    void invalidate() throws SQLException {
+        for (PreparedStatement insert : inserts.values()) {
+            try {
+                insert.clearBatch();
+                insert.close();
+            } catch (SQLException ignored) { }
+        }
+        inserts.clear();
+        dirty.clear();
+        known.clear();
+        lastDay = Long.MIN_VALUE;
+        lastInsert = null;
+        known.addAll(list(connection));
+    }
+
+    private void forget(long day) {
+        known.remove(day);
+        PreparedStatement insert = inserts.remove(day);
+        if (insert != null) {
+            try {
+                insert.close();
+            } catch (SQLException ignored) { }
+        }
+        if (day == lastDay) {
+            lastDay = Long.MIN_VALUE;
+            lastInsert = null;
+        }
+    }
+
+    void close() {
+        for (PreparedStatement insert : inserts.values()) {
+            try {
+                insert.close();
+            } catch (SQLException ignored) { }
+        }
+        inserts.clear();
+    }
+}
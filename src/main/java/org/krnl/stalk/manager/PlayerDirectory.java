@@ -0,0 +1,80 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 玩家名到 UUID 的内存索引，包括改名前用过的名字。
+ * 按小写名字排序，前缀查找只需要一次子区间遍历，不用访问数据库；数据来自 players 表，玩家加入时更新。
+ */
+public final class PlayerDirectory {
+
+    // 小写名字 -> (UUID -> 原始大小写的名字)
+    private final ConcurrentSkipListMap<String, Map<UUID, String>> byName = new ConcurrentSkipListMap<>();
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 从 players 表加载所有见过的 (UUID, 名字)
+     */
+    void load(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT uuid, name FROM players")) {
+            while (rs.next()) {
+                try {
+                    add(UUID.fromString(rs.getString(1)), rs.getString(2));
+                } catch (IllegalArgumentException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * 记录一次 (UUID, 名字)，玩家加入时调用
+     */
+    public void add(UUID uuid, String name) {
+        byName.computeIfAbsent(key(name), k -> new ConcurrentHashMap<>(2)).put(uuid, name);
+    }
+
+    /**
+     * 名字以 prefix 开头 (不区分大小写) 的所有玩家，最多返回 max + 1 个，调用方据此判断是否过多
+     */
+    public Set<UUID> resolve(String prefix, int max) {
+        String from = key(prefix);
+        Set<UUID> uuids = new LinkedHashSet<>();
+        // 完全同名的优先
+        Map<UUID, String> exact = byName.get(from);
+        if (exact != null) uuids.addAll(exact.keySet());
+        for (Map<UUID, String> ids : byName.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            for (UUID uuid : ids.keySet()) {
+                if (uuids.size() > max) return uuids;
+                uuids.add(uuid);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * 用过这个名字 (不区分大小写) 的玩家，不做前缀匹配
+     */
+    public Set<UUID> exact(String name) {
+        Map<UUID, String> ids = byName.get(key(name));
+        return ids == null ? Set.of() : Set.copyOf(ids.keySet());
+    }
+
+    /**
+     * 名字补全，包括离线玩家
+     */
+    public List<String> complete(String prefix, int max) {
+        String from = key(prefix);
+        List<String> names = new ArrayList<>();
+        for (Map<UUID, String> ids : byName.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            if (names.size() >= max) break;
+            ids.values().stream().findFirst().ifPresent(names::add);
+        }
+        return names;
+    }
+}
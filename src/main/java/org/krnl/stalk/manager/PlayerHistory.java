@@ -0,0 +1,73 @@
+package org.krnl.stalk.manager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一个在线玩家最近事件的环形缓冲区，在事件进入写入队列的同时复制一份进来，
+ * 所以还没写入数据库的事件也能查到。槽位按需分配后重复使用，详情在查询时才渲染。
+ * 时间戳不早于 coverage 的该玩家事件都在缓冲区里，更早的需要查数据库。
+ */
+final class PlayerHistory {
+
+    /**
+     * 查询结果：缓冲区中的行 (新的在前)，以及完整覆盖的起始时间
+     */
+    record Snapshot(List<LogRow> rows, long coverage) {
+    }
+
+    private static final Comparator<LogRow> NEWEST_FIRST =
+            Comparator.comparingLong(LogRow::timestamp).reversed();
+
+    private final LogEvent[] slots;
+    private int next;
+    private int count;
+    private long coverage;
+
+    PlayerHistory(int capacity) {
+        this.slots = new LogEvent[Math.max(1, capacity)];
+        this.coverage = System.currentTimeMillis();
+    }
+
+    synchronized void add(LogEvent event) {
+        LogEvent slot = slots[next];
+        if (slot == null) {
+            slot = slots[next] = new LogEvent();
+        } else if (count == slots.length) {
+            coverage = Math.max(coverage, slot.timestamp + 1);
+        }
+        slot.copyFrom(event);
+        next = (next + 1) % slots.length;
+        if (count < slots.length) count++;
+    }
+
+    /**
+     * 取时间范围 [since, until) 内最近 limit 条 (只要 actions 中的动作，为空时不限；跳过被排除的动作)，在调用线程上渲染详情
+     */
+    Snapshot snapshot(int limit, Set<String> actions, Set<String> excludedActions, long since, long until) {
+        List<LogEvent> copies = new ArrayList<>();
+        long from;
+        synchronized (this) {
+            from = coverage;
+            for (int i = 0; i < count; i++) {
+                LogEvent slot = slots[(next - 1 - i + slots.length) % slots.length];
+                if (slot.timestamp < from || slot.timestamp < since || slot.timestamp >= until) continue;
+                if (!actions.isEmpty() && !actions.contains(slot.action.name())) continue;
+                if (excludedActions.contains(slot.action.name())) continue;
+                LogEvent copy = new LogEvent();
+                copy.copyFrom(slot);
+                copies.add(copy);
+            }
+        }
+        List<LogRow> rows = new ArrayList<>(copies.size());
+        for (LogEvent e : copies) {
+            rows.add(new LogRow(0, e.timestamp, e.playerName, e.playerUuid.toString(), e.action.name(),
+                    DetailRenderer.render(e), e.world, e.x, e.y, e.z));
+        }
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > limit) rows.subList(limit, rows.size()).clear();
+        return new Snapshot(rows, from);
+    }
+}
@@ -0,0 +1,277 @@
+package org.krnl.stalk.manager;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.command.CommandSender;
+import org.krnl.stalk.Stalk;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 只读连接池：查询在独立线程和连接上执行，不会阻塞写入线程。
+ * 每个查询有超时，管理员也可以随时中断自己正在执行的查询。
+ */
+public class ReadPool {
+
+    private static final int VALIDATE_SECONDS = 2;
+
+    @FunctionalInterface
+    public interface Query {
+        void run(QueryContext ctx) throws SQLException, IOException;
+    }
+
+    private final Stalk plugin;
+    private final Metrics metrics;
+    private final int size;
+    private final long timeoutMs;
+    private final BlockingQueue<Connection> idle;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final Map<String, QueryContext> running = new ConcurrentHashMap<>();
+    private volatile boolean open;
+    private boolean pooled;
+    // 共享数据库的连接可能被网络或服务端断开，取用前检查并重连
+    private String url;
+    private Properties props;
+    private boolean remote;
+
+    public ReadPool(Stalk plugin, Metrics metrics, int size, long timeoutSeconds) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.size = Math.max(1, size);
+        this.timeoutMs = TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds));
+        this.idle = new ArrayBlockingQueue<>(this.size);
+
+        // SQLite 驱动在本地调用中会占住线程，这里用与连接数相同的平台线程
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.size, r -> {
+            Thread t = new Thread(r, "Stalk-Query-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Stalk-Query-Watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 打开只读连接 (WAL 模式下可与写入线程并发读取)；url 为 null 时查询不使用数据库连接 (段日志后端)
+     */
+    public void open(String url) throws SQLException {
+        pooled = url != null;
+        Properties props = new Properties();
+        props.setProperty("open_mode", "1");
+        for (int i = 0; pooled && i < size; i++) {
+            Connection conn = DriverManager.getConnection(url, props);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA query_only=1;");
+                stmt.execute("PRAGMA busy_timeout=5000;");
+            }
+            // 每个查询在一个读事务中执行，跨多个分区读取时看到同一个快照
+            conn.setAutoCommit(false);
+            idle.add(conn);
+        }
+        open = true;
+    }
+
+    /**
+     * 打开共享数据库 (JDBC 后端) 的只读连接，props 为用户名、密码等连接参数
+     */
+    public void open(String url, Properties props) throws SQLException {
+        this.url = url;
+        this.props = props;
+        this.remote = true;
+        pooled = true;
+        for (int i = 0; i < size; i++) {
+            idle.add(connect());
+        }
+        open = true;
+    }
+
+    private Connection connect() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, props);
+        conn.setReadOnly(true);
+        conn.setAutoCommit(false);
+        return conn;
+    }
+
+    /**
+     * 检查共享数据库的连接，断开的换成新连接；重连失败时保留原连接，错误在查询时报告给管理员
+     */
+    private Connection revalidate(Connection conn) {
+        try {
+            if (conn.isValid(VALIDATE_SECONDS)) return conn;
+            conn.close();
+        } catch (SQLException ignored) { }
+        try {
+            return connect();
+        } catch (SQLException e) {
+            return conn;
+        }
+    }
+
+    /**
+     * 提交一个查询；同一个管理员的上一个未完成查询会被中断
+     */
+    public void submit(CommandSender sender, Query query) {
+        if (!open) {
+            sender.sendMessage(Component.text("Database not connected.", NamedTextColor.RED));
+            return;
+        }
+        QueryContext ctx = new QueryContext(sender);
+        QueryContext previous = running.put(sender.getName(), ctx);
+        if (previous != null && previous.cancel(QueryContext.CANCELLED)) {
+            sender.sendMessage(Component.text("Previous query cancelled.", NamedTextColor.YELLOW));
+        }
+        try {
+            executor.execute(() -> execute(ctx, query));
+        } catch (RejectedExecutionException e) {
+            running.remove(sender.getName(), ctx);
+        }
+    }
+
+    private void execute(QueryContext ctx, Query query) {
+        CommandSender sender = ctx.getSender();
+        Connection conn = pooled ? idle.poll() : null;
+        if (pooled && conn == null) {
+            sender.sendMessage(Component.text("Database not connected.", NamedTextColor.RED));
+            running.remove(sender.getName(), ctx);
+            return;
+        }
+        if (remote) conn = revalidate(conn);
+        ScheduledFuture<?> timer = watchdog.schedule(() -> ctx.cancel(QueryContext.TIMED_OUT), timeoutMs, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            if (!ctx.attach(conn)) return;
+            query.run(ctx);
+        } catch (SQLException | IOException e) {
+            switch (ctx.getState()) {
+                case QueryContext.CANCELLED -> sender.sendMessage(Component.text("Query cancelled.", NamedTextColor.YELLOW));
+                case QueryContext.TIMED_OUT -> sender.sendMessage(Component.text(
+                        "Query timed out after " + timeoutMs / 1000 + "s.", NamedTextColor.RED));
+                default -> {
+                    sender.sendMessage(Component.text("Query error: " + e.getMessage(), NamedTextColor.RED));
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            metrics.queryNanos.record(System.nanoTime() - start);
+            timer.cancel(false);
+            ctx.detach();
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignored) { }
+                idle.offer(conn);
+            }
+            running.remove(sender.getName(), ctx);
+        }
+    }
+
+    /**
+     * 中断该管理员正在执行的查询
+     */
+    public boolean cancel(CommandSender sender) {
+        QueryContext ctx = running.remove(sender.getName());
+        return ctx != null && ctx.cancel(QueryContext.CANCELLED);
+    }
+
+    public int getActiveQueries() {
+        return running.size();
+    }
+
+    public void shutdown() {
+        open = false;
+        for (QueryContext ctx : running.values()) {
+            ctx.cancel(QueryContext.CANCELLED);
+        }
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Connection conn;
+        while ((conn = idle.poll()) != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * 单个查询的执行上下文，负责登记语句以便超时或取消时中断
+     */
+    public static final class QueryContext {
+
+        static final int RUNNING = 0;
+        static final int CANCELLED = 1;
+        static final int TIMED_OUT = 2;
+
+        private final CommandSender sender;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private volatile Connection connection;
+        private volatile Statement current;
+
+        QueryContext(CommandSender sender) {
+            this.sender = sender;
+        }
+
+        public CommandSender getSender() {
+            return sender;
+        }
+
+        public boolean isCancelled() {
+            return state.get() != RUNNING;
+        }
+
+        /**
+         * 在当前连接上准备语句，取消时该语句会被中断
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            if (isCancelled()) throw new SQLException("Query interrupted");
+            PreparedStatement pstmt = connection.prepareStatement(sql);
+            current = pstmt;
+            if (isCancelled()) pstmt.cancel();
+            return pstmt;
+        }
+
+        Connection connection() {
+            return connection;
+        }
+
+        int getState() {
+            return state.get();
+        }
+
+        synchronized boolean attach(Connection conn) {
+            if (isCancelled()) return false;
+            this.connection = conn;
+            return true;
+        }
+
+        private synchronized void detach() {
+            current = null;
+            connection = null;
+        }
+
+        private synchronized boolean cancel(int reason) {
+            if (!state.compareAndSet(RUNNING, reason)) return false;
+            Statement stmt = current;
+            if (stmt != null) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException ignored) { }
+            }
+            return true;
+        }
+    }
+}
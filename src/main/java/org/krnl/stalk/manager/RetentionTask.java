@@ -0,0 +1,111 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 按保留期清理分区：所有动作都过期的分区整表删除；
+ * 只有部分动作过期的分区按动作分段删除 (每段有上限，不会长时间占用写入线程)。
+ */
+final class RetentionTask implements BatchWriter.MaintenanceTask {
+
+    private static final int DELETE_CHUNK = 5000;
+    private static final int VACUUM_PAGES = 2000;
+
+    private final Logger logger;
+    private final int defaultDays;
+    private final Map<LogAction, Integer> actionDays;
+    // 清理结束或失败时调用
+    private final Runnable done;
+
+    // 待处理的工作：整表删除的分区，以及 (分区, 动作) 对
+    private Deque<Long> drops;
+    private final Deque<long[]> purges = new ArrayDeque<>();
+    private int dropped;
+    private long deleted;
+
+    RetentionTask(Logger logger, int defaultDays, Map<LogAction, Integer> actionDays, Runnable done) {
+        this.logger = logger;
+        this.defaultDays = defaultDays;
+        this.actionDays = new EnumMap<>(actionDays);
+        this.done = done;
+    }
+
+    private int daysFor(LogAction action) {
+        return actionDays.getOrDefault(action, defaultDays);
+    }
+
+    @Override
+    public boolean step(WriteContext ctx) throws SQLException {
+        if (drops == null) plan(ctx.connection());
+
+        Long day = drops.poll();
+        if (day != null) {
+            ctx.partitions().drop(day);
+            dropped++;
+            incrementalVacuum(ctx.connection());
+            return true;
+        }
+
+        long[] purge = purges.peek();
+        if (purge != null) {
+            LogAction action = LogAction.values()[(int) purge[1]];
+            String table = Partitions.tableName(purge[0]);
+            int count;
+            try (PreparedStatement pstmt = ctx.connection().prepareStatement("DELETE FROM " + table +
+                    " WHERE rowid IN (SELECT rowid FROM " + table + " WHERE action_id = ? LIMIT " + DELETE_CHUNK + ")")) {
+                pstmt.setInt(1, ctx.dictionary().actionId(action));
+                count = pstmt.executeUpdate();
+            }
+            deleted += count;
+            if (count < DELETE_CHUNK) purges.poll();
+            return true;
+        }
+
+        if (dropped > 0 || deleted > 0) {
+            logger.info("Retention: dropped " + dropped + " partitions, deleted " + deleted + " expired rows.");
+        }
+        done.run();
+        return false;
+    }
+
+    @Override
+    public void failed() {
+        done.run();
+    }
+
+    private void plan(Connection connection) throws SQLException {
+        drops = new ArrayDeque<>();
+        long today = Partitions.dayOf(System.currentTimeMillis());
+
+        // 0 表示永久保留，只要有一个动作永久保留，分区就不能整表删除
+        int maxDays = defaultDays;
+        for (LogAction action : LogAction.values()) {
+            int days = daysFor(action);
+            if (days <= 0 || maxDays <= 0) maxDays = 0;
+            else maxDays = Math.max(maxDays, days);
+        }
+
+        for (long day : Partitions.list(connection)) {
+            long age = today - day;
+            if (maxDays > 0 && age > maxDays) {
+                drops.add(day);
+                continue;
+            }
+            for (LogAction action : LogAction.values()) {
+                int days = daysFor(action);
+                if (days > 0 && age > days) purges.add(new long[]{day, action.ordinal()});
+            }
+        }
+    }
+
+    private void incrementalVacuum(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ");");
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.krnl.stalk.manager;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.krnl.stalk.Stalk;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在主线程上按 tick 时间预算执行回滚计划：区块先异步加载并加上插件票据，加载好的区块逐个应用，
+ * 每 tick 用完预算就停下，留到下一 tick 继续。同一时间只执行一个任务；
+ * 回滚时记下被改动方块的原样，/stalk restore 用它撤销该管理员最近一次回滚
+ */
+final class RollbackEngine {
+
+    private static final int PREVIEW_BLOCKS = 2000;
+
+    private final Stalk plugin;
+    private final long budgetNanos;
+    private final int maxLoading;
+    private final long progressNanos;
+    // 每个管理员最近一次回滚的还原计划
+    private final Map<String, RollbackPlan> undo = new HashMap<>();
+
+    private Job job;
+    private BukkitTask task;
+
+    RollbackEngine(Stalk plugin, long budgetMs, int maxLoading, long progressSeconds) {
+        this.plugin = plugin;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, budgetMs));
+        this.maxLoading = Math.max(1, maxLoading);
+        this.progressNanos = TimeUnit.SECONDS.toNanos(Math.max(1, progressSeconds));
+    }
+
+    /**
+     * 执行中的一个回滚或还原
+     */
+    private final class Job {
+        final CommandSender sender;
+        final String label;
+        final boolean rollback;
+        final int total;
+        final Deque<RollbackPlan.ChunkChanges> pending;
+        final Deque<Loading> loading = new ArrayDeque<>();
+        final List<RollbackPlan.ChunkChanges> reverse = new ArrayList<>();
+        final long started = System.nanoTime();
+        long lastReport = started;
+        int done;
+        int changed;
+        int skipped;
+
+        Job(CommandSender sender, RollbackPlan plan, boolean rollback) {
+            this.sender = sender;
+            this.label = rollback ? "Rollback" : "Restore";
+            this.rollback = rollback;
+            this.total = plan.blocks;
+            this.pending = new ArrayDeque<>(plan.chunks);
+        }
+    }
+
+    /**
+     * 正在加载或应用的区块，index 为下一个要应用的改动
+     */
+    private static final class Loading {
+        final RollbackPlan.ChunkChanges chunk;
+        final World world;
+        final CompletableFuture<Chunk> future;
+        final List<RollbackPlan.Change> reverse = new ArrayList<>();
+        int index;
+
+        Loading(RollbackPlan.ChunkChanges chunk, World world, CompletableFuture<Chunk> future) {
+            this.chunk = chunk;
+            this.world = world;
+            this.future = future;
+        }
+    }
+
+    boolean isRunning() {
+        return job != null;
+    }
+
+    /**
+     * 开始执行回滚计划 (主线程)
+     */
+    void rollback(CommandSender sender, RollbackPlan plan) {
+        start(sender, plan, true);
+    }
+
+    /**
+     * 撤销该管理员最近一次回滚 (主线程)
+     */
+    void restore(CommandSender sender, boolean dryRun) {
+        RollbackPlan plan = undo.get(sender.getName());
+        if (plan == null) {
+            sender.sendMessage(Component.text("Nothing to restore. Run /stalk rollback first.", NamedTextColor.RED));
+            return;
+        }
+        if (dryRun) {
+            preview(sender, plan, "Restore");
+            return;
+        }
+        if (start(sender, plan, false)) undo.remove(sender.getName());
+    }
+
+    private boolean start(CommandSender sender, RollbackPlan plan, boolean rollback) {
+        if (job != null) {
+            sender.sendMessage(Component.text(job.label + " by " + job.sender.getName() + " is still running.", NamedTextColor.RED));
+            return false;
+        }
+        if (plan.blocks == 0) {
+            sender.sendMessage(Component.text("No block changes to apply.", NamedTextColor.RED));
+            return false;
+        }
+        job = new Job(sender, plan, rollback);
+        sender.sendMessage(Component.text(String.format("%s started: %d blocks in %d chunks.",
+                job.label, plan.blocks, plan.chunks.size()), NamedTextColor.YELLOW));
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+        return true;
+    }
+
+    /**
+     * 中断正在执行的任务；已改动的方块仍可用 /stalk restore 撤销
+     */
+    boolean cancel(CommandSender sender) {
+        if (job == null) return false;
+        for (Loading loading : job.loading) {
+            loading.future.cancel(false);
+            release(loading);
+        }
+        finish("cancelled");
+        return true;
+    }
+
+    /**
+     * 只报告计划的规模；管理员在线时把前 PREVIEW_BLOCKS 个改动作为假方块发给他的客户端
+     */
+    void preview(CommandSender sender, RollbackPlan plan, String label) {
+        if (plan.blocks == 0) {
+            sender.sendMessage(Component.text("No block changes to apply.", NamedTextColor.RED));
+            return;
+        }
+        StringBuilder top = new StringBuilder();
+        List<Map.Entry<Material, Integer>> targets = plan.targets();
+        for (int i = 0; i < targets.size() && i < 5; i++) {
+            if (i > 0) top.append(", ");
+            top.append(targets.get(i).getKey().name()).append(" x").append(targets.get(i).getValue());
+        }
+        sender.sendMessage(Component.text(String.format("%s dry run: %d blocks in %d chunks would change. Top: %s",
+                label, plan.blocks, plan.chunks.size(), top), NamedTextColor.YELLOW));
+        if (!(sender instanceof Player player)) return;
+
+        int shown = 0;
+        for (RollbackPlan.ChunkChanges chunk : plan.chunks) {
+            if (!chunk.world().equals(player.getWorld().getName())) continue;
+            for (RollbackPlan.Change change : chunk.changes()) {
+                if (shown >= PREVIEW_BLOCKS) break;
+                BlockData data = change.data() != null ? change.data() : change.target().createBlockData();
+                player.sendBlockChange(new Location(player.getWorld(), change.x(), change.y(), change.z()), data);
+                shown++;
+            }
+        }
+        if (shown > 0) {
+            sender.sendMessage(Component.text("Showing " + shown + " of them client-side; relog or reload chunks to clear.",
+                    NamedTextColor.GRAY));
+        }
+    }
+
+    private void tick() {
+        Job current = job;
+        if (current == null) return;
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+
+        // 为接下来的区块发起异步加载
+        while (current.loading.size() < maxLoading && !current.pending.isEmpty()) {
+            RollbackPlan.ChunkChanges chunk = current.pending.poll();
+            World world = Bukkit.getWorld(chunk.world());
+            if (world == null) {
+                current.skipped += chunk.changes().size();
+                continue;
+            }
+            CompletableFuture<Chunk> future = world.getChunkAtAsync(chunk.chunkX(), chunk.chunkZ()).thenApply(loaded -> {
+                // 应用完之前不让区块卸载
+                loaded.addPluginChunkTicket(plugin);
+                return loaded;
+            });
+            current.loading.add(new Loading(chunk, world, future));
+        }
+
+        // 按顺序应用已加载好的区块
+        for (Iterator<Loading> it = current.loading.iterator(); it.hasNext() && System.nanoTime() < deadline; ) {
+            Loading loading = it.next();
+            if (!loading.future.isDone()) continue;
+            if (loading.future.isCompletedExceptionally()) {
+                current.skipped += loading.chunk.changes().size() - loading.index;
+                it.remove();
+                continue;
+            }
+            List<RollbackPlan.Change> changes = loading.chunk.changes();
+            while (loading.index < changes.size() && System.nanoTime() < deadline) {
+                apply(current, loading, changes.get(loading.index++));
+            }
+            if (loading.index == changes.size()) {
+                finishChunk(current, loading);
+                it.remove();
+            }
+        }
+
+        if (current.pending.isEmpty() && current.loading.isEmpty()) {
+            finish("finished");
+        } else if (start - current.lastReport >= progressNanos) {
+            current.lastReport = start;
+            int processed = current.changed + current.skipped;
+            current.sender.sendMessage(Component.text(String.format("%s: %d/%d blocks (%d%%), %d/%d chunks.",
+                    current.label, processed, current.total, processed * 100L / current.total,
+                    current.done, current.done + current.loading.size() + current.pending.size()), NamedTextColor.GRAY));
+        }
+    }
+
+    private void apply(Job current, Loading loading, RollbackPlan.Change change) {
+        Block block = loading.world.getBlockAt(change.x(), change.y(), change.z());
+        if (!change.matches(block)) {
+            current.skipped++;
+            return;
+        }
+        BlockData before = block.getBlockData();
+        // 不触发物理更新，避免连锁掉落和流体扩散
+        block.setBlockData(change.data() != null ? change.data() : change.target().createBlockData(), false);
+        loading.reverse.add(new RollbackPlan.Change(change.x(), change.y(), change.z(), change.target(), before.getMaterial(), before));
+        current.changed++;
+    }
+
+    private void finishChunk(Job current, Loading loading) {
+        current.done++;
+        if (!loading.reverse.isEmpty()) {
+            current.reverse.add(new RollbackPlan.ChunkChanges(loading.chunk.world(), loading.chunk.chunkX(),
+                    loading.chunk.chunkZ(), loading.reverse));
+        }
+        release(loading);
+    }
+
+    /**
+     * 移除区块票据；取消或加载失败的区块没有加上票据，getNow 会抛出异常，直接跳过
+     */
+    private void release(Loading loading) {
+        if (!loading.future.isDone() || loading.future.isCompletedExceptionally()) return;
+        Chunk chunk = loading.future.getNow(null);
+        if (chunk != null) chunk.removePluginChunkTicket(plugin);
+    }
+
+    private void finish(String state) {
+        Job current = job;
+        job = null;
+        if (task != null) task.cancel();
+        task = null;
+        // 部分完成的区块也要能撤销
+        for (Loading loading : current.loading) {
+            if (!loading.reverse.isEmpty()) {
+                current.reverse.add(new RollbackPlan.ChunkChanges(loading.chunk.world(), loading.chunk.chunkX(),
+                        loading.chunk.chunkZ(), loading.reverse));
+            }
+        }
+        if (current.rollback && !current.reverse.isEmpty()) {
+            undo.put(current.sender.getName(), new RollbackPlan(current.reverse));
+        }
+        double seconds = (System.nanoTime() - current.started) / 1e9;
+        current.sender.sendMessage(Component.text(String.format("%s %s: %d blocks changed, %d skipped in %.1fs.%s",
+                current.label, state, current.changed, current.skipped, seconds,
+                current.rollback && current.changed > 0 ? " Use /stalk restore to undo." : ""), NamedTextColor.GREEN));
+    }
+
+    /**
+     * 插件关闭时停止执行并释放区块票据
+     */
+    void shutdown() {
+        if (job != null) cancel(job.sender);
+    }
+}
@@ -0,0 +1,100 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.util.*;
+
+/**
+ * 回滚计划：按世界、区块分组的方块改动。回滚计划在查询线程上由日志生成，
+ * 还原计划由执行回滚时记下的原方块生成
+ */
+final class RollbackPlan {
+
+    /**
+     * 一个方块的改动：方块当前仍是 expected 时才改成 target (data 不为 null 时用完整的方块数据)，
+     * 被别人改过的方块保持不动。expected 为 null 表示当前应为空气或液体
+     */
+    record Change(int x, int y, int z, Material expected, Material target, BlockData data) {
+
+        boolean matches(Block block) {
+            if (expected == null) return block.isEmpty() || block.isLiquid();
+            return block.getType() == expected;
+        }
+    }
+
+    /**
+     * 同一区块中的改动，执行时一起应用
+     */
+    record ChunkChanges(String world, int chunkX, int chunkZ, List<Change> changes) {
+    }
+
+    final List<ChunkChanges> chunks;
+    final int blocks;
+
+    RollbackPlan(List<ChunkChanges> chunks) {
+        this.chunks = chunks;
+        int count = 0;
+        for (ChunkChanges chunk : chunks) {
+            count += chunk.changes().size();
+        }
+        this.blocks = count;
+    }
+
+    /**
+     * 由一名玩家的 BLOCK_BREAK / BLOCK_PLACE 记录 (按时间从新到旧) 生成回滚计划：
+     * 每个位置恢复到其中最早一条记录之前的状态，前提是方块仍是最新一条记录之后的样子
+     */
+    static RollbackPlan rollback(List<LogRow> rows) {
+        Map<String, Map<Long, Map<Long, Change>>> worlds = new TreeMap<>();
+        for (LogRow row : rows) {
+            if (row.world() == null || row.details() == null) continue;
+            Material material = Material.getMaterial(row.details().split(" \\| ", 2)[0]);
+            if (material == null || !material.isBlock()) continue;
+            boolean broken = LogAction.BLOCK_BREAK.name().equals(row.action());
+            if (!broken && !LogAction.BLOCK_PLACE.name().equals(row.action())) continue;
+
+            Map<Long, Change> chunk = worlds.computeIfAbsent(row.world(), k -> new TreeMap<>())
+                    .computeIfAbsent(chunkKey(row.x() >> 4, row.z() >> 4), k -> new LinkedHashMap<>());
+            long position = blockKey(row.x(), row.y(), row.z());
+            Change newer = chunk.get(position);
+            // 破坏前是该方块，放置前按空气处理 (日志中没有被替换的方块)
+            Material target = broken ? material : Material.AIR;
+            Material expected = newer != null ? newer.expected() : broken ? null : material;
+            chunk.put(position, new Change(row.x(), row.y(), row.z(), expected, target, null));
+        }
+
+        List<ChunkChanges> chunks = new ArrayList<>();
+        for (Map.Entry<String, Map<Long, Map<Long, Change>>> world : worlds.entrySet()) {
+            for (Map.Entry<Long, Map<Long, Change>> chunk : world.getValue().entrySet()) {
+                chunks.add(new ChunkChanges(world.getKey(), (int) (chunk.getKey() >> 32), (int) (long) chunk.getKey(),
+                        new ArrayList<>(chunk.getValue().values())));
+            }
+        }
+        return new RollbackPlan(chunks);
+    }
+
+    /**
+     * 各目标方块的数量，从多到少
+     */
+    List<Map.Entry<Material, Integer>> targets() {
+        Map<Material, Integer> counts = new EnumMap<>(Material.class);
+        for (ChunkChanges chunk : chunks) {
+            for (Change change : chunk.changes()) {
+                counts.merge(change.target(), 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<Material, Integer>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort(Map.Entry.<Material, Integer>comparingByValue().reversed());
+        return sorted;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+}
@@ -0,0 +1,119 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据库结构：玩家、动作、世界存入字典表，事件按天分区存放在 events_yyyyMMdd 表中，只保存整数 id。
+ * logs 视图把最近的分区 (见 Partitions.VIEW_PARTITIONS) 重新拼成旧版的行格式，方便直接用 SQLite 工具查看。
+ */
+public final class Schema {
+
+    /** 1 = 旧版单表 logs，2 = 字典编码单表 events，3 = 按天分区；之后的版本见 Migrations */
+    public static final int VERSION = 3;
+
+    /** 旧版 logs 表改名后的名称 (未规范化的列) */
+    static final String LEGACY_TABLE = "logs_legacy";
+    /** v2 的未分区 events 表改名后的名称 (已规范化的列) */
+    static final String UNPARTITIONED_TABLE = "events_v2";
+
+    private Schema() {
+    }
+
+    /**
+     * 建表并把旧版本的事件表改名，返回仍需在后台迁移到分区中的旧表
+     */
+    public static List<String> init(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // 只对新建的数据库生效，删除分区后可以逐步归还磁盘空间
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL;");
+
+            if ("table".equals(objectType(connection, "logs")) && objectType(connection, LEGACY_TABLE) == null) {
+                stmt.execute("ALTER TABLE logs RENAME TO " + LEGACY_TABLE + ";");
+            }
+            if ("table".equals(objectType(connection, "events")) && objectType(connection, UNPARTITIONED_TABLE) == null) {
+                stmt.execute("ALTER TABLE events RENAME TO " + UNPARTITIONED_TABLE + ";");
+            }
+
+            // players 同时是改名历史：同一个 UUID 的每个名字一行，加入服务器时更新时间
+            stmt.execute("CREATE TABLE IF NOT EXISTS players (" +
+                    "id INTEGER PRIMARY KEY, " +
+                    "uuid TEXT NOT NULL, " +
+                    "name TEXT NOT NULL, " +
+                    "first_seen INTEGER, " +
+                    "last_seen INTEGER, " +
+                    "UNIQUE (uuid, name)" +
+                    ");");
+            if (!hasColumn(connection, "players", "last_seen")) {
+                stmt.execute("ALTER TABLE players ADD COLUMN first_seen INTEGER;");
+                stmt.execute("ALTER TABLE players ADD COLUMN last_seen INTEGER;");
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS actions (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE);");
+            stmt.execute("CREATE TABLE IF NOT EXISTS worlds (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE);");
+            // 容器改动按材质 id 编码，名称只在这里保存一次
+            stmt.execute("CREATE TABLE IF NOT EXISTS materials (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE);");
+            // 名字查找不区分大小写，前缀 LIKE 也能走这个索引
+            stmt.execute("DROP INDEX IF EXISTS idx_players_name;");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_players_name_nocase ON players(name COLLATE NOCASE);");
+
+            // 旧分区补上新增的虚拟列，索引另由后台任务补建
+            for (long day : Partitions.list(connection)) {
+                Partitions.addMissingColumns(connection, day);
+            }
+            Partitions.create(stmt, Partitions.dayOf(System.currentTimeMillis()));
+            Partitions.rebuildView(connection);
+        }
+        return pendingSources(connection);
+    }
+
+    /**
+     * 所有分区上尚未建立的索引
+     */
+    static List<String> missingIndexes(Connection connection) throws SQLException {
+        List<String> missing = new ArrayList<>();
+        for (long day : Partitions.list(connection)) {
+            missing.addAll(Partitions.missingIndexes(connection, day));
+        }
+        return missing;
+    }
+
+    /**
+     * 尚未迁移完的旧表
+     */
+    static List<String> pendingSources(Connection connection) throws SQLException {
+        List<String> sources = new ArrayList<>();
+        if (objectType(connection, LEGACY_TABLE) != null) sources.add(LEGACY_TABLE);
+        if (objectType(connection, UNPARTITIONED_TABLE) != null) sources.add(UNPARTITIONED_TABLE);
+        return sources;
+    }
+
+    /**
+     * 把旧表展开成与 logs 视图相同的列
+     */
+    static String sourceSelect(String source) {
+        if (LEGACY_TABLE.equals(source)) {
+            return "SELECT id, time_stamp, player_name, player_uuid, action, details, world, x, y, z FROM " + LEGACY_TABLE;
+        }
+        return Partitions.select(source);
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+
+    private static String objectType(Connection connection, String name) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT type FROM sqlite_master WHERE name = ?")) {
+            pstmt.setString(1, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * 给升级前就存在的分区补建全文索引 (升级 v4 的后台部分)。每个分区先建索引表和插入触发器，新记录从此自动进入索引；
+ * 已有的记录按 id 每段 CHUNK_IDS 个补进索引，写入照常进行；补完后再建删除触发器。
+ * 补建期间 /stalk grep 只能搜到这个分区已进入索引的记录
+ */
+final class SearchIndexBuilder implements Migration.Step {
+
+    private static final int CHUNK_IDS = 20_000;
+
+    private final Logger logger;
+    private Deque<Long> pending;
+    private int built;
+
+    // 正在补建的分区，-1 表示没有；id 不超过 cursor 和大于 maxId 的记录已在索引中
+    private long day = -1;
+    private long cursor;
+    private long maxId;
+
+    /**
+     * state 为上次停服时正在补建的分区及进度
+     */
+    SearchIndexBuilder(Logger logger, String state) {
+        this.logger = logger;
+        if (state != null) {
+            String[] parts = state.split(":");
+            if (parts.length == 3) {
+                day = Long.parseLong(parts[0]);
+                cursor = Long.parseLong(parts[1]);
+                maxId = Long.parseLong(parts[2]);
+            }
+        }
+    }
+
+    @Override
+    public boolean step(WriteContext ctx) throws SQLException {
+        Connection connection = ctx.connection();
+        if (pending == null) plan(connection);
+
+        // 分区可能在排队期间被保留期或归档任务删除
+        if (day >= 0 && !Partitions.list(connection).contains(day)) day = -1;
+
+        try (Statement stmt = connection.createStatement()) {
+            if (day < 0) {
+                Long next = pending.poll();
+                if (next == null) {
+                    if (built > 0) logger.info("Built full-text indexes for " + built + " partitions.");
+                    return false;
+                }
+                if (!Partitions.list(connection).contains(next)) return true;
+                Partitions.createSearchTable(stmt, next);
+                try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM " + Partitions.tableName(next))) {
+                    maxId = rs.next() ? rs.getLong(1) : 0;
+                }
+                day = next;
+                cursor = 0;
+                return true;
+            }
+
+            long to = Math.min(maxId, cursor + CHUNK_IDS);
+            Partitions.backfillSearch(stmt, day, cursor, to);
+            cursor = to;
+            if (cursor >= maxId) {
+                Partitions.createSearchDeleteTrigger(stmt, day);
+                built++;
+                day = -1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 待补建的分区：没有全文索引的，以及补建到一半但没有保存进度的 (重新建)
+     */
+    private void plan(Connection connection) throws SQLException {
+        pending = new ArrayDeque<>();
+        Set<Long> started = Partitions.listSearch(connection);
+        Set<Long> complete = Partitions.listCompleteSearch(connection);
+        List<Long> days = Partitions.list(connection);
+        try (Statement stmt = connection.createStatement()) {
+            for (long partition : days) {
+                if (complete.contains(partition) || partition == day) continue;
+                if (started.contains(partition)) {
+                    Partitions.dropSearch(stmt, partition);
+                }
+                pending.add(partition);
+            }
+        }
+        if (!pending.isEmpty() || day >= 0) {
+            logger.info("Building full-text indexes for " + (pending.size() + (day >= 0 ? 1 : 0))
+                    + " partitions in the background...");
+        }
+    }
+
+    @Override
+    public String state() {
+        return day < 0 ? null : day + ":" + cursor + ":" + maxId;
+    }
+}
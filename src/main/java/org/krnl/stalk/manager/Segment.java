@@ -0,0 +1,445 @@
+package org.krnl.stalk.manager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 段日志中的一个段文件，整个映射进内存。文件头之后是按写入顺序追加的记录：
+ * 固定 48 字节的记录头 (总长度、校验和、时间、玩家 UUID、坐标、动作) 加上玩家名、世界、详情三个字符串。
+ * 长度字段最后写入，长度为 0 处即数据末尾；启动恢复时校验和不符的记录视为写了一半而截断。
+ * 记录按起始位置分成 64 KB 的块，每块记下时间范围，另有玩家和区域 (64×64 方块) 到块集合的稀疏索引，
+ * 查询只扫描可能命中的块。段封存时索引写入同名 .idx 文件，缺失时重新扫描重建。
+ */
+final class Segment {
+
+    static final int HEADER_SIZE = 1024;
+    static final int RECORD_HEADER = 48;
+    static final int BLOCK_SIZE = 64 * 1024;
+    // 区域索引的格子边长 (方块数的 2 的幂次)
+    static final int REGION_SHIFT = 6;
+
+    private static final long MAGIC = 0x53544C4B53454731L;
+    private static final long INDEX_MAGIC = 0x53544C4B49445831L;
+    private static final int VERSION = 1;
+    private static final int SEALED_OFFSET = 12;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final int CREATED_OFFSET = 24;
+    private static final int ACTIONS_OFFSET = 32;
+
+    final long sequence;
+    final long createdAt;
+    final File file;
+    // 创建段时的动作名表，记录中保存的是表中的序号，不受之后枚举顺序变化的影响
+    final String[] actions;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private volatile boolean sealed;
+    // 查询可见的末尾，每批写完后更新
+    private volatile int committed;
+    // 写入位置，只由写入线程访问
+    private int end;
+    private ByteBuffer scratch;
+    private final CRC32 crc = new CRC32();
+
+    // 稀疏索引，写入线程和查询线程共用，访问时锁住本对象
+    private int blocks;
+    private int[] blockFirst = new int[16];
+    private long[] blockMin = new long[16];
+    private long[] blockMax = new long[16];
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private final Map<UUID, BitSet> players = new HashMap<>();
+    private final Map<Long, BitSet> regions = new HashMap<>();
+
+    private Segment(File file, FileChannel channel, MappedByteBuffer buffer, long sequence, long createdAt,
+                    String[] actions, boolean sealed) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.sequence = sequence;
+        this.createdAt = createdAt;
+        this.actions = actions;
+        this.sealed = sealed;
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%012d.seg", sequence);
+    }
+
+    /**
+     * 新建一个空段。文件按 size 预留但是稀疏的，实际占用随写入增长
+     */
+    static Segment create(File dir, long sequence, long createdAt, int size) throws IOException {
+        File file = new File(dir, fileName(sequence));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            String[] actions = new String[LogAction.values().length];
+            for (LogAction action : LogAction.values()) {
+                actions[action.ordinal()] = action.name();
+            }
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(8, VERSION);
+            buffer.putLong(SEQUENCE_OFFSET, sequence);
+            buffer.putLong(CREATED_OFFSET, createdAt);
+            int pos = ACTIONS_OFFSET;
+            buffer.putShort(pos, (short) actions.length);
+            pos += 2;
+            for (String name : actions) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                buffer.putShort(pos, (short) bytes.length);
+                buffer.put(pos + 2, bytes);
+                pos += 2 + bytes.length;
+            }
+            Segment segment = new Segment(file, channel, buffer, sequence, createdAt, actions, false);
+            segment.end = HEADER_SIZE;
+            segment.committed = HEADER_SIZE;
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开已有的段：封存的只读映射并加载 .idx，未封存的 (上次运行中的当前段) 可写映射并扫描恢复
+     */
+    static Segment open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) throw new IOException("Bad segment size " + size);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) throw new IOException("Not a segment file");
+            boolean sealed = header.get(SEALED_OFFSET) != 0;
+            MappedByteBuffer buffer = channel.map(sealed ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, size);
+
+            int pos = ACTIONS_OFFSET;
+            String[] actions = new String[buffer.getShort(pos)];
+            pos += 2;
+            for (int i = 0; i < actions.length; i++) {
+                byte[] bytes = new byte[buffer.getShort(pos)];
+                buffer.get(pos + 2, bytes);
+                actions[i] = new String(bytes, StandardCharsets.UTF_8);
+                pos += 2 + bytes.length;
+            }
+            Segment segment = new Segment(file, channel, buffer, buffer.getLong(SEQUENCE_OFFSET),
+                    buffer.getLong(CREATED_OFFSET), actions, sealed);
+            if (!sealed || !segment.loadIndex()) segment.recover();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * 段的动作名表与当前版本一致时才能继续追加
+     */
+    boolean hasCurrentActions() {
+        LogAction[] values = LogAction.values();
+        if (actions.length != values.length) return false;
+        for (LogAction action : values) {
+            if (!action.name().equals(actions[action.ordinal()])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 追加一条记录，空间不足时返回 false (由调用方换新段)
+     */
+    boolean append(long timestamp, UUID uuid, int action, int x, int y, int z,
+                   byte[] name, byte[] world, byte[] details) {
+        int length = RECORD_HEADER + 2 + name.length + 2 + world.length + 4 + details.length;
+        if (end + length > buffer.capacity()) return false;
+        if (scratch == null || scratch.capacity() < length) scratch = ByteBuffer.allocate(Math.max(length, 4096));
+        ByteBuffer r = scratch.clear();
+        r.putInt(0).putInt(0).putLong(timestamp)
+                .putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+                .putInt(x).putInt(y).putInt(z).putShort((short) action).putShort((short) 0)
+                .putShort((short) name.length).put(name)
+                .putShort((short) world.length).put(world)
+                .putInt(details.length).put(details);
+        crc.reset();
+        crc.update(r.array(), 8, length - 8);
+        r.putInt(4, (int) crc.getValue());
+
+        int pos = end;
+        // 长度最后写入：读到非零长度时记录必然完整
+        buffer.put(pos + 4, r.array(), 4, length - 4);
+        buffer.putInt(pos, length);
+        index(pos, timestamp, uuid, x, z);
+        end += length;
+        return true;
+    }
+
+    /**
+     * 本批写入的记录对查询可见
+     */
+    void publish() {
+        committed = end;
+    }
+
+    int size() {
+        return committed;
+    }
+
+    void force() {
+        if (!sealed) buffer.force();
+    }
+
+    /**
+     * 不再追加：写出索引文件并在文件头标记已封存
+     */
+    void seal() throws IOException {
+        publish();
+        writeIndex();
+        buffer.put(SEALED_OFFSET, (byte) 1);
+        buffer.force();
+        sealed = true;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * 删除段文件和索引文件；映射在没有查询引用后由 GC 释放
+     */
+    boolean delete() {
+        close();
+        new File(file.getPath() + ".idx").delete();
+        return file.delete();
+    }
+
+    synchronized long getMinTime() {
+        return minTime;
+    }
+
+    synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    static long region(int x, int z) {
+        return ((long) (x >> REGION_SHIFT) << 32) | ((z >> REGION_SHIFT) & 0xFFFFFFFFL);
+    }
+
+    private synchronized void index(int pos, long timestamp, UUID uuid, int x, int z) {
+        int block = (pos - HEADER_SIZE) / BLOCK_SIZE;
+        if (block >= blockFirst.length) {
+            int capacity = Math.max(block + 1, blockFirst.length * 2);
+            blockFirst = Arrays.copyOf(blockFirst, capacity);
+            blockMin = Arrays.copyOf(blockMin, capacity);
+            blockMax = Arrays.copyOf(blockMax, capacity);
+        }
+        for (; blocks <= block; blocks++) {
+            blockFirst[blocks] = -1;
+            blockMin[blocks] = Long.MAX_VALUE;
+            blockMax[blocks] = Long.MIN_VALUE;
+        }
+        if (blockFirst[block] < 0) blockFirst[block] = pos;
+        blockMin[block] = Math.min(blockMin[block], timestamp);
+        blockMax[block] = Math.max(blockMax[block], timestamp);
+        minTime = Math.min(minTime, timestamp);
+        maxTime = Math.max(maxTime, timestamp);
+        players.computeIfAbsent(uuid, k -> new BitSet()).set(block);
+        regions.computeIfAbsent(region(x, z), k -> new BitSet()).set(block);
+    }
+
+    /**
+     * 从头扫描重建索引，遇到长度为 0、越界或校验和不符的记录即为末尾
+     */
+    private void recover() {
+        int pos = HEADER_SIZE;
+        int capacity = buffer.capacity();
+        while (pos + RECORD_HEADER <= capacity) {
+            int length = buffer.getInt(pos);
+            if (length < RECORD_HEADER || pos + length > capacity) break;
+            byte[] body = new byte[length - 8];
+            buffer.get(pos + 8, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) break;
+            index(pos, buffer.getLong(pos + 8), new UUID(buffer.getLong(pos + 16), buffer.getLong(pos + 24)),
+                    buffer.getInt(pos + 32), buffer.getInt(pos + 40));
+            pos += length;
+        }
+        if (!sealed && pos + 4 <= capacity) {
+            // 截断写了一半的记录，后续追加从这里开始
+            buffer.putInt(pos, 0);
+        }
+        end = pos;
+        committed = pos;
+    }
+
+    private synchronized void writeIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file.getPath() + ".idx")))) {
+            out.writeLong(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(committed);
+            out.writeInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                out.writeInt(blockFirst[b]);
+                out.writeLong(blockMin[b]);
+                out.writeLong(blockMax[b]);
+            }
+            out.writeInt(players.size());
+            for (Map.Entry<UUID, BitSet> entry : players.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                writeBits(out, entry.getValue());
+            }
+            out.writeInt(regions.size());
+            for (Map.Entry<Long, BitSet> entry : regions.entrySet()) {
+                out.writeLong(entry.getKey());
+                writeBits(out, entry.getValue());
+            }
+        }
+    }
+
+    private synchronized boolean loadIndex() {
+        File idx = new File(file.getPath() + ".idx");
+        if (!idx.isFile()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            if (in.readLong() != INDEX_MAGIC || in.readInt() != VERSION) return false;
+            int size = in.readInt();
+            int count = in.readInt();
+            blockFirst = new int[Math.max(1, count)];
+            blockMin = new long[blockFirst.length];
+            blockMax = new long[blockFirst.length];
+            for (int b = 0; b < count; b++) {
+                blockFirst[b] = in.readInt();
+                blockMin[b] = in.readLong();
+                blockMax[b] = in.readLong();
+                if (blockFirst[b] >= 0) {
+                    minTime = Math.min(minTime, blockMin[b]);
+                    maxTime = Math.max(maxTime, blockMax[b]);
+                }
+            }
+            blocks = count;
+            for (int i = in.readInt(); i > 0; i--) {
+                players.put(new UUID(in.readLong(), in.readLong()), readBits(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                regions.put(in.readLong(), readBits(in));
+            }
+            end = size;
+            committed = size;
+            return true;
+        } catch (IOException e) {
+            players.clear();
+            regions.clear();
+            blocks = 0;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+            return false;
+        }
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBits(DataInputStream in) throws IOException {
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * 按块从新到旧扫描，把匹配的记录加入 rows。块的候选集合由玩家、区域索引和块的时间范围决定
+     */
+    void scan(ReadPool.QueryContext ctx, SegmentMatcher matcher, List<LogRow> rows) throws IOException {
+        int limit = committed;
+        int count;
+        int[] first;
+        long[] max;
+        BitSet candidates = new BitSet();
+        synchronized (this) {
+            count = blocks;
+            candidates.set(0, count);
+            if (matcher.players != null) candidates.and(union(players, matcher.players));
+            if (matcher.regions != null) candidates.and(union(regions, matcher.regions));
+            for (int b = candidates.nextSetBit(0); b >= 0; b = candidates.nextSetBit(b + 1)) {
+                if (blockFirst[b] < 0 || !matcher.overlaps(blockMin[b], blockMax[b])) candidates.clear(b);
+            }
+            first = Arrays.copyOf(blockFirst, count);
+            max = Arrays.copyOf(blockMax, count);
+        }
+
+        boolean[] allowed = matcher.allowedActions(actions);
+        for (int b = candidates.previousSetBit(count - 1); b >= 0; b = candidates.previousSetBit(b - 1)) {
+            if (max[b] < matcher.threshold()) continue;
+            if (ctx.isCancelled()) throw new InterruptedIOException("Query interrupted");
+            int blockEnd = HEADER_SIZE + (b + 1) * BLOCK_SIZE;
+            for (int pos = first[b]; pos < blockEnd && pos < limit; pos += buffer.getInt(pos)) {
+                LogRow row = read(pos, matcher, allowed);
+                if (row != null) rows.add(row);
+            }
+            matcher.blockDone(rows);
+        }
+    }
+
+    private static <K> BitSet union(Map<K, BitSet> index, Collection<K> keys) {
+        BitSet result = new BitSet();
+        for (K key : keys) {
+            BitSet bits = index.get(key);
+            if (bits != null) result.or(bits);
+        }
+        return result;
+    }
+
+    /**
+     * 先用记录头过滤，只有通过的记录才解码字符串
+     */
+    private LogRow read(int pos, SegmentMatcher matcher, boolean[] allowed) {
+        long timestamp = buffer.getLong(pos + 8);
+        long id = sequence << 32 | pos;
+        int x = buffer.getInt(pos + 32);
+        int y = buffer.getInt(pos + 36);
+        int z = buffer.getInt(pos + 40);
+        if (!matcher.query.matches(timestamp, id, x, y, z)) return null;
+        int action = buffer.getShort(pos + 44);
+        if (action < 0 || action >= allowed.length || !allowed[action]) return null;
+        UUID uuid = new UUID(buffer.getLong(pos + 16), buffer.getLong(pos + 24));
+        if (matcher.players != null && !matcher.players.contains(uuid)) return null;
+
+        int p = pos + RECORD_HEADER;
+        int nameLength = buffer.getShort(p) & 0xFFFF;
+        String name = string(p + 2, nameLength);
+        p += 2 + nameLength;
+        int worldLength = buffer.getShort(p) & 0xFFFF;
+        String world = string(p + 2, worldLength);
+        p += 2 + worldLength;
+        if (!matcher.matches(name, world)) return null;
+        String details = string(p + 4, buffer.getInt(p));
+        if (!matcher.matchesText(details)) return null;
+        return new LogRow(id, timestamp, name, uuid.toString(), actions[action], details, world, x, y, z);
+    }
+
+    private String string(int pos, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
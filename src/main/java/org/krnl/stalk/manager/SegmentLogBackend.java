@@ -0,0 +1,167 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * 段日志后端：事件按写入顺序追加到内存映射的段文件 (见 Segment)，没有 B 树插入和事务提交的开销。
+ * 查询从最新的段往旧的方向扫描，用每段的时间范围和稀疏索引跳过不可能命中的段和块。
+ * 玩家名历史另存在 players.log 中，每次加入追加一行
+ */
+final class SegmentLogBackend implements StorageBackend {
+
+    private final Logger logger;
+    private final File dir;
+    private final File playersFile;
+    private final ReadPool readPool;
+    private final SegmentWriter writer;
+    // 从旧到新，最后一个可能是正在追加的段
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    SegmentLogBackend(Logger logger, File dir, EventRingBuffer buffer, BlockHistoryCache blockCache, Metrics metrics,
+                      ReadPool readPool, int segmentSizeMb, long rollMinutes, int batchSize, long flushIntervalMs) {
+        this.logger = logger;
+        this.dir = dir;
+        this.playersFile = new File(dir, "players.log");
+        this.readPool = readPool;
+        int segmentSize = (int) Math.min(Integer.MAX_VALUE, Math.max(1, segmentSizeMb) * 1024L * 1024);
+        this.writer = new SegmentWriter(logger, buffer, blockCache, metrics, dir, segments, segmentSize,
+                rollMinutes * 60_000, batchSize, flushIntervalMs);
+    }
+
+    @Override
+    public void open(PlayerDirectory directory, Backlog backlog) throws Exception {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        if (files == null) files = new File[0];
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        Segment active = null;
+        for (int i = 0; i < files.length; i++) {
+            Segment segment;
+            try {
+                segment = Segment.open(files[i]);
+            } catch (IOException e) {
+                logger.warning("Skipping unreadable segment " + files[i].getName() + ": " + e.getMessage());
+                continue;
+            }
+            // 只有最后一段可以继续追加，其余未封存的 (上次换段时中断) 现在补上封存
+            if (!segment.isSealed() && (i < files.length - 1 || !segment.hasCurrentActions())) segment.seal();
+            if (!segment.isSealed()) active = segment;
+            segments.add(segment);
+        }
+        loadPlayers(directory);
+        writer.start(active, backlog);
+        readPool.open(null);
+        logger.info("Segment log opened: " + segments.size() + " segments in " + dir.getName() + "/");
+    }
+
+    private void loadPlayers(PlayerDirectory directory) throws IOException {
+        if (!playersFile.isFile()) return;
+        for (String line : Files.readAllLines(playersFile.toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length < 2) continue;
+            try {
+                directory.add(UUID.fromString(parts[0]), parts[1]);
+            } catch (IllegalArgumentException ignored) { }
+        }
+    }
+
+    @Override
+    public List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query) throws IOException {
+        SegmentMatcher matcher = new SegmentMatcher(query);
+        List<LogRow> rows = new ArrayList<>();
+        if (query.playerUuids == null || !matcher.players.isEmpty()) {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Segment segment = segments.get(i);
+                if (!matcher.overlaps(segment.getMinTime(), segment.getMaxTime())) continue;
+                segment.scan(ctx, matcher, rows);
+            }
+        }
+        rows.sort(SegmentMatcher.NEWEST_FIRST);
+        if (rows.size() > query.limit) rows.subList(query.limit, rows.size()).clear();
+        return rows;
+    }
+
+    @Override
+    public void seen(UUID uuid, String name, long time) {
+        writer.addTask(() -> {
+            try (Writer out = Files.newBufferedWriter(playersFile.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(uuid + "\t" + name + "\t" + time + "\n");
+            }
+        });
+    }
+
+    /**
+     * 段日志只能整段删除：一段中最新的记录也超过所有动作中最长的保留期时才删除，
+     * 按动作设置的较短保留期不会提前删除记录
+     */
+    @Override
+    public void retain(int defaultDays, Map<LogAction, Integer> actionDays, Runnable done) {
+        try {
+            deleteExpired(defaultDays, actionDays);
+        } finally {
+            done.run();
+        }
+    }
+
+    private void deleteExpired(int defaultDays, Map<LogAction, Integer> actionDays) {
+        int longest = defaultDays;
+        for (int days : actionDays.values()) {
+            longest = longest <= 0 || days <= 0 ? 0 : Math.max(longest, days);
+        }
+        if (longest <= 0) return;
+        long cutoff = System.currentTimeMillis() - longest * Partitions.DAY_MILLIS;
+        int deleted = 0;
+        for (Segment segment : segments) {
+            if (!segment.isSealed() || segment.getMaxTime() >= cutoff) continue;
+            segments.remove(segment);
+            if (segment.delete()) deleted++;
+            else logger.warning("Failed to delete expired segment " + segment.file.getName());
+        }
+        if (deleted > 0) logger.info("Retention: deleted " + deleted + " expired segments");
+    }
+
+    /**
+     * 封存的段本身就是只读的紧凑文件，不再另行归档
+     */
+    @Override
+    public void archive(int afterDays, Runnable done) {
+        done.run();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return writer.getEventsPerSecond();
+    }
+
+    @Override
+    public long getTotalWritten() {
+        return writer.getTotalWritten();
+    }
+
+    @Override
+    public String describe() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.size();
+        }
+        return String.format("Segment log: %d segments, %s", segments.size(), LogManager.bytes(bytes));
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+        writer.shutdown(timeoutMillis);
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.krnl.stalk.manager;
+
+import java.util.*;
+
+/**
+ * 把 LogQuery 换成段日志扫描用的形式：玩家 UUID 集合、区域格子集合、动作过滤，
+ * 并记录已找到的前 limit 条中最旧的时间，更旧的块和段不必再扫描
+ */
+final class SegmentMatcher {
+
+    static final Comparator<LogRow> NEWEST_FIRST =
+            Comparator.comparingLong(LogRow::timestamp).thenComparingLong(LogRow::id).reversed();
+
+    final LogQuery query;
+    final Set<UUID> players;
+    final Set<Long> regions;
+    private final String namePrefix;
+    // 全文搜索的词 (小写)，没有文本条件时为 null
+    private final String[] terms;
+    private long threshold = Long.MIN_VALUE;
+
+    SegmentMatcher(LogQuery query) {
+        this.query = query;
+        if (query.playerUuids != null) {
+            players = new HashSet<>();
+            for (String uuid : query.playerUuids) {
+                try {
+                    players.add(UUID.fromString(uuid));
+                } catch (IllegalArgumentException ignored) { }
+            }
+        } else {
+            players = null;
+        }
+        // LIKE 模式去掉末尾的 %，只在没有 UUID 条件时使用
+        namePrefix = players == null && query.playerPattern != null
+                ? query.playerPattern.substring(0, query.playerPattern.length() - 1) : null;
+
+        terms = query.text != null ? query.text.toLowerCase(Locale.ROOT).trim().split("\\s+") : null;
+
+        if (query.exactBlock) {
+            regions = Set.of(Segment.region(query.x, query.z));
+        } else if (query.area) {
+            regions = new HashSet<>();
+            for (int rx = (query.x - query.radius) >> Segment.REGION_SHIFT; rx <= (query.x + query.radius) >> Segment.REGION_SHIFT; rx++) {
+                for (int rz = (query.z - query.radius) >> Segment.REGION_SHIFT; rz <= (query.z + query.radius) >> Segment.REGION_SHIFT; rz++) {
+                    regions.add(Segment.region(rx << Segment.REGION_SHIFT, rz << Segment.REGION_SHIFT));
+                }
+            }
+        } else {
+            regions = null;
+        }
+    }
+
+    /**
+     * 按段的动作名表算出每个序号是否符合动作条件
+     */
+    boolean[] allowedActions(String[] actions) {
+        boolean[] allowed = new boolean[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            allowed[i] = (query.includedActions.isEmpty() || query.includedActions.contains(actions[i]))
+                    && !query.excludedActions.contains(actions[i]);
+        }
+        return allowed;
+    }
+
+    /**
+     * 时间范围 [min, max] 内是否可能有符合条件的记录
+     */
+    boolean overlaps(long min, long max) {
+        return max >= query.since && min < query.until && min <= query.beforeTimestamp && max >= threshold;
+    }
+
+    long threshold() {
+        return threshold;
+    }
+
+    boolean matches(String name, String world) {
+        if ((query.exactBlock || query.area) && !query.world.equals(world)) return false;
+        return namePrefix == null || name.regionMatches(true, 0, namePrefix, 0, namePrefix.length());
+    }
+
+    /**
+     * 段日志没有全文索引，文本条件退化为逐条检查 details 是否包含每个词 (不区分大小写)
+     */
+    boolean matchesText(String details) {
+        if (terms == null) return true;
+        String lower = details.toLowerCase(Locale.ROOT);
+        for (String term : terms) {
+            if (!lower.contains(term)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 扫描完一块：够 limit 条后只保留最新的 limit 条，并提高阈值
+     */
+    void blockDone(List<LogRow> rows) {
+        if (rows.size() < query.limit) return;
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > query.limit) rows.subList(query.limit, rows.size()).clear();
+        threshold = rows.get(rows.size() - 1).timestamp();
+    }
+}
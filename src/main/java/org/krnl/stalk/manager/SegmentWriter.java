@@ -0,0 +1,255 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 段日志的写入线程：从环形缓冲区成批取事件，渲染 details 后追加到当前段，
+ * 段写满或超过滚动时间时封存并换新段。每批写完后新记录对查询可见，映射页定期刷到磁盘。
+ * 不做移动轨迹压缩和重复事件合并，每个事件一条记录
+ */
+final class SegmentWriter implements Runnable {
+
+    /**
+     * 在写入线程上执行的小任务 (记录玩家名等)
+     */
+    interface Task {
+        void run() throws IOException;
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_CACHED_NAMES = 10_000;
+
+    private final Logger logger;
+    private final EventRingBuffer buffer;
+    private final BlockHistoryCache blockCache;
+    private final Metrics metrics;
+    private final File dir;
+    private final List<Segment> segments;
+    private final int segmentSize;
+    private final long rollMillis;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final LogEvent[] batch;
+    private final String[] details;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    // 玩家名、世界名的 UTF-8 编码，避免每条记录重新编码
+    private final Map<String, byte[]> encoded = new HashMap<>();
+
+    private volatile Thread thread;
+    private volatile boolean running = true;
+    // 停服时限已到：写完当前批次即退出，剩余事件留在环形缓冲区中
+    private volatile boolean abort;
+    private Backlog backlog;
+    private Segment active;
+    private long lastForce = System.nanoTime();
+
+    // 吞吐统计
+    private final AtomicLong totalWritten = new AtomicLong();
+    private long windowStart = System.nanoTime();
+    private long windowCount;
+    private volatile double eventsPerSecond;
+
+    SegmentWriter(Logger logger, EventRingBuffer buffer, BlockHistoryCache blockCache, Metrics metrics, File dir,
+                  List<Segment> segments, int segmentSize, long rollMillis, int batchSize, long flushIntervalMs) {
+        this.logger = logger;
+        this.buffer = buffer;
+        this.blockCache = blockCache;
+        this.metrics = metrics;
+        this.dir = dir;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.rollMillis = Math.max(60_000, rollMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.batch = new LogEvent[this.batchSize];
+        this.details = new String[this.batchSize];
+        for (int i = 0; i < this.batchSize; i++) {
+            batch[i] = new LogEvent();
+        }
+    }
+
+    /**
+     * 启动写入线程；active 为上次运行未封存、可以继续追加的段，没有时为 null。
+     * backlog 中的事件先于环形缓冲区写入；已经开始关闭时不再启动
+     */
+    synchronized void start(Segment active, Backlog backlog) {
+        if (!running) return;
+        backlog.stop();
+        this.active = active;
+        this.backlog = backlog;
+        this.thread = new Thread(this, "Stalk-Writer");
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            backlog.replay(batch, this::flush, () -> abort);
+            int count = 0;
+            long deadline = 0;
+            while (true) {
+                if (count < batchSize && !abort && buffer.poll(batch[count])) {
+                    if (count == 0) deadline = System.nanoTime() + flushIntervalNanos;
+                    count++;
+                    continue;
+                }
+                boolean stopping = !running;
+                if (count > 0 && (count >= batchSize || stopping || System.nanoTime() - deadline >= 0)) {
+                    flush(count);
+                    count = 0;
+                    continue;
+                }
+                if (stopping && (abort || buffer.isEmpty())) break;
+                if (count == 0) {
+                    recordWritten(0);
+                    if (runTasks()) continue;
+                    if (System.nanoTime() - lastForce >= FORCE_INTERVAL_NANOS) force();
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        } finally {
+            runTasks();
+            force();
+        }
+    }
+
+    private void flush(int count) {
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < count; i++) {
+                LogEvent event = batch[i];
+                details[i] = DetailRenderer.render(event);
+                append(event, details[i]);
+            }
+            if (active != null) active.publish();
+            metrics.commitNanos.record(System.nanoTime() - start);
+            metrics.batchSize.record(count);
+            recordWritten(count);
+            blockCache.addAll(batch, details, count);
+        } catch (IOException e) {
+            logger.warning("Log write error (" + count + " events lost): " + e.getMessage());
+            if (active != null) active.publish();
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i].clear();
+                details[i] = null;
+            }
+        }
+    }
+
+    private void append(LogEvent event, String rendered) throws IOException {
+        byte[] name = encode(event.playerName);
+        byte[] world = encode(event.world);
+        byte[] text = rendered.getBytes(StandardCharsets.UTF_8);
+        int action = event.action.ordinal();
+        if (active != null && event.timestamp - active.createdAt < rollMillis
+                && active.append(event.timestamp, event.playerUuid, action, event.x, event.y, event.z, name, world, text)) {
+            return;
+        }
+        roll();
+        if (!active.append(event.timestamp, event.playerUuid, action, event.x, event.y, event.z, name, world, text)) {
+            throw new IOException("Event too large for a segment (" + text.length + " bytes of details)");
+        }
+    }
+
+    /**
+     * 封存当前段并新建下一段
+     */
+    private void roll() throws IOException {
+        long sequence = 1;
+        if (active != null) {
+            sequence = active.sequence + 1;
+            Segment full = active;
+            active = null;
+            full.seal();
+        } else if (!segments.isEmpty()) {
+            sequence = segments.get(segments.size() - 1).sequence + 1;
+        }
+        active = Segment.create(dir, sequence, System.currentTimeMillis(), segmentSize);
+        segments.add(active);
+        lastForce = System.nanoTime();
+    }
+
+    private byte[] encode(String value) {
+        if (value == null) value = "";
+        byte[] bytes = encoded.get(value);
+        if (bytes == null) {
+            if (encoded.size() >= MAX_CACHED_NAMES) encoded.clear();
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            encoded.put(value, bytes);
+        }
+        return bytes;
+    }
+
+    private void force() {
+        lastForce = System.nanoTime();
+        if (active != null) active.force();
+    }
+
+    private boolean runTasks() {
+        Task task = tasks.poll();
+        if (task == null) return false;
+        for (; task != null; task = tasks.poll()) {
+            try {
+                task.run();
+            } catch (IOException e) {
+                logger.warning("Segment log task failed: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    void addTask(Task task) {
+        tasks.add(task);
+    }
+
+    private void recordWritten(int count) {
+        totalWritten.addAndGet(count);
+        windowCount += count;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            eventsPerSecond = windowCount * 1_000_000_000.0 / elapsed;
+            windowStart = now;
+            windowCount = 0;
+        }
+    }
+
+    /**
+     * 停止接收新批次，在 timeoutMillis 内尽量写完队列剩余事件并刷盘；
+     * 超时则写完当前批次就退出，没写完的事件留在环形缓冲区中由调用方处理
+     */
+    synchronized void shutdown(long timeoutMillis) {
+        running = false;
+        if (thread == null) return;
+        try {
+            thread.join(Math.max(1, timeoutMillis));
+            if (thread.isAlive()) {
+                abort = true;
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    long getTotalWritten() {
+        return totalWritten.get();
+    }
+}
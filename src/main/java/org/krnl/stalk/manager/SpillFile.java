@@ -0,0 +1,441 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * 溢出文件：停服时写入线程没能在时限内写完的事件 (以及初始化期间超出暂存上限的事件，见 Backlog)，
+ * 按原样顺序追加到 spill 目录中的文件，不经过 SQL。下次启动时写入线程先把它们成批重放，再开始处理环形缓冲区。
+ * <p>
+ * 格式: MAGIC, VERSION, 然后逐条记录 [int 长度][字段]。玩家名、世界、动作、材质等短字符串在文件内编号，
+ * 第一次出现时写出全文，之后只写编号；details、文本等长字符串每次写全文
+ */
+final class SpillFile {
+
+    static final String SUFFIX = ".spill";
+    private static final byte[] MAGIC = "STALKSPL".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private SpillFile() {
+    }
+
+    /**
+     * 目录中待重放的溢出文件，从旧到新
+     */
+    static List<File> list(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) return new ArrayList<>();
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * 新溢出文件的路径，文件名按创建时间排序
+     */
+    static File next(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        for (long time = System.currentTimeMillis(); ; time++) {
+            File file = new File(dir, String.format("%016d", time) + SUFFIX);
+            if (!file.exists()) return file;
+        }
+    }
+
+    /**
+     * 依次重放溢出文件：每攒满一批交给 flush，完整重放的文件随即删除，返回重放的事件数。
+     * aborted 为 true 时停下，当前文件中未重放的事件另存为新的溢出文件，与其余文件一起留到下次
+     */
+    static long replay(Logger logger, List<File> files, LogEvent[] batch, IntConsumer flush, BooleanSupplier aborted) {
+        long replayed = 0;
+        for (File file : files) {
+            if (aborted.getAsBoolean()) break;
+            int count = 0;
+            try (Reader reader = new Reader(file)) {
+                while (!aborted.getAsBoolean() && reader.next(batch[count])) {
+                    if (++count == batch.length) {
+                        flush.accept(count);
+                        replayed += count;
+                        count = 0;
+                    }
+                }
+                if (count > 0) {
+                    flush.accept(count);
+                    replayed += count;
+                    count = 0;
+                }
+                if (aborted.getAsBoolean()) keepRest(reader, file.getParentFile());
+            } catch (IOException e) {
+                // 损坏的文件改名留下，避免每次启动都重放一遍
+                logger.warning("Failed to replay spill file " + file.getName() + ", kept as .bad: " + e.getMessage());
+                for (int i = 0; i < count; i++) {
+                    batch[i].clear();
+                }
+                file.renameTo(new File(file.getPath() + ".bad"));
+                continue;
+            }
+            if (!file.delete()) logger.warning("Failed to delete replayed spill file " + file.getName());
+        }
+        return replayed;
+    }
+
+    private static void keepRest(Reader reader, File dir) throws IOException {
+        LogEvent event = new LogEvent();
+        try (Writer writer = new Writer(next(dir))) {
+            while (reader.next(event)) {
+                writer.append(event);
+                event.clear();
+            }
+        }
+    }
+
+    /**
+     * 顺序追加记录；打开时写文件头，关闭时写出缓冲区并刷盘
+     */
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Map<String, Integer> refs = new HashMap<>();
+        private ByteBuffer record = ByteBuffer.allocate(1024);
+        private long count;
+
+        Writer(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            out.put(MAGIC).putInt(VERSION);
+        }
+
+        void append(LogEvent event) throws IOException {
+            record.clear();
+            putLong(event.timestamp);
+            putRef(event.action.name());
+            putUuid(event.playerUuid);
+            putRef(event.playerName);
+            putRef(event.world);
+            putVarInt(zigzag(event.x));
+            putVarInt(zigzag(event.y));
+            putVarInt(zigzag(event.z));
+            putText(event.details);
+            putRef(event.material != null ? event.material.name() : null);
+            putRef(event.item != null ? event.item.name() : null);
+            putVarInt(zigzag(event.amount));
+            putVarInt(zigzag(event.slot));
+            putEnum(event.kind);
+            putEnum(event.subKind);
+            putLong(Double.doubleToRawLongBits(event.damage));
+            putText(event.text);
+            putRef(event.targetName);
+            putUuid(event.target);
+            putRef(event.targetWorld);
+            putVarInt(zigzag(event.tx));
+            putVarInt(zigzag(event.ty));
+            putVarInt(zigzag(event.tz));
+            int[] contents = event.contents;
+            putVarInt(contents == null ? 0 : contents.length + 1);
+            if (contents != null) {
+                for (int value : contents) {
+                    putVarInt(zigzag(value));
+                }
+            }
+            record.flip();
+
+            if (out.remaining() < 4 + record.remaining()) drain();
+            out.putInt(record.remaining());
+            if (out.remaining() >= record.remaining()) {
+                out.put(record);
+            } else {
+                drain();
+                while (record.hasRemaining()) channel.write(record);
+            }
+            count++;
+        }
+
+        long count() {
+            return count;
+        }
+
+        private void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            out.clear();
+        }
+
+        private void ensure(int bytes) {
+            if (record.remaining() >= bytes) return;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+
+        private void putLong(long value) {
+            ensure(8);
+            record.putLong(value);
+        }
+
+        private void putVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                record.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            record.put((byte) value);
+        }
+
+        private void putUuid(UUID uuid) {
+            ensure(17);
+            record.put((byte) (uuid == null ? 0 : 1));
+            if (uuid != null) {
+                record.putLong(uuid.getMostSignificantBits());
+                record.putLong(uuid.getLeastSignificantBits());
+            }
+        }
+
+        /**
+         * 0 表示 null，编号 n 表示第 n 个出现过的字符串，新字符串的编号后面紧跟全文
+         */
+        private void putRef(String value) {
+            if (value == null) {
+                putVarInt(0);
+                return;
+            }
+            Integer id = refs.get(value);
+            if (id != null) {
+                putVarInt(id);
+                return;
+            }
+            id = refs.size() + 1;
+            refs.put(value, id);
+            putVarInt(id);
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void putText(String value) {
+            if (value == null) {
+                putVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            record.put(bytes);
+        }
+
+        private void putBytes(byte[] bytes) {
+            putVarInt(bytes.length);
+            ensure(bytes.length);
+            record.put(bytes);
+        }
+
+        private void putEnum(Enum<?> value) {
+            putRef(value != null ? value.getDeclaringClass().getName() : null);
+            if (value != null) putRef(value.name());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 按顺序读出记录；文件末尾不完整的记录 (写入中途崩溃) 视为结束
+     */
+    static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final List<String> refs = new ArrayList<>();
+        private final Map<String, Class<?>> enums = new HashMap<>();
+        private ByteBuffer record = ByteBuffer.allocate(1024);
+
+        Reader(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            in.flip();
+            try {
+                if (!fill(MAGIC.length + 4)) throw new EOFException();
+                byte[] magic = new byte[MAGIC.length];
+                in.get(magic);
+                int version = in.getInt();
+                if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                    throw new IOException("Not a spill file (version " + version + ")");
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 读出下一条记录到 event，没有更多记录时返回 false。
+         * 动作或材质在当前版本中已不存在的记录被跳过
+         */
+        boolean next(LogEvent event) throws IOException {
+            while (true) {
+                if (!fill(4)) return false;
+                int length = in.getInt();
+                if (length < 0) throw new IOException("Corrupt spill record");
+                if (record.capacity() < length) record = ByteBuffer.allocate(length);
+                record.clear().limit(length);
+                while (record.hasRemaining()) {
+                    if (!in.hasRemaining() && !fill(1)) return false;
+                    int n = Math.min(record.remaining(), in.remaining());
+                    ByteBuffer slice = in.slice(in.position(), n);
+                    record.put(slice);
+                    in.position(in.position() + n);
+                }
+                record.flip();
+                try {
+                    if (decode(event)) return true;
+                } catch (BufferUnderflowException e) {
+                    throw new IOException("Corrupt spill record");
+                }
+                event.clear();
+            }
+        }
+
+        private boolean decode(LogEvent event) throws IOException {
+            event.clear();
+            event.timestamp = record.getLong();
+            String action = getRef();
+            event.playerUuid = getUuid();
+            event.playerName = getRef();
+            event.world = getRef();
+            event.x = unzigzag(getVarInt());
+            event.y = unzigzag(getVarInt());
+            event.z = unzigzag(getVarInt());
+            event.details = getText();
+            String material = getRef();
+            String item = getRef();
+            event.amount = unzigzag(getVarInt());
+            event.slot = unzigzag(getVarInt());
+            event.kind = getEnum();
+            event.subKind = getEnum();
+            event.damage = Double.longBitsToDouble(record.getLong());
+            event.text = getText();
+            event.targetName = getRef();
+            event.target = getUuid();
+            event.targetWorld = getRef();
+            event.tx = unzigzag(getVarInt());
+            event.ty = unzigzag(getVarInt());
+            event.tz = unzigzag(getVarInt());
+            int contents = getVarInt();
+            if (contents > 0) {
+                event.contents = new int[contents - 1];
+                for (int i = 0; i < event.contents.length; i++) {
+                    event.contents[i] = unzigzag(getVarInt());
+                }
+            }
+
+            try {
+                event.action = LogAction.valueOf(action);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            event.material = material != null ? Material.getMaterial(material) : null;
+            event.item = item != null ? Material.getMaterial(item) : null;
+            return (material == null || event.material != null) && (item == null || event.item != null);
+        }
+
+        /**
+         * 保证缓冲区中至少有 bytes 个字节，文件已读完时返回 false
+         */
+        private boolean fill(int bytes) throws IOException {
+            if (in.remaining() >= bytes) return true;
+            in.compact();
+            while (in.position() < bytes) {
+                if (channel.read(in) < 0) {
+                    in.flip();
+                    return false;
+                }
+            }
+            in.flip();
+            return true;
+        }
+
+        private int getVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = record.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Corrupt spill record");
+        }
+
+        private UUID getUuid() {
+            if (record.get() == 0) return null;
+            return new UUID(record.getLong(), record.getLong());
+        }
+
+        private String getRef() throws IOException {
+            int id = getVarInt();
+            if (id == 0) return null;
+            if (id <= refs.size()) return refs.get(id - 1);
+            if (id != refs.size() + 1) throw new IOException("Corrupt spill record");
+            byte[] bytes = new byte[getVarInt()];
+            record.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            refs.add(value);
+            return value;
+        }
+
+        private String getText() throws IOException {
+            int length = getVarInt();
+            if (length == 0) return null;
+            byte[] bytes = new byte[length - 1];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Enum<?> getEnum() throws IOException {
+            String type = getRef();
+            if (type == null) return null;
+            String name = getRef();
+            Class<?> cls = enums.computeIfAbsent(type, k -> {
+                try {
+                    return Class.forName(k, false, SpillFile.class.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    return Void.class;
+                }
+            });
+            if (!cls.isEnum()) return null;
+            try {
+                return Enum.valueOf((Class) cls, name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,108 @@
+package org.krnl.stalk.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * SQLite 后端：按天分区的事件表由 BatchWriter 成批写入，查询见 LogReader。
+ * 旧版本的数据和缺失的索引在写入线程上分段迁移、补建，旧分区可以移到压缩的归档文件 (见 Archives)
+ */
+final class SqliteBackend implements StorageBackend {
+
+    private final Logger logger;
+    private final File dbFile;
+    private final BatchWriter writer;
+    private final ReadPool readPool;
+    private final Archives archives;
+
+    SqliteBackend(Logger logger, File dbFile, BatchWriter writer, ReadPool readPool, Archives archives) {
+        this.logger = logger;
+        this.dbFile = dbFile;
+        this.writer = writer;
+        this.readPool = readPool;
+        this.archives = archives;
+    }
+
+    @Override
+    public void open(PlayerDirectory directory, Backlog backlog) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+
+        List<String> pending;
+        List<String> indexes;
+        List<BatchWriter.MaintenanceTask> migrations;
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            stmt.execute("PRAGMA synchronous=NORMAL;");
+            pending = Schema.init(connection);
+            indexes = Schema.missingIndexes(connection);
+            migrations = Migrations.apply(logger, connection);
+            directory.load(connection);
+            archives.open(Partitions.list(connection));
+        }
+        if (!indexes.isEmpty()) {
+            writer.addMaintenance(new IndexBuilder(logger, indexes));
+        }
+        for (BatchWriter.MaintenanceTask migration : migrations) {
+            writer.addMaintenance(migration);
+        }
+        for (String source : pending) {
+            writer.addMaintenance(new LegacyMigrator(logger, source));
+        }
+        writer.start(url, backlog);
+        readPool.open(url);
+        logger.info("SQLite database initialized successfully.");
+    }
+
+    @Override
+    public List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query) throws SQLException, IOException {
+        if (query.text != null) return LogReader.search(ctx, query);
+        return LogReader.read(ctx, query, archives);
+    }
+
+    @Override
+    public void seen(UUID uuid, String name, long time) {
+        writer.addSighting(uuid, name, time);
+    }
+
+    @Override
+    public void retain(int defaultDays, Map<LogAction, Integer> actionDays, Runnable done) {
+        writer.addMaintenance(new RetentionTask(logger, defaultDays, actionDays, done));
+        archives.retain(defaultDays, actionDays);
+    }
+
+    @Override
+    public void archive(int afterDays, Runnable done) {
+        writer.addMaintenance(new ArchiveTask(logger, archives, afterDays, done));
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return writer.getEventsPerSecond();
+    }
+
+    @Override
+    public long getTotalWritten() {
+        return writer.getTotalWritten();
+    }
+
+    @Override
+    public String describe() {
+        String database = String.format("Database: %s (WAL %s)", LogManager.bytes(dbFile.length()),
+                LogManager.bytes(new File(dbFile.getPath() + "-wal").length()));
+        if (archives.count() == 0) return database;
+        return database + String.format(", archive: %d files, %s", archives.count(), LogManager.bytes(archives.size()));
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+        writer.shutdown(timeoutMillis);
+        archives.shutdown();
+    }
+}
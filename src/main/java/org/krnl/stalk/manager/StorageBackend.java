@@ -0,0 +1,55 @@
+package org.krnl.stalk.manager;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 事件存储后端，由 config.yml 的 storage.backend 选择：按天分区的 SQLite 数据库 (SqliteBackend)、
+ * 内存映射的追加式段日志 (SegmentLogBackend) 或多个服务器共用的数据库 (JdbcBackend)。
+ * 都从同一个环形缓冲区取事件，查询都在 ReadPool 的线程上执行
+ */
+interface StorageBackend {
+
+    /**
+     * 在 IO 线程上打开存储、加载玩家名索引并启动写入线程，此前发布的事件会留在环形缓冲区中。
+     * backlog 为写入线程启动前积压的事件，先于环形缓冲区写入
+     */
+    void open(PlayerDirectory directory, Backlog backlog) throws Exception;
+
+    /**
+     * 在查询线程上执行一次查询，结果按时间从新到旧，最多 limit 条
+     */
+    List<LogRow> read(ReadPool.QueryContext ctx, LogQuery query) throws SQLException, IOException;
+
+    /**
+     * 玩家加入：记录名字历史
+     */
+    void seen(UUID uuid, String name, long time);
+
+    /**
+     * 按保留期清理过期记录，由定时任务调用；清理结束 (包括失败) 后调用 done
+     */
+    void retain(int defaultDays, Map<LogAction, Integer> actionDays, Runnable done);
+
+    /**
+     * 把超过 afterDays 天的数据移到压缩归档，由定时任务调用；结束 (包括失败) 后调用 done，不支持归档的后端直接调用
+     */
+    void archive(int afterDays, Runnable done);
+
+    double getEventsPerSecond();
+
+    long getTotalWritten();
+
+    /**
+     * /stalk stats 中关于存储的一行
+     */
+    String describe();
+
+    /**
+     * 在 timeoutMillis 内尽量写完队列中剩余的事件并关闭，超时未写的事件留在环形缓冲区中
+     */
+    void shutdown(long timeoutMillis);
+}
@@ -0,0 +1,141 @@
+package org.krnl.stalk.manager;
+
+import java.util.*;
+
+/**
+ * 写入线程独占：把每个玩家的 CHUNK_MOVE 事件攒成一段轨迹，
+ * 超过时间窗口、步数上限、换世界、跨日或玩家进出服务器时结束，整段作为一行压缩数据写入。
+ */
+final class TrajectoryBuffer {
+
+    /**
+     * 一段进行中的轨迹
+     */
+    static final class Track {
+        final UUID uuid;
+        final String name;
+        final String world;
+        final long firstTimestamp;
+        final TrajectoryCodec.Encoder encoder = new TrajectoryCodec.Encoder();
+        long lastTimestamp;
+        int steps;
+        int firstChunkX;
+        int firstChunkZ;
+        int lastX;
+        int lastY;
+        int lastZ;
+        int lastToChunkX;
+        int lastToChunkZ;
+
+        Track(LogEvent event) {
+            this.uuid = event.playerUuid;
+            this.name = event.playerName;
+            this.world = event.world;
+            this.firstTimestamp = event.timestamp;
+            this.firstChunkX = event.x >> 4;
+            this.firstChunkZ = event.z >> 4;
+        }
+
+        /**
+         * 写入 logs 视图的摘要，查询时会展开成逐步的记录
+         */
+        String summary() {
+            return String.format("Path: %d steps From [%d,%d] To [%d,%d]", steps, firstChunkX, firstChunkZ, lastToChunkX, lastToChunkZ);
+        }
+    }
+
+    /** 一段轨迹的最长时间跨度，分页查询据此找回跨越翻页位置的轨迹 */
+    static final long MAX_SPAN_MILLIS = 3_600_000L;
+
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxSteps;
+    private final Map<UUID, Track> tracks = new HashMap<>();
+    private final List<Track> closed = new ArrayList<>();
+    private long nextExpiry = Long.MAX_VALUE;
+
+    TrajectoryBuffer(boolean enabled, long windowMillis, int maxSteps) {
+        this.enabled = enabled;
+        this.windowMillis = Math.max(1000, Math.min(MAX_SPAN_MILLIS, windowMillis));
+        this.maxSteps = Math.max(1, maxSteps);
+    }
+
+    /**
+     * 收下一个移动事件，返回 false 表示不是要合并的事件，照常逐行写入
+     */
+    boolean accept(LogEvent event) {
+        if (!enabled || event.action != LogAction.CHUNK_MOVE || event.playerUuid == null) return false;
+        Track track = tracks.get(event.playerUuid);
+        if (track != null && (!Objects.equals(track.world, event.world)
+                || Partitions.dayOf(track.firstTimestamp) != Partitions.dayOf(event.timestamp))) {
+            close(event.playerUuid);
+            track = null;
+        }
+        if (track == null) {
+            track = new Track(event);
+            tracks.put(event.playerUuid, track);
+            nextExpiry = Math.min(nextExpiry, track.firstTimestamp + windowMillis);
+        }
+        track.encoder.append(event.timestamp, event.x, event.y, event.z, event.tx, event.tz);
+        track.steps++;
+        track.lastTimestamp = event.timestamp;
+        track.lastX = event.x;
+        track.lastY = event.y;
+        track.lastZ = event.z;
+        track.lastToChunkX = event.tx;
+        track.lastToChunkZ = event.tz;
+        if (track.steps >= maxSteps) close(event.playerUuid);
+        return true;
+    }
+
+    /**
+     * 结束该玩家的轨迹 (进出服务器时)
+     */
+    void close(UUID uuid) {
+        Track track = tracks.remove(uuid);
+        if (track != null) closed.add(track);
+    }
+
+    boolean hasExpired(long now) {
+        return now >= nextExpiry;
+    }
+
+    /**
+     * 结束所有超过时间窗口的轨迹
+     */
+    void closeExpired(long now) {
+        if (now < nextExpiry) return;
+        nextExpiry = Long.MAX_VALUE;
+        Iterator<Track> it = tracks.values().iterator();
+        while (it.hasNext()) {
+            Track track = it.next();
+            long expiry = track.firstTimestamp + windowMillis;
+            if (now >= expiry) {
+                it.remove();
+                closed.add(track);
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiry);
+            }
+        }
+    }
+
+    void closeAll() {
+        closed.addAll(tracks.values());
+        tracks.clear();
+        nextExpiry = Long.MAX_VALUE;
+    }
+
+    boolean hasOpen() {
+        return !tracks.isEmpty();
+    }
+
+    /**
+     * 取出所有已结束、等待写入的轨迹
+     */
+    List<Track> drainClosed() {
+        if (closed.isEmpty()) return List.of();
+        List<Track> drained = new ArrayList<>(closed);
+        closed.clear();
+        return drained;
+    }
+}
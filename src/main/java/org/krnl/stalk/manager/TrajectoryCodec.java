@@ -0,0 +1,98 @@
+package org.krnl.stalk.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 移动轨迹的紧凑编码：版本号之后每一步依次是时间、方块坐标相对上一步的差值，
+ * 以及目标区块相对当前区块的偏移，全部 zigzag 变长整数。一步通常只占 5~8 字节。
+ */
+final class TrajectoryCodec {
+
+    private static final int VERSION = 1;
+
+    /**
+     * 解码后的一步移动
+     */
+    record Step(long timestamp, int x, int y, int z, int toChunkX, int toChunkZ) {
+    }
+
+    /**
+     * 逐步追加的编码器，由写入线程独占
+     */
+    static final class Encoder {
+        private byte[] bytes = new byte[64];
+        private int length;
+        private long lastTimestamp;
+        private int lastX;
+        private int lastY;
+        private int lastZ;
+
+        Encoder() {
+            bytes[length++] = VERSION;
+        }
+
+        void append(long timestamp, int x, int y, int z, int toChunkX, int toChunkZ) {
+            writeLong(timestamp - lastTimestamp);
+            writeLong(x - lastX);
+            writeLong(y - lastY);
+            writeLong(z - lastZ);
+            writeLong(toChunkX - (x >> 4));
+            writeLong(toChunkZ - (z >> 4));
+            lastTimestamp = timestamp;
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void writeLong(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            if (length + 10 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((v & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+    }
+
+    private TrajectoryCodec() {
+    }
+
+    static List<Step> decode(byte[] data) {
+        List<Step> steps = new ArrayList<>();
+        if (data == null || data.length == 0 || data[0] != VERSION) return steps;
+        int[] pos = {1};
+        long timestamp = 0;
+        int x = 0;
+        int y = 0;
+        int z = 0;
+        while (pos[0] < data.length) {
+            timestamp += readLong(data, pos);
+            x += (int) readLong(data, pos);
+            y += (int) readLong(data, pos);
+            z += (int) readLong(data, pos);
+            int toChunkX = (x >> 4) + (int) readLong(data, pos);
+            int toChunkZ = (z >> 4) + (int) readLong(data, pos);
+            steps.add(new Step(timestamp, x, y, z, toChunkX, toChunkZ));
+        }
+        return steps;
+    }
+
+    private static long readLong(byte[] data, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
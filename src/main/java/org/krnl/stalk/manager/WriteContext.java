@@ -0,0 +1,9 @@
+package org.krnl.stalk.manager;
+
+import java.sql.Connection;
+
+/**
+ * 写入线程持有的连接和缓存，交给后台任务使用
+ */
+record WriteContext(Connection connection, Dictionary dictionary, Partitions partitions) {
+}
@@ -0,0 +1,107 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.*;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchWriterTest {
+
+    private static final Logger LOGGER = Logger.getLogger("BatchWriterTest");
+
+    @TempDir
+    File dir;
+    private String url;
+    private EventRingBuffer buffer;
+    private BatchWriter writer;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        url = "jdbc:sqlite:" + new File(dir, "stalk.db").getAbsolutePath();
+        try (Connection connection = DriverManager.getConnection(url)) {
+            Schema.init(connection);
+        }
+        buffer = new EventRingBuffer(64, EventRingBuffer.OverflowPolicy.BLOCK, 1000, LOGGER);
+        // 每批一条，坏事件单独成批
+        writer = new BatchWriter(LOGGER, buffer, new BlockHistoryCache(16, 1024 * 1024),
+                new TrajectoryBuffer(false, 300_000, 512), new EventCoalescer(EnumSet.noneOf(LogAction.class), 3000, 60_000),
+                new Metrics(), 1, 1);
+        writer.start(url, new Backlog(LOGGER, buffer, null, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown(5000);
+    }
+
+    @Test
+    void unexpectedErrorLosesOnlyItsBatch() throws SQLException {
+        // 没有材质的方块破坏在渲染详情时抛出 NullPointerException
+        LogEvent broken = event(LogAction.BLOCK_BREAK);
+        assertTrue(buffer.publish(broken));
+        LogEvent chat = event(LogAction.CHAT);
+        chat.text = "still writing";
+        assertTrue(buffer.publish(chat));
+
+        awaitWritten(1);
+        assertEquals(1, countRows());
+    }
+
+    @Test
+    void failingMaintenanceTaskIsDropped() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        writer.addMaintenance(new BatchWriter.MaintenanceTask() {
+            @Override
+            public boolean step(WriteContext ctx) {
+                throw new IllegalStateException("broken task");
+            }
+
+            @Override
+            public void failed() {
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+
+        LogEvent chat = event(LogAction.CHAT);
+        chat.text = "still writing";
+        assertTrue(buffer.publish(chat));
+        awaitWritten(1);
+        assertEquals(1, countRows());
+    }
+
+    private static LogEvent event(LogAction action) {
+        LogEvent event = new LogEvent();
+        event.reset(System.currentTimeMillis(), "Player", UUID.randomUUID(), action);
+        event.world = "world";
+        return event;
+    }
+
+    private void awaitWritten(long target) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (writer.getTotalWritten() < target) {
+            assertTrue(System.nanoTime() < deadline, "writer stopped writing");
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    private int countRows() throws SQLException {
+        String table = Partitions.tableName(Partitions.dayOf(System.currentTimeMillis()));
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.getInt(1);
+        }
+    }
+}
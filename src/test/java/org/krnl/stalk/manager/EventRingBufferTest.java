@@ -0,0 +1,206 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventRingBufferTest {
+
+    private static final Logger LOGGER = Logger.getLogger("EventRingBufferTest");
+    private static final UUID PLAYER = UUID.randomUUID();
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, buffer(5, EventRingBuffer.OverflowPolicy.BLOCK).capacity());
+        assertEquals(8, buffer(8, EventRingBuffer.OverflowPolicy.BLOCK).capacity());
+        assertEquals(16, buffer(9, EventRingBuffer.OverflowPolicy.BLOCK).capacity());
+    }
+
+    @Test
+    void wrapsAroundInOrder() {
+        EventRingBuffer buffer = buffer(8, EventRingBuffer.OverflowPolicy.BLOCK);
+        LogEvent out = new LogEvent();
+        int next = 0;
+        // 每轮放进 5 条再取出，多次绕过槽位数组的末尾
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(buffer.publish(event(LogAction.CHAT, round * 5 + i)));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertTrue(buffer.poll(out));
+                assertEquals(next++, out.x);
+                assertEquals(LogAction.CHAT, out.action);
+            }
+            assertTrue(buffer.isEmpty());
+        }
+        assertFalse(buffer.poll(out));
+    }
+
+    @Test
+    void blockDropsNewEventAfterTimeout() {
+        EventRingBuffer buffer = buffer(8, EventRingBuffer.OverflowPolicy.BLOCK);
+        fill(buffer, LogAction.CHAT, 8);
+        long start = System.nanoTime();
+        assertFalse(buffer.publish(event(LogAction.BLOCK_BREAK, 99)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, buffer.getDropped(LogAction.BLOCK_BREAK));
+        // 队列中原有的事件不受影响
+        assertEquals(8, buffer.size());
+        assertEquals(0, firstX(buffer));
+    }
+
+    @Test
+    void blockWaitsForConsumer() throws InterruptedException {
+        EventRingBuffer buffer = new EventRingBuffer(8, EventRingBuffer.OverflowPolicy.BLOCK, 5_000, LOGGER);
+        fill(buffer, LogAction.CHAT, 8);
+        Thread consumer = new Thread(() -> {
+            sleep(50);
+            buffer.poll(new LogEvent());
+        });
+        consumer.start();
+        assertTrue(buffer.publish(event(LogAction.CHAT, 8)));
+        consumer.join();
+        assertEquals(Map.of(), buffer.getDroppedCounts());
+        assertEquals(8, buffer.size());
+    }
+
+    @Test
+    void dropOldestEvictsHeadAndCountsItsAction() {
+        EventRingBuffer buffer = buffer(8, EventRingBuffer.OverflowPolicy.DROP_OLDEST);
+        fill(buffer, LogAction.INV_CLICK, 8);
+        assertTrue(buffer.publish(event(LogAction.BLOCK_BREAK, 8)));
+        assertTrue(buffer.publish(event(LogAction.BLOCK_BREAK, 9)));
+        assertEquals(Map.of(LogAction.INV_CLICK, 2L), buffer.getDroppedCounts());
+        assertEquals(8, buffer.size());
+
+        LogEvent out = new LogEvent();
+        int expected = 2;
+        while (buffer.poll(out)) {
+            assertEquals(expected++, out.x);
+        }
+        assertEquals(10, expected);
+    }
+
+    @Test
+    void priorityDropsByWatermark() {
+        EventRingBuffer buffer = buffer(16, EventRingBuffer.OverflowPolicy.PRIORITY);
+        // 低优先级在半满 (8) 时开始丢弃
+        assertEquals(8, fill(buffer, LogAction.CHUNK_MOVE, 16));
+        assertEquals(8, buffer.getDropped(LogAction.CHUNK_MOVE));
+        // 普通优先级到 80% (16 / 10 * 8 = 8) 时丢弃
+        assertEquals(0, fill(buffer, LogAction.CHAT, 4));
+        assertEquals(4, buffer.getDropped(LogAction.CHAT));
+        // 高优先级一直放到全满
+        assertEquals(8, fill(buffer, LogAction.BLOCK_BREAK, 10));
+        assertEquals(2, buffer.getDropped(LogAction.BLOCK_BREAK));
+        assertEquals(16, buffer.size());
+    }
+
+    @Test
+    void priorityAcceptsAgainAfterDrain() {
+        EventRingBuffer buffer = buffer(16, EventRingBuffer.OverflowPolicy.PRIORITY);
+        fill(buffer, LogAction.CHUNK_MOVE, 8);
+        assertFalse(buffer.publish(event(LogAction.CHUNK_MOVE, 8)));
+        assertTrue(buffer.poll(new LogEvent()));
+        assertTrue(buffer.publish(event(LogAction.CHUNK_MOVE, 9)));
+    }
+
+    @Test
+    void multipleProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 200_000;
+        EventRingBuffer buffer = new EventRingBuffer(1024, EventRingBuffer.OverflowPolicy.BLOCK, 10_000, LOGGER);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                LogEvent event = event(LogAction.CHAT, 0);
+                event.y = producer;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    event.x = i;
+                    assertTrue(buffer.publish(event));
+                }
+            });
+            threads[p].start();
+        }
+
+        AtomicBoolean producing = new AtomicBoolean(true);
+        int[] next = new int[producers];
+        long received = 0;
+        LogEvent out = new LogEvent();
+        start.countDown();
+        Thread joiner = new Thread(() -> {
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ignored) { }
+            }
+            producing.set(false);
+        });
+        joiner.start();
+        while (producing.get() || !buffer.isEmpty()) {
+            if (!buffer.poll(out)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            // 单个生产者的事件保持发布顺序
+            assertEquals(next[out.y]++, out.x);
+            received++;
+        }
+        joiner.join();
+        assertEquals((long) producers * perProducer, received);
+        for (int count : next) {
+            assertEquals(perProducer, count);
+        }
+        assertEquals(Map.of(), buffer.getDroppedCounts());
+    }
+
+    private static EventRingBuffer buffer(int capacity, EventRingBuffer.OverflowPolicy policy) {
+        return new EventRingBuffer(capacity, policy, 20, LOGGER);
+    }
+
+    private static LogEvent event(LogAction action, int x) {
+        LogEvent event = new LogEvent();
+        event.reset(System.currentTimeMillis(), "Player", PLAYER, action);
+        event.x = x;
+        return event;
+    }
+
+    /**
+     * 依次发布 count 条，返回被接受的条数
+     */
+    private static int fill(EventRingBuffer buffer, LogAction action, int count) {
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffer.publish(event(action, buffer.size()))) accepted++;
+        }
+        return accepted;
+    }
+
+    private static int firstX(EventRingBuffer buffer) {
+        LogEvent out = new LogEvent();
+        assertTrue(buffer.poll(out));
+        return out.x;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
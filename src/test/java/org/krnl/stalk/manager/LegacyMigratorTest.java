@@ -0,0 +1,61 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LegacyMigratorTest {
+
+    private static final Logger LOGGER = Logger.getLogger("LegacyMigratorTest");
+
+    @Test
+    void malformedRowsAreSkipped() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            // 旧版本的 logs 表，第二行的 UUID 无法解析
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE logs (id INTEGER PRIMARY KEY AUTOINCREMENT, time_stamp LONG NOT NULL, " +
+                        "player_name TEXT NOT NULL, player_uuid TEXT NOT NULL, action TEXT NOT NULL, details TEXT, " +
+                        "world TEXT, x INTEGER, y INTEGER, z INTEGER);");
+                stmt.execute("INSERT INTO logs (time_stamp, player_name, player_uuid, action, details, world, x, y, z) VALUES " +
+                        "(1700000000000, 'Alice', '00000000-0000-0000-0000-000000000001', 'CHAT', 'hi', 'world', 1, 2, 3), " +
+                        "(1700000001000, 'Bob', 'not-a-uuid', 'CHAT', 'broken', 'world', 1, 2, 3), " +
+                        "(1700000002000, 'Alice', '00000000-0000-0000-0000-000000000001', 'CHAT', 'bye', 'world', 1, 2, 3);");
+            }
+            List<String> pending = Schema.init(connection);
+            assertEquals(List.of(Schema.LEGACY_TABLE), pending);
+
+            connection.setAutoCommit(false);
+            Dictionary dictionary = new Dictionary();
+            Partitions partitions = new Partitions();
+            dictionary.load(connection);
+            partitions.load(connection);
+            WriteContext ctx = new WriteContext(connection, dictionary, partitions);
+            LegacyMigrator migrator = new LegacyMigrator(LOGGER, Schema.LEGACY_TABLE);
+            int steps = 0;
+            while (migrator.step(ctx)) {
+                connection.commit();
+                assertTrue(++steps < 10);
+            }
+            connection.commit();
+            partitions.close();
+
+            String table = Partitions.tableName(Partitions.dayOf(1700000000000L));
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT details FROM " + table + " ORDER BY time_stamp")) {
+                assertTrue(rs.next());
+                assertEquals("hi", rs.getString(1));
+                assertTrue(rs.next());
+                assertEquals("bye", rs.getString(1));
+                assertFalse(rs.next());
+            }
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = '" + Schema.LEGACY_TABLE + "'")) {
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogReaderTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private final UUID player = UUID.randomUUID();
+    // 当天 01:00 (UTC)，整条轨迹落在同一个分区
+    private final long start = Partitions.dayOf(System.currentTimeMillis()) * Partitions.DAY_MILLIS + 60 * MINUTE;
+    private TestDatabase db;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        db = new TestDatabase();
+        // 十步的轨迹，每分钟一步，时间戳是第十步
+        long[] timestamps = new long[10];
+        int[] xs = new int[10];
+        for (int i = 0; i < 10; i++) {
+            timestamps[i] = start + i * MINUTE;
+            xs[i] = i * 16;
+        }
+        db.insertTrack(player, timestamps, xs);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    void historySplitReadsTrackStepsBeforeCoverage() throws SQLException {
+        // 与 LogManager.searchLogs 相同：内存中的历史覆盖 coverage 之后，数据库只查之前的
+        long coverage = start + 5 * MINUTE;
+        List<LogRow> rows = read(new LogQuery().players(List.of(player)).between(Long.MIN_VALUE, coverage).limit(20));
+        assertEquals(List.of(4L, 3L, 2L, 1L, 0L), minutes(rows));
+    }
+
+    @Test
+    void trackStraddlingUntilKeepsStepsInRange() throws SQLException {
+        List<LogRow> rows = read(new LogQuery().players(List.of(player))
+                .between(start + 2 * MINUTE, start + 7 * MINUTE).limit(20));
+        assertEquals(List.of(6L, 5L, 4L, 3L, 2L), minutes(rows));
+    }
+
+    @Test
+    void nextPageKeepsStepsBeforeCursorAndUntil() throws SQLException {
+        LogQuery first = new LogQuery().players(List.of(player)).between(Long.MIN_VALUE, start + 5 * MINUTE).limit(3);
+        List<LogRow> page = read(first);
+        assertEquals(List.of(4L, 3L, 2L), minutes(page));
+
+        LogRow last = page.get(page.size() - 1);
+        List<LogRow> next = read(new LogQuery().players(List.of(player)).between(Long.MIN_VALUE, start + 5 * MINUTE)
+                .before(last.timestamp(), last.id()).limit(3));
+        assertEquals(List.of(1L, 0L), minutes(next));
+    }
+
+    private List<LogRow> read(LogQuery query) throws SQLException {
+        return LogReader.read(db.context(), LogManager.plan(query));
+    }
+
+    private List<Long> minutes(List<LogRow> rows) {
+        return rows.stream().map(row -> (row.timestamp() - start) / MINUTE).toList();
+    }
+}
@@ -0,0 +1,93 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerHistoryTest {
+
+    private final UUID player = UUID.randomUUID();
+    // 晚于 PlayerHistory 创建时的覆盖起点
+    private final long start = System.currentTimeMillis() + 60_000;
+
+    @Test
+    void coverageStartsAtCreationUntilTheRingWraps() {
+        long before = System.currentTimeMillis();
+        PlayerHistory history = new PlayerHistory(4);
+        long created = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            history.add(event(LogAction.CHAT, created + i, "m" + i));
+        }
+        PlayerHistory.Snapshot snapshot = history.snapshot(10, Set.of(), Set.of(), Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(List.of("m3", "m2", "m1", "m0"), details(snapshot));
+        // 还没覆盖旧槽位，覆盖起点仍是创建时间，之前的记录都在数据库中
+        assertTrue(snapshot.coverage() >= before && snapshot.coverage() <= created);
+    }
+
+    @Test
+    void evictionMovesCoveragePastTheOverwrittenEvent() {
+        PlayerHistory history = new PlayerHistory(3);
+        for (int i = 0; i < 5; i++) {
+            history.add(event(LogAction.CHAT, start + i * 10, "m" + i));
+        }
+        PlayerHistory.Snapshot snapshot = history.snapshot(10, Set.of(), Set.of(), Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(List.of("m4", "m3", "m2"), details(snapshot));
+        // m1 被覆盖：更早的记录要查数据库，查询结束时间正好接上 m2
+        assertEquals(start + 10 + 1, snapshot.coverage());
+    }
+
+    @Test
+    void eventsBeforeCoverageAreLeftToTheDatabase() {
+        PlayerHistory history = new PlayerHistory(3);
+        // 延迟到达的旧事件 (时间戳早于已覆盖的位置) 不从内存返回，数据库查询会包含它
+        history.add(event(LogAction.CHAT, start + 100, "a"));
+        history.add(event(LogAction.CHAT, start + 200, "b"));
+        history.add(event(LogAction.CHAT, start + 300, "c"));
+        history.add(event(LogAction.CHAT, start + 400, "d"));
+        history.add(event(LogAction.CHAT, start + 50, "late"));
+        PlayerHistory.Snapshot snapshot = history.snapshot(10, Set.of(), Set.of(), Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(List.of("d", "c"), details(snapshot));
+        assertEquals(start + 200 + 1, snapshot.coverage());
+    }
+
+    @Test
+    void snapshotSkipsExcludedActionsAndAppliesLimit() {
+        PlayerHistory history = new PlayerHistory(10);
+        history.add(event(LogAction.CHAT, start + 1, "chat1"));
+        history.add(event(LogAction.COMMAND, start + 2, "/cmd"));
+        history.add(event(LogAction.CHAT, start + 3, "chat2"));
+        history.add(event(LogAction.CHAT, start + 4, "chat3"));
+        PlayerHistory.Snapshot snapshot = history.snapshot(2, Set.of(), Set.of("COMMAND"), Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(List.of("chat3", "chat2"), details(snapshot));
+        assertEquals("CHAT", snapshot.rows().get(0).action());
+        assertEquals(player.toString(), snapshot.rows().get(0).playerUuid());
+    }
+
+    @Test
+    void snapshotKeepsOnlyRequestedActionsInTheWindow() {
+        PlayerHistory history = new PlayerHistory(10);
+        history.add(event(LogAction.CHAT, start + 1, "chat1"));
+        history.add(event(LogAction.COMMAND, start + 2, "/cmd"));
+        history.add(event(LogAction.CHAT, start + 3, "chat2"));
+        history.add(event(LogAction.CHAT, start + 4, "chat3"));
+        PlayerHistory.Snapshot snapshot = history.snapshot(10, Set.of("CHAT"), Set.of(), start + 1, start + 4);
+        assertEquals(List.of("chat2", "chat1"), details(snapshot));
+    }
+
+    private LogEvent event(LogAction action, long timestamp, String text) {
+        LogEvent event = new LogEvent();
+        event.reset(timestamp, "Player", player, action);
+        event.text = text;
+        event.world = "world";
+        return event;
+    }
+
+    private static List<String> details(PlayerHistory.Snapshot snapshot) {
+        return snapshot.rows().stream().map(LogRow::details).toList();
+    }
+}
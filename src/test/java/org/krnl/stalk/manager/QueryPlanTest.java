@@ -0,0 +1,140 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 用 EXPLAIN QUERY PLAN 检查 LogManager.plan 选定的索引确实被 SQLite 采用，
+ * 并且能按时间顺序直接给出结果 (没有 USE TEMP B-TREE FOR ORDER BY)
+ */
+class QueryPlanTest {
+
+    private static final String TEMP_SORT = "USE TEMP B-TREE FOR ORDER BY";
+
+    private final long day = Partitions.dayOf(System.currentTimeMillis());
+    private TestDatabase db;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // Schema.init 会建好当天的分区
+        db = new TestDatabase();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    void singlePlayerUsesPlayerTimeIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().players(List.of(UUID.randomUUID())));
+        assertUses(plan, "_player_time");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void singlePlayerPageUsesPlayerTimeIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().players(List.of(UUID.randomUUID()))
+                .between(0, 10_000).before(5_000, 42));
+        assertUses(plan, "_player_time");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void singleActionUsesActionIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().actions(Set.of(LogAction.CHAT.name())).between(0, 10_000));
+        assertUses(plan, "_action");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void playerAndActionPrefersPlayerIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().players(List.of(UUID.randomUUID()))
+                .actions(Set.of(LogAction.CHAT.name(), LogAction.COMMAND.name())));
+        assertUses(plan, "_player_time");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void timeRangeUsesTimeIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().between(0, 10_000));
+        assertUses(plan, "_time");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void exactBlockUsesBlockIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().block("world", 10, 64, -20));
+        assertUses(plan, "_block");
+        assertFalse(plan.contains(TEMP_SORT), plan::toString);
+    }
+
+    @Test
+    void areaUsesChunkIndex() throws SQLException {
+        // 区域是若干段区块键的范围，范围扫描的结果本来就要排序；这里只检查没有退化成全表扫描
+        List<String> plan = explain(new LogQuery().area("world", 0, 0, 40));
+        assertUses(plan, "_chunk");
+        assertTrue(plan.stream().noneMatch(line -> line.startsWith("SCAN e")), plan::toString);
+    }
+
+    @Test
+    void overlapReadUsesChosenIndex() throws SQLException {
+        List<String> plan = explain(new LogQuery().players(List.of(UUID.randomUUID())).between(0, 10_000), true);
+        assertUses(plan, "_player_time");
+    }
+
+    private List<String> explain(LogQuery query) throws SQLException {
+        return explain(query, false);
+    }
+
+    /**
+     * LogReader 读取当天分区的语句，LIMIT 取 20
+     */
+    private List<String> explain(LogQuery query, boolean overlap) throws SQLException {
+        LogQuery planned = resolve(LogManager.plan(query.limit(20)));
+        List<Object> params = new ArrayList<>();
+        String sql = LogReader.sql(Partitions.select(Partitions.tableName(day), true), planned, true, overlap, params);
+        params.add(20);
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement pstmt = db.connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            int index = 1;
+            for (Object param : params) {
+                pstmt.setObject(index++, param);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * LogReader 在查询前把玩家、动作和世界换成字典 id，查询计划与具体的值无关
+     */
+    private static LogQuery resolve(LogQuery query) {
+        if (query.playerUuids != null) {
+            query.playerIds = IntStream.rangeClosed(1, query.playerUuids.size()).boxed().toList();
+        }
+        query.actionIds = IntStream.rangeClosed(1, query.includedActions.size()).boxed().toList();
+        query.worldId = 1;
+        return query;
+    }
+
+    private void assertUses(List<String> plan, String suffix) {
+        String index = "idx_" + Partitions.tableName(day) + suffix + " ";
+        assertTrue(plan.stream().anyMatch(line -> line.startsWith("SEARCH e USING INDEX " + index)
+                || line.startsWith("SEARCH e USING COVERING INDEX " + index)), plan::toString);
+    }
+}
@@ -0,0 +1,126 @@
+package org.krnl.stalk.manager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentTest {
+
+    private static final int SIZE = 1 << 20;
+    private static final UUID PLAYER = UUID.randomUUID();
+
+    @TempDir
+    File dir;
+
+    @Test
+    void recoversUpToLastCompleteRecordAfterTruncation() throws IOException {
+        Segment segment = Segment.create(dir, 1, 0, SIZE);
+        int[] ends = append(segment, 0, 10);
+        segment.force();
+        segment.close();
+
+        // 第十条记录只有一部分落盘
+        truncate(segment.file, ends[8] + 20);
+
+        Segment reopened = Segment.open(segment.file);
+        assertEquals(ends[8], reopened.size());
+        assertEquals(range(0, 9), timestamps(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void tornRecordIsCutAndAppendingContinuesAfterIt() throws IOException {
+        Segment segment = Segment.create(dir, 1, 0, SIZE);
+        int[] ends = append(segment, 0, 10);
+        segment.force();
+        segment.close();
+
+        // 长度已经写入、内容没写全：校验和不符
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "rw")) {
+            raf.seek(ends[8] + Segment.RECORD_HEADER + 4);
+            raf.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        }
+
+        Segment reopened = Segment.open(segment.file);
+        assertFalse(reopened.isSealed());
+        assertEquals(ends[8], reopened.size());
+        assertEquals(range(0, 9), timestamps(reopened));
+
+        // 新记录覆盖写了一半的那条
+        append(reopened, 100, 1);
+        reopened.force();
+        reopened.close();
+
+        Segment again = Segment.open(segment.file);
+        List<Long> expected = range(0, 9);
+        expected.add(100L);
+        assertEquals(expected, timestamps(again));
+        again.close();
+    }
+
+    @Test
+    void sealedSegmentRebuildsMissingIndex() throws IOException {
+        Segment segment = Segment.create(dir, 1, 0, SIZE);
+        append(segment, 0, 10);
+        segment.seal();
+        segment.close();
+        assertTrue(new File(segment.file.getPath() + ".idx").delete());
+
+        Segment reopened = Segment.open(segment.file);
+        assertTrue(reopened.isSealed());
+        assertEquals(range(0, 10), timestamps(reopened));
+        reopened.close();
+    }
+
+    /**
+     * 追加 count 条时间戳从 from 开始的记录并发布，返回每条记录的末尾位置
+     */
+    private static int[] append(Segment segment, long from, int count) {
+        int[] ends = new int[count];
+        byte[] name = "Player".getBytes(StandardCharsets.UTF_8);
+        byte[] world = "world".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            byte[] details = ("broke STONE #" + (from + i)).getBytes(StandardCharsets.UTF_8);
+            assertTrue(segment.append(from + i, PLAYER, LogAction.BLOCK_BREAK.ordinal(), i, 64, -i, name, world, details));
+            segment.publish();
+            ends[i] = segment.size();
+        }
+        return ends;
+    }
+
+    private static List<Long> timestamps(Segment segment) throws IOException {
+        List<LogRow> rows = new ArrayList<>();
+        segment.scan(new ReadPool.QueryContext(null), new SegmentMatcher(new LogQuery().limit(1000)), rows);
+        rows.sort(Comparator.comparingLong(LogRow::timestamp));
+        List<Long> timestamps = new ArrayList<>();
+        for (LogRow row : rows) {
+            assertEquals("broke STONE #" + row.timestamp(), row.details());
+            timestamps.add(row.timestamp());
+        }
+        return timestamps;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> values = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+}
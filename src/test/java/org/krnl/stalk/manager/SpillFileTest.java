@@ -0,0 +1,260 @@
+package org.krnl.stalk.manager;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillFileTest {
+
+    private static final Logger LOGGER = Logger.getLogger("SpillFileTest");
+
+    @TempDir
+    File dir;
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        LogEvent full = new LogEvent();
+        full.reset(1_700_000_000_123L, "Steve", UUID.randomUUID(), LogAction.CONTAINER_CLOSE);
+        full.world = "world_nether";
+        full.x = -123_456;
+        full.y = -64;
+        full.z = 987_654;
+        full.details = "details ü 中文";
+        full.material = Material.STONE;
+        full.item = Material.DIAMOND;
+        full.amount = 64;
+        full.slot = -1;
+        full.kind = TimeUnit.SECONDS;
+        full.subKind = LogAction.CHAT;
+        full.damage = 7.25;
+        full.text = "hello";
+        full.targetName = "Alex";
+        full.target = UUID.randomUUID();
+        full.targetWorld = "world";
+        full.tx = 1;
+        full.ty = Integer.MIN_VALUE;
+        full.tz = Integer.MAX_VALUE;
+        full.contents = new int[]{3, -1, 0x1234_05, 0, Integer.MIN_VALUE};
+
+        // 空字符串和 null 要区分开；同一个玩家再次出现时只写编号
+        LogEvent empty = new LogEvent();
+        empty.reset(1_700_000_000_124L, "Steve", full.playerUuid, LogAction.CHAT);
+        empty.details = "";
+        empty.text = "";
+        empty.world = "";
+        empty.contents = new int[0];
+
+        LogEvent bare = new LogEvent();
+        bare.reset(0, null, null, LogAction.SESSION);
+
+        File file = write(full, empty, bare);
+        List<LogEvent> read = readAll(file);
+        assertEquals(3, read.size());
+        assertSame(full, read.get(0));
+        assertSame(empty, read.get(1));
+        assertSame(bare, read.get(2));
+    }
+
+    @Test
+    void stopsAtTruncatedRecord() throws IOException {
+        LogEvent[] events = events(5);
+        File file = write(events);
+        long length = file.length();
+
+        // 最后一条记录只写了一半
+        truncate(file, length - 3);
+        assertEquals(4, readAll(file).size());
+
+        // 截在长度前缀中间
+        File second = write(events);
+        truncate(second, headerAndRecords(events, 4) + 2);
+        assertEquals(4, readAll(second).size());
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        File file = new File(dir, "0000000000000001" + SpillFile.SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write("NOTSPILL....".getBytes());
+        }
+        assertThrows(IOException.class, () -> new SpillFile.Reader(file).close());
+    }
+
+    @Test
+    void replaysFilesInOrderAndDeletesThem() throws IOException {
+        File first = write(events(0, 25));
+        File second = write(events(25, 10));
+
+        List<Integer> flushed = new ArrayList<>();
+        LogEvent[] batch = batch(10);
+        long replayed = SpillFile.replay(LOGGER, List.of(first, second), batch, count -> collect(batch, count, flushed),
+                () -> false);
+
+        assertEquals(35, replayed);
+        assertEquals(range(0, 35), flushed);
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+        assertTrue(SpillFile.list(dir).isEmpty());
+    }
+
+    @Test
+    void abortMidFileKeepsExactlyTheUnreplayedSuffix() throws IOException {
+        File first = write(events(0, 100));
+        File second = write(events(100, 20));
+
+        List<Integer> flushed = new ArrayList<>();
+        LogEvent[] batch = batch(10);
+        int[] flushes = {0};
+        // 第三批写完后时限到
+        long replayed = SpillFile.replay(LOGGER, List.of(first, second), batch, count -> {
+            collect(batch, count, flushed);
+            flushes[0]++;
+        }, () -> flushes[0] >= 3);
+
+        assertEquals(30, replayed);
+        assertEquals(range(0, 30), flushed);
+        assertFalse(first.exists());
+        // 第二个文件没有动过，第一个文件剩下的部分另存为新文件
+        assertTrue(second.exists());
+        List<File> remaining = SpillFile.list(dir);
+        remaining.remove(second);
+        assertEquals(1, remaining.size());
+        List<Integer> rest = new ArrayList<>();
+        for (LogEvent event : readAll(remaining.get(0))) {
+            rest.add(event.x);
+        }
+        assertEquals(range(30, 100), rest);
+    }
+
+    @Test
+    void corruptFileIsKeptAsBad() throws IOException {
+        File file = write(events(3));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // 第一条记录的长度改成负数
+            raf.seek(12);
+            raf.writeInt(-5);
+        }
+        LogEvent[] batch = batch(10);
+        long replayed = SpillFile.replay(LOGGER, List.of(file), batch, count -> fail("nothing to flush"), () -> false);
+        assertEquals(0, replayed);
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + ".bad").exists());
+    }
+
+    private File write(LogEvent... events) throws IOException {
+        File file = SpillFile.next(dir);
+        try (SpillFile.Writer writer = new SpillFile.Writer(file)) {
+            for (LogEvent event : events) {
+                writer.append(event);
+            }
+            assertEquals(events.length, writer.count());
+        }
+        return file;
+    }
+
+    private static List<LogEvent> readAll(File file) throws IOException {
+        List<LogEvent> events = new ArrayList<>();
+        try (SpillFile.Reader reader = new SpillFile.Reader(file)) {
+            LogEvent event = new LogEvent();
+            while (reader.next(event)) {
+                events.add(event);
+                event = new LogEvent();
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 文件头加前 count 条记录的字节数
+     */
+    private long headerAndRecords(LogEvent[] events, int count) throws IOException {
+        LogEvent[] prefix = new LogEvent[count];
+        System.arraycopy(events, 0, prefix, 0, count);
+        return write(prefix).length();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static LogEvent[] events(int count) {
+        return events(0, count);
+    }
+
+    private static LogEvent[] events(int from, int count) {
+        UUID player = UUID.randomUUID();
+        LogEvent[] events = new LogEvent[count];
+        for (int i = 0; i < count; i++) {
+            LogEvent event = new LogEvent();
+            event.reset(1_700_000_000_000L + from + i, "Player", player, LogAction.BLOCK_BREAK);
+            event.world = "world";
+            event.x = from + i;
+            event.material = Material.DIRT;
+            events[i] = event;
+        }
+        return events;
+    }
+
+    private static LogEvent[] batch(int size) {
+        LogEvent[] batch = new LogEvent[size];
+        for (int i = 0; i < size; i++) {
+            batch[i] = new LogEvent();
+        }
+        return batch;
+    }
+
+    private static void collect(LogEvent[] batch, int count, List<Integer> flushed) {
+        for (int i = 0; i < count; i++) {
+            flushed.add(batch[i].x);
+            batch[i].clear();
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static void assertSame(LogEvent expected, LogEvent actual) {
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.playerName, actual.playerName);
+        assertEquals(expected.playerUuid, actual.playerUuid);
+        assertEquals(expected.action, actual.action);
+        assertEquals(expected.world, actual.world);
+        assertEquals(expected.x, actual.x);
+        assertEquals(expected.y, actual.y);
+        assertEquals(expected.z, actual.z);
+        assertEquals(expected.details, actual.details);
+        assertEquals(expected.material, actual.material);
+        assertEquals(expected.item, actual.item);
+        assertEquals(expected.amount, actual.amount);
+        assertEquals(expected.slot, actual.slot);
+        assertEquals(expected.kind, actual.kind);
+        assertEquals(expected.subKind, actual.subKind);
+        assertEquals(expected.damage, actual.damage);
+        assertEquals(expected.text, actual.text);
+        assertEquals(expected.targetName, actual.targetName);
+        assertEquals(expected.target, actual.target);
+        assertEquals(expected.targetWorld, actual.targetWorld);
+        assertEquals(expected.tx, actual.tx);
+        assertEquals(expected.ty, actual.ty);
+        assertEquals(expected.tz, actual.tz);
+        assertArrayEquals(expected.contents, actual.contents);
+    }
+}
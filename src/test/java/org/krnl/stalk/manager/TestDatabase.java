@@ -0,0 +1,73 @@
+package org.krnl.stalk.manager;
+
+import java.sql.*;
+import java.util.UUID;
+
+/**
+ * 测试用的内存 SQLite 数据库：建好结构后按分区直接写入记录，查询与插件共用 LogReader
+ */
+final class TestDatabase implements AutoCloseable {
+
+    final Connection connection;
+    final Dictionary dictionary = new Dictionary();
+    final Partitions partitions = new Partitions();
+
+    TestDatabase() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Schema.init(connection);
+        connection.setAutoCommit(false);
+        dictionary.load(connection);
+        partitions.load(connection);
+        connection.commit();
+    }
+
+    /**
+     * 写入一条普通记录
+     */
+    void insert(UUID player, LogAction action, long timestamp, int x, int y, int z) throws SQLException {
+        insert(player, action, timestamp, action.name(), x, y, z, null);
+    }
+
+    /**
+     * 写入一条压缩轨迹，时间戳和坐标取最后一步 (与 BatchWriter 相同)
+     */
+    void insertTrack(UUID player, long[] timestamps, int[] xs) throws SQLException {
+        TrajectoryCodec.Encoder encoder = new TrajectoryCodec.Encoder();
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.append(timestamps[i], xs[i], 64, 0, (xs[i] >> 4) + 1, 0);
+        }
+        int last = timestamps.length - 1;
+        insert(player, LogAction.CHUNK_MOVE, timestamps[last], "track", xs[last], 64, 0, encoder.toByteArray());
+    }
+
+    private void insert(UUID player, LogAction action, long timestamp, String details, int x, int y, int z,
+                        byte[] data) throws SQLException {
+        PreparedStatement insert = partitions.insertFor(timestamp);
+        insert.setLong(1, timestamp);
+        insert.setInt(2, dictionary.playerId(player, "Player"));
+        insert.setInt(3, dictionary.actionId(action));
+        insert.setString(4, details);
+        insert.setInt(5, dictionary.worldId("world"));
+        insert.setInt(6, x);
+        insert.setInt(7, y);
+        insert.setInt(8, z);
+        insert.setBytes(9, data);
+        insert.setNull(10, Types.INTEGER);
+        insert.setNull(11, Types.INTEGER);
+        insert.addBatch();
+        partitions.executeBatches();
+        connection.commit();
+    }
+
+    ReadPool.QueryContext context() {
+        ReadPool.QueryContext ctx = new ReadPool.QueryContext(null);
+        ctx.attach(connection);
+        return ctx;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        partitions.close();
+        connection.close();
+    }
+}